@@ -0,0 +1,96 @@
+package file.transfer.benchmarks;
+
+import file.transfer.service.FileTransferServiceApplication;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试的公共方法
+ *
+ * @author Cxx
+ */
+public class BenchmarkSupport {
+    // 写入测试文件的缓冲区大小
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 启动不带Web服务器的服务 直接调用ChunkService
+     * 关闭定时清理和自动合并 避免影响测试结果
+     *
+     * @param args 额外的配置 例如 --file-transfer.upload.mode=DIRECT_WRITE
+     * @return Spring上下文
+     */
+    public static ConfigurableApplicationContext startService(String... args) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "--file-transfer.sweeper.enabled=false",
+                "--file-transfer.merge.auto-merge=false",
+                "--logging.level.root=WARN"));
+        arguments.addAll(Arrays.asList(args));
+
+        return new SpringApplicationBuilder(FileTransferServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run(arguments.toArray(new String[0]));
+    }
+
+    /**
+     * 生成指定大小的随机内容文件
+     *
+     * @param path 文件路径
+     * @param size 文件大小
+     * @throws IOException IO错误
+     */
+    public static void createRandomFile(Path path, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            for (long written = 0; written < size; written = written + buffer.length) {
+                random.nextBytes(buffer);
+                outputStream.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    /**
+     * 删除测试目录
+     *
+     * @param folder 测试目录
+     * @throws IOException IO错误
+     */
+    public static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
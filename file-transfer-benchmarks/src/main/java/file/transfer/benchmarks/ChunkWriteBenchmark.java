@@ -0,0 +1,104 @@
+package file.transfer.benchmarks;
+
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.service.ChunkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 文件块写入 ChunkService.saveChunk(上传接口/fileUpload/chunk的写入部分)
+ * 同一个文件的文件块循环写入 每轮测试结束后删除 磁盘占用不超过 CHUNKS * chunkSize
+ *
+ * @author Cxx
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkWriteBenchmark {
+    private static final String IDENTIFIER = "chunk-write";
+    private static final String FILENAME = "chunk-write.bin";
+    // 循环写入的文件块个数
+    private static final int CHUNKS = 64;
+
+    @Param({"1048576", "4194304", "16777216"})
+    private int chunkSize;
+
+    @Param({"CHUNK_FILE", "DIRECT_WRITE"})
+    private String mode;
+
+    private Path workFolder;
+    private String uploadFolder;
+    private FileMultipartFile chunkContent;
+    private ConfigurableApplicationContext context;
+    private ChunkService chunkService;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workFolder = Files.createTempDirectory("chunk-write-benchmark");
+        uploadFolder = Files.createDirectory(workFolder.resolve("upload")).toString();
+        Path source = workFolder.resolve("source");
+        BenchmarkSupport.createRandomFile(source, chunkSize);
+        chunkContent = new FileMultipartFile(source);
+
+        context = BenchmarkSupport.startService("--file-transfer.upload.mode=" + mode);
+        chunkService = context.getBean(ChunkService.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteChunks() {
+        chunkService.deleteChunk(IDENTIFIER, uploadFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.deleteRecursively(workFolder);
+    }
+
+    @Benchmark
+    public void writeChunk() throws IOException {
+        chunkService.saveChunk(nextChunkInfo(), uploadFolder);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void writeChunkConcurrent() throws IOException {
+        chunkService.saveChunk(nextChunkInfo(), uploadFolder);
+    }
+
+    private ChunkInfo nextChunkInfo() {
+        ChunkInfo chunkInfo = new ChunkInfo();
+        chunkInfo.setIdentifier(IDENTIFIER);
+        chunkInfo.setFilename(FILENAME);
+        chunkInfo.setChunkNumber(Math.floorMod(nextChunk.getAndIncrement(), CHUNKS) + 1);
+        chunkInfo.setChunkSize((long) chunkSize);
+        chunkInfo.setCurrentChunkSize((long) chunkSize);
+        chunkInfo.setTotalSize((long) chunkSize * CHUNKS);
+        chunkInfo.setTotalChunks(CHUNKS);
+        chunkInfo.setMultipartFile(chunkContent);
+        return chunkInfo;
+    }
+}
@@ -0,0 +1,45 @@
+package file.transfer.benchmarks;
+
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * 丢弃响应内容的response 只统计写入的字节数 避免在内存中缓存下载内容
+ *
+ * @author Cxx
+ */
+public class DiscardingHttpServletResponse extends MockHttpServletResponse {
+    private long written;
+
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written = written + len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    };
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+}
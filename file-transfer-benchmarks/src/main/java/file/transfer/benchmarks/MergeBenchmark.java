@@ -0,0 +1,98 @@
+package file.transfer.benchmarks;
+
+import file.transfer.service.service.ChunkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并文件块 ChunkService.mergeFile(文件块模式)
+ * 文件块只生成一次 每次合并前以硬链接的形式放入文件块文件夹 合并删除的只是链接
+ *
+ * @author Cxx
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+    private static final String IDENTIFIER = "merge";
+    private static final String FILENAME = "merge.bin";
+
+    @Param({"67108864", "268435456"})
+    private long fileSize;
+
+    @Param({"1048576", "8388608"})
+    private int chunkSize;
+
+    // 并行写入目标文件的线程数 file-transfer.merge.parallelism
+    @Param({"1", "4"})
+    private int parallelism;
+
+    private Path workFolder;
+    private Path sourceFolder;
+    private Path chunkFolder;
+    private int chunkCount;
+    private ConfigurableApplicationContext context;
+    private ChunkService chunkService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workFolder = Files.createTempDirectory("merge-benchmark");
+        sourceFolder = Files.createDirectory(workFolder.resolve("source"));
+        chunkFolder = workFolder.resolve("upload").resolve(IDENTIFIER);
+
+        // 最后一个文件块可能不足chunkSize
+        chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        for (int chunkNumber = 1; chunkNumber <= chunkCount; chunkNumber++) {
+            long size = Math.min(chunkSize, fileSize - (long) (chunkNumber - 1) * chunkSize);
+            BenchmarkSupport.createRandomFile(sourceFolder.resolve(FILENAME + "_" + chunkNumber), size);
+        }
+
+        context = BenchmarkSupport.startService("--file-transfer.merge.parallelism=" + parallelism);
+        chunkService = context.getBean(ChunkService.class);
+    }
+
+    @Setup(Level.Invocation)
+    public void linkChunks() throws IOException {
+        BenchmarkSupport.deleteRecursively(chunkFolder);
+        Files.createDirectories(chunkFolder);
+        for (int chunkNumber = 1; chunkNumber <= chunkCount; chunkNumber++) {
+            String chunkFilename = FILENAME + "_" + chunkNumber;
+            Files.createLink(chunkFolder.resolve(chunkFilename), sourceFolder.resolve(chunkFilename));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.deleteRecursively(workFolder);
+    }
+
+    @Benchmark
+    public boolean mergeFile() {
+        boolean merged = chunkService.mergeFile(chunkFolder.resolve(FILENAME).toString(), chunkFolder.toString(), FILENAME);
+        if (!merged) {
+            throw new IllegalStateException("文件合并失败");
+        }
+        return merged;
+    }
+}
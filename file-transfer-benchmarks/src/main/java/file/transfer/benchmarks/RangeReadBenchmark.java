@@ -0,0 +1,119 @@
+package file.transfer.benchmarks;
+
+import file.transfer.service.service.ChunkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片下载 ChunkService.downloadChunk(下载接口/fileDownload/chunk)
+ * 没有Tomcat的sendfile 测试的是FileChannel.transferTo写入response的路径 响应内容直接丢弃
+ *
+ * @author Cxx
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeReadBenchmark {
+    // 下载文件大小
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+    // 多个字节范围时的范围个数
+    private static final int MULTIPART_RANGES = 4;
+
+    @Param({"65536", "1048576", "8388608"})
+    private int rangeSize;
+
+    // SEQUENTIAL: 依次读取(前端分片下载) RANDOM: 随机位置 MULTIPART: 一次请求多个随机范围
+    @Param({"SEQUENTIAL", "RANDOM", "MULTIPART"})
+    private String pattern;
+
+    private Path workFolder;
+    private File file;
+    private ConfigurableApplicationContext context;
+    private ChunkService chunkService;
+    private final AtomicLong nextPosition = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workFolder = Files.createTempDirectory("range-read-benchmark");
+        Path path = workFolder.resolve("download.bin");
+        BenchmarkSupport.createRandomFile(path, FILE_SIZE);
+        file = path.toFile();
+
+        context = BenchmarkSupport.startService();
+        chunkService = context.getBean(ChunkService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.deleteRecursively(workFolder);
+    }
+
+    @Benchmark
+    public long readRange() throws IOException {
+        return download();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long readRangeConcurrent() throws IOException {
+        return download();
+    }
+
+    private long download() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fileDownload/chunk");
+        request.addHeader("Range", "bytes=" + nextRanges());
+        DiscardingHttpServletResponse response = new DiscardingHttpServletResponse();
+        chunkService.downloadChunk(file, request, response);
+        return response.getWritten();
+    }
+
+    private String nextRanges() {
+        switch (pattern) {
+            case "SEQUENTIAL":
+                long start = nextPosition.getAndAdd(rangeSize) % (FILE_SIZE - rangeSize + 1);
+                return start + "-" + (start + rangeSize - 1);
+            case "RANDOM":
+                return randomRange(rangeSize);
+            default:
+                StringBuilder ranges = new StringBuilder();
+                for (int i = 0; i < MULTIPART_RANGES; i++) {
+                    if (i > 0) {
+                        ranges.append(',');
+                    }
+                    ranges.append(randomRange(rangeSize / MULTIPART_RANGES));
+                }
+                return ranges.toString();
+        }
+    }
+
+    private static String randomRange(int size) {
+        long start = ThreadLocalRandom.current().nextLong(FILE_SIZE - size + 1);
+        return start + "-" + (start + size - 1);
+    }
+}
@@ -0,0 +1,346 @@
+package file.transfer.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 服务端之间的分片下载客户端
+ * 先通过/fileDownload/getFileInfo获取文件大小 再利用多个连接并发下载/fileDownload/chunk的各个字节范围
+ * 每个文件块按位置直接写入预分配的.part文件 下载进度记录在.progress文件中 中断后可以继续下载
+ *
+ * @author Cxx
+ */
+@Slf4j
+public class ChunkDownloadClient implements AutoCloseable {
+    // 下载中的文件后缀
+    private static final String PART_SUFFIX = ".part";
+    // 下载进度文件后缀
+    private static final String PROGRESS_SUFFIX = ".progress";
+    // 读取响应体的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String baseUrl;
+    private final DownloadOptions options;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ChunkDownloadClient(String baseUrl) {
+        this(baseUrl, new DownloadOptions());
+    }
+
+    public ChunkDownloadClient(String baseUrl, DownloadOptions options) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.options = options;
+        // HttpClient内部维护HTTP/1.1长连接池 每个并发的文件块占用一个连接
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(options.getConnectTimeout())
+                .build();
+        this.executor = Executors.newFixedThreadPool(options.getParallelism());
+    }
+
+    /**
+     * 下载文件 如果存在上次中断的进度则继续下载
+     *
+     * @param downloadFolderPath 服务端下载文件夹路径
+     * @param fileName           文件名
+     * @param target             本地保存路径
+     * @throws IOException          IO错误或服务端返回错误
+     * @throws InterruptedException 下载被中断
+     */
+    public void download(String downloadFolderPath, String fileName, Path target)
+            throws IOException, InterruptedException {
+        long fileLength = getFileLength(downloadFolderPath, fileName);
+        Path partPath = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Path progressPath = target.resolveSibling(target.getFileName() + PROGRESS_SUFFIX);
+
+        try {
+            downloadFile(downloadFolderPath, fileName, fileLength, partPath, progressPath);
+        } catch (FileChangedException exception) {
+            // 服务端文件在上次下载后被修改 已下载的部分作废 重新下载
+            log.warn("服务端文件已修改 重新下载:{}", fileName);
+            Files.deleteIfExists(progressPath);
+            Files.deleteIfExists(partPath);
+            fileLength = getFileLength(downloadFolderPath, fileName);
+            downloadFile(downloadFolderPath, fileName, fileLength, partPath, progressPath);
+        }
+
+        try {
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(progressPath);
+    }
+
+    /**
+     * 获取服务端文件大小
+     *
+     * @param downloadFolderPath 服务端下载文件夹路径
+     * @param fileName           文件名
+     * @return 文件大小
+     * @throws IOException          IO错误或服务端返回错误
+     * @throws InterruptedException 请求被中断
+     */
+    public long getFileLength(String downloadFolderPath, String fileName) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(buildUri("/fileDownload/getFileInfo", downloadFolderPath, fileName))
+                .timeout(options.getRequestTimeout())
+                .GET()
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("获取下载文件信息失败: 状态码" + response.statusCode());
+        }
+
+        JsonNode result = objectMapper.readTree(response.body());
+        if (!result.path("success").asBoolean()) {
+            throw new IOException("获取下载文件信息失败: " + result.path("message").asText());
+        }
+        return result.path("data").path("fileLength").asLong();
+    }
+
+    /**
+     * 下载所有未完成的文件块到.part文件
+     *
+     * @param downloadFolderPath 服务端下载文件夹路径
+     * @param fileName           文件名
+     * @param fileLength         文件大小
+     * @param partPath           .part文件路径
+     * @param progressPath       进度文件路径
+     * @throws IOException          IO错误或服务端返回错误
+     * @throws InterruptedException 下载被中断
+     */
+    private void downloadFile(String downloadFolderPath, String fileName, long fileLength,
+                              Path partPath, Path progressPath) throws IOException, InterruptedException {
+        DownloadProgress progress = loadProgress(progressPath, partPath, fileLength);
+        URI uri = buildUri("/fileDownload/chunk", downloadFolderPath, fileName);
+        long startTime = System.nanoTime();
+
+        // 预分配文件 各个文件块按位置写入 不需要再合并
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(partPath.toFile(), "rw")) {
+            randomAccessFile.setLength(fileLength);
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+            List<Integer> chunkIndexes = new ArrayList<>();
+            for (int i = 0; i < progress.getTotalChunks(); i++) {
+                if (!progress.get(i)) {
+                    chunkIndexes.add(i);
+                }
+            }
+
+            // 首次下载时先同步下载第一个文件块 获取ETag后其余文件块都携带If-Range 防止拼接出不同版本的文件
+            if (progress.getETag() == null && !chunkIndexes.isEmpty()) {
+                downloadChunkWithRetry(uri, fileChannel, progress, progressPath, chunkIndexes.remove(0));
+            }
+
+            // 任意文件块失败后不再开始新的文件块
+            AtomicBoolean failed = new AtomicBoolean(false);
+            List<CompletableFuture<Void>> futures = new ArrayList<>(chunkIndexes.size());
+            for (int chunkIndex : chunkIndexes) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (failed.get()) {
+                        return;
+                    }
+                    try {
+                        downloadChunkWithRetry(uri, fileChannel, progress, progressPath, chunkIndex);
+                    } catch (IOException exception) {
+                        failed.set(true);
+                        throw new CompletionException(exception);
+                    } catch (InterruptedException exception) {
+                        failed.set(true);
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(new InterruptedIOException("下载被中断"));
+                    }
+                }, executor));
+            }
+
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException exception) {
+                if (exception.getCause() instanceof IOException) {
+                    throw (IOException) exception.getCause();
+                }
+                throw exception;
+            }
+
+            fileChannel.force(true);
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        log.info("下载完成:{} 大小:{}字节 耗时:{}秒 速度:{}MB/s", fileName, fileLength,
+                String.format("%.2f", seconds), String.format("%.2f", fileLength / 1024.0 / 1024.0 / seconds));
+    }
+
+    /**
+     * 读取上次的下载进度 文件大小或文件块大小变化时重新下载
+     */
+    private DownloadProgress loadProgress(Path progressPath, Path partPath, long fileLength) {
+        if (Files.exists(progressPath) && Files.exists(partPath)) {
+            try {
+                DownloadProgress progress = DownloadProgress.load(progressPath);
+                if (progress.matches(fileLength, options.getChunkSize())) {
+                    log.info("继续下载:{} 已完成文件块:{}/{}", partPath, progress.cardinality(), progress.getTotalChunks());
+                    return progress;
+                }
+            } catch (IOException exception) {
+                log.warn("读取下载进度失败:{}", exception.getMessage());
+            }
+        }
+
+        return new DownloadProgress(fileLength, options.getChunkSize());
+    }
+
+    /**
+     * 下载文件块 失败后重试
+     */
+    private void downloadChunkWithRetry(URI uri, FileChannel fileChannel, DownloadProgress progress,
+                                        Path progressPath, int chunkIndex) throws IOException, InterruptedException {
+        for (int retry = 0; ; retry++) {
+            try {
+                downloadChunk(uri, fileChannel, progress, chunkIndex);
+                break;
+            } catch (FileChangedException exception) {
+                throw exception;
+            } catch (IOException exception) {
+                if (retry >= options.getMaxRetries()) {
+                    throw exception;
+                }
+                log.warn("下载文件块{}失败 第{}次重试:{}", chunkIndex + 1, retry + 1, exception.getMessage());
+                Thread.sleep(500L << retry);
+            }
+        }
+
+        progress.set(chunkIndex);
+        progress.store(progressPath);
+    }
+
+    /**
+     * 下载单个文件块 并按位置写入文件
+     *
+     * @param uri         下载地址
+     * @param fileChannel .part文件通道
+     * @param progress    下载进度
+     * @param chunkIndex  文件块下标
+     * @throws IOException          IO错误或服务端返回错误
+     * @throws InterruptedException 请求被中断
+     */
+    private void downloadChunk(URI uri, FileChannel fileChannel, DownloadProgress progress, int chunkIndex)
+            throws IOException, InterruptedException {
+        long start = progress.getStart(chunkIndex);
+        long end = progress.getEnd(chunkIndex);
+        String eTag = progress.getETag();
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(options.getRequestTimeout())
+                .header("Range", "bytes=" + start + "-" + end);
+        if (eTag != null) {
+            builder.header("If-Range", eTag);
+        }
+        HttpResponse<InputStream> response = httpClient.send(builder.GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream inputStream = response.body()) {
+            // If-Range不成立时服务端返回整个文件
+            if (response.statusCode() == 200 && eTag != null) {
+                throw new FileChangedException();
+            }
+            if (response.statusCode() != 206) {
+                throw new IOException("下载文件块失败: 状态码" + response.statusCode());
+            }
+            String contentRange = response.headers().firstValue("Content-Range").orElse("");
+            if (!contentRange.startsWith("bytes " + start + "-" + end + "/")) {
+                throw new IOException("下载文件块失败: Content-Range不匹配 " + contentRange);
+            }
+            if (eTag == null) {
+                progress.setETag(response.headers().firstValue("ETag").orElse(null));
+            }
+
+            ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = start;
+            while (position <= end) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, end + 1 - position));
+                if (inputChannel.read(buffer) < 0) {
+                    throw new EOFException("文件块" + (chunkIndex + 1) + "不完整");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position = position + fileChannel.write(buffer, position);
+                }
+            }
+        }
+    }
+
+    private URI buildUri(String path, String downloadFolderPath, String fileName) {
+        return URI.create(baseUrl + path
+                + "?downloadFolderPath=" + URLEncoder.encode(downloadFolderPath, StandardCharsets.UTF_8)
+                + "&fileName=" + URLEncoder.encode(fileName, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 服务端文件在下载过程中被修改
+     */
+    private static class FileChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FileChangedException() {
+            super("服务端文件已修改");
+        }
+    }
+
+    /**
+     * 命令行下载
+     * 参数: 服务端地址 服务端下载文件夹路径 文件名 本地保存路径 [并发数]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("用法: ChunkDownloadClient <baseUrl> <downloadFolderPath> <fileName> <target> [parallelism]");
+            System.exit(1);
+        }
+
+        DownloadOptions options = new DownloadOptions();
+        if (args.length > 4) {
+            options.setParallelism(Integer.parseInt(args[4]));
+        }
+        try (ChunkDownloadClient client = new ChunkDownloadClient(args[0], options)) {
+            client.download(args[1], args[2], Paths.get(args[3]));
+        }
+    }
+}
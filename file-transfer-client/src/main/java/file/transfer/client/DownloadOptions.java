@@ -0,0 +1,24 @@
+package file.transfer.client;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 分片下载配置
+ *
+ * @author Cxx
+ */
+@Data
+public class DownloadOptions {
+    // 每个文件块的大小
+    private int chunkSize = 8 * 1024 * 1024;
+    // 同时下载的文件块个数(并发连接数)
+    private int parallelism = 8;
+    // 连接超时时间
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    // 单个文件块的请求超时时间
+    private Duration requestTimeout = Duration.ofMinutes(5);
+    // 单个文件块失败后的最大重试次数
+    private int maxRetries = 3;
+}
@@ -0,0 +1,139 @@
+package file.transfer.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * 下载进度 记录已经下载完成的文件块 用于断点续传
+ * 持久化格式: 8字节文件大小 + 4字节文件块大小 + 2字节ETag长度 + ETag + 位图字节
+ *
+ * @author Cxx
+ */
+public class DownloadProgress {
+    // 下载文件的大小
+    private final long fileLength;
+    // 文件块大小
+    private final int chunkSize;
+    // 文件块总数
+    private final int totalChunks;
+    // 服务端文件的ETag 用于在续传时检测文件是否被修改
+    private volatile String eTag;
+    // 已下载的文件块 第0位对应第1个文件块
+    private final BitSet bitSet;
+
+    public DownloadProgress(long fileLength, int chunkSize) {
+        this(fileLength, chunkSize, null, new BitSet());
+    }
+
+    private DownloadProgress(long fileLength, int chunkSize, String eTag, BitSet bitSet) {
+        this.fileLength = fileLength;
+        this.chunkSize = chunkSize;
+        this.totalChunks = (int) ((fileLength + chunkSize - 1) / chunkSize);
+        this.eTag = eTag;
+        this.bitSet = bitSet;
+    }
+
+    /**
+     * 从进度文件中读取下载进度
+     *
+     * @param path 进度文件路径
+     * @return 下载进度
+     * @throws IOException IO错误或文件格式错误
+     */
+    public static DownloadProgress load(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            long fileLength = buffer.getLong();
+            int chunkSize = buffer.getInt();
+            byte[] eTagBytes = new byte[buffer.getShort()];
+            buffer.get(eTagBytes);
+            String eTag = eTagBytes.length == 0 ? null : new String(eTagBytes, StandardCharsets.US_ASCII);
+            return new DownloadProgress(fileLength, chunkSize, eTag, BitSet.valueOf(buffer));
+        } catch (RuntimeException exception) {
+            throw new EOFException("下载进度文件不完整: " + path);
+        }
+    }
+
+    /**
+     * 将下载进度写入进度文件 先写临时文件再替换 避免中断时留下不完整的进度文件
+     *
+     * @param path 进度文件路径
+     * @throws IOException IO错误
+     */
+    public synchronized void store(Path path) throws IOException {
+        byte[] eTagBytes = eTag == null ? new byte[0] : eTag.getBytes(StandardCharsets.US_ASCII);
+        byte[] bits = bitSet.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + Short.BYTES + eTagBytes.length + bits.length)
+                .putLong(fileLength)
+                .putInt(chunkSize)
+                .putShort((short) eTagBytes.length)
+                .put(eTagBytes)
+                .put(bits);
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, buffer.array());
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 判断进度文件是否属于同一次下载
+     *
+     * @param fileLength 文件大小
+     * @param chunkSize  文件块大小
+     */
+    public boolean matches(long fileLength, int chunkSize) {
+        return this.fileLength == fileLength && this.chunkSize == chunkSize;
+    }
+
+    public synchronized void set(int chunkIndex) {
+        bitSet.set(chunkIndex);
+    }
+
+    public synchronized boolean get(int chunkIndex) {
+        return bitSet.get(chunkIndex);
+    }
+
+    public synchronized int cardinality() {
+        return bitSet.cardinality();
+    }
+
+    public synchronized boolean isComplete() {
+        return bitSet.cardinality() >= totalChunks;
+    }
+
+    /**
+     * 文件块的起始位置
+     */
+    public long getStart(int chunkIndex) {
+        return (long) chunkIndex * chunkSize;
+    }
+
+    /**
+     * 文件块的结束位置(包含)
+     */
+    public long getEnd(int chunkIndex) {
+        return Math.min(getStart(chunkIndex) + chunkSize, fileLength) - 1;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+}
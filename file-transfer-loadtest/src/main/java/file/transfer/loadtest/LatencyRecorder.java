@@ -0,0 +1,86 @@
+package file.transfer.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录一种操作的耗时 成功的耗时全部保存 结束后排序计算分位数
+ *
+ * @author Cxx
+ */
+public class LatencyRecorder {
+    private final String name;
+    // 成功的耗时(纳秒)
+    private long[] latencies = new long[1024];
+    private int count;
+    private final LongAdder failures = new LongAdder();
+    // 成功传输的字节数
+    private final LongAdder bytes = new LongAdder();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次成功的操作
+     *
+     * @param nanos 耗时(纳秒)
+     * @param bytes 传输的字节数
+     */
+    public void success(long nanos, long bytes) {
+        this.bytes.add(bytes);
+        synchronized (this) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    /**
+     * 记录一次失败的操作
+     */
+    public void failure() {
+        failures.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * 获取耗时的分位数
+     *
+     * @param percentile 分位 0-100
+     * @return 耗时(毫秒) 没有记录时为0
+     */
+    public double percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(latencies, count);
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
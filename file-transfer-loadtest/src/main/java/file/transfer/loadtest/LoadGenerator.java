@@ -0,0 +1,415 @@
+package file.transfer.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测负载 每个并发用户按照前端的协议依次上传或下载文件
+ * 上传: GET /fileUpload/chunk 校验 -> 逐个POST /fileUpload/chunk -> POST /fileUpload/mergeFile 并轮询合并任务
+ * 下载: GET /fileDownload/getFileInfo -> 按字节范围逐个GET /fileDownload/chunk
+ *
+ * @author Cxx
+ */
+@Slf4j
+public class LoadGenerator implements AutoCloseable {
+    // 读取下载内容的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String baseUrl;
+    private final LoadTestOptions options;
+    private final String uploadFolder;
+    private final String downloadFolder;
+    // 下载文件大小 -> 文件名
+    private final Map<Long, String> downloadFiles;
+    private final List<LoadTestOptions.WeightedSize> fileSizes;
+    private final int totalWeight;
+    // 所有上传共用的文件块内容 服务端不校验内容
+    private final byte[] chunkContent;
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 按操作记录耗时 插入顺序即报告中的顺序
+    private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+    private final LatencyRecorder checkRecorder = recorder("checkChunk");
+    private final LatencyRecorder uploadChunkRecorder = recorder("uploadChunk");
+    private final LatencyRecorder mergeRecorder = recorder("mergeFile");
+    private final LatencyRecorder uploadRecorder = recorder("上传文件");
+    private final LatencyRecorder fileInfoRecorder = recorder("getFileInfo");
+    private final LatencyRecorder downloadChunkRecorder = recorder("downloadChunk");
+    private final LatencyRecorder downloadRecorder = recorder("下载文件");
+    // 中途放弃的上传个数
+    private final LongAdder abortedUploads = new LongAdder();
+    // 中断后续传的上传个数
+    private final LongAdder resumedUploads = new LongAdder();
+
+    public LoadGenerator(String baseUrl, LoadTestOptions options, Path uploadFolder, Path downloadFolder,
+                         Map<Long, String> downloadFiles) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.options = options;
+        this.uploadFolder = uploadFolder.toString();
+        this.downloadFolder = downloadFolder.toString();
+        this.downloadFiles = downloadFiles;
+        this.fileSizes = LoadTestOptions.parseFileSizes(options.getFileSizes());
+        this.totalWeight = fileSizes.stream().mapToInt(LoadTestOptions.WeightedSize::getWeight).sum();
+
+        this.chunkContent = new byte[(int) options.getChunkSize().toBytes()];
+        ThreadLocalRandom.current().nextBytes(chunkContent);
+
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        this.executor = Executors.newFixedThreadPool(options.getConcurrency());
+    }
+
+    /**
+     * 运行压测 直到压测时间结束 正在进行的请求完成后返回
+     *
+     * @return 实际运行时间(纳秒)
+     * @throws InterruptedException 压测被中断
+     */
+    public long run() throws InterruptedException {
+        long startTime = System.nanoTime();
+        long deadline = startTime + options.getDuration().toNanos();
+        int slowClients = (int) Math.round(options.getConcurrency() * options.getSlowClientRate());
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < options.getConcurrency(); i++) {
+            long bandwidth = i < slowClients ? options.getSlowClientBandwidth().toBytes() : 0;
+            futures.add(executor.submit(() -> runUser(deadline, bandwidth)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException exception) {
+                log.error("压测用户异常退出", exception.getCause());
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * 一个并发用户 依次上传或下载文件
+     *
+     * @param deadline  结束时间
+     * @param bandwidth 带宽限制(每秒字节数) 0表示不限速
+     */
+    private void runUser(long deadline, long bandwidth) {
+        while (System.nanoTime() < deadline) {
+            long fileSize = nextFileSize();
+            try {
+                if (ThreadLocalRandom.current().nextDouble() < options.getUploadRatio()) {
+                    upload(fileSize, deadline, bandwidth);
+                } else {
+                    download(fileSize, deadline, bandwidth);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException exception) {
+                log.debug("请求失败: {}", exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按照前端的流程上传一个文件 可能中途放弃或者中断后续传
+     */
+    private void upload(long fileSize, long deadline, long bandwidth) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        String identifier = UUID.randomUUID().toString().replace("-", "");
+        String filename = "load-" + identifier.substring(0, 8) + ".bin";
+        long chunkSize = options.getChunkSize().toBytes();
+        int totalChunks = (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+
+        // 放弃或者中断的位置 只有一个文件块时不会中断
+        double fate = ThreadLocalRandom.current().nextDouble();
+        int interruptAfter = totalChunks > 1 ? ThreadLocalRandom.current().nextInt(1, totalChunks) : totalChunks;
+        boolean abort = totalChunks > 1 && fate < options.getAbortRate();
+        boolean resume = totalChunks > 1 && !abort && fate < options.getAbortRate() + options.getResumeRate();
+
+        Set<Integer> uploadedChunks = checkChunk(identifier, filename);
+        for (int chunkNumber = 1; chunkNumber <= totalChunks; chunkNumber++) {
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            if (uploadedChunks.contains(chunkNumber)) {
+                continue;
+            }
+            uploadChunk(identifier, filename, chunkNumber, totalChunks, fileSize, bandwidth);
+
+            if (chunkNumber == interruptAfter && abort) {
+                abortedUploads.increment();
+                return;
+            }
+            if (chunkNumber == interruptAfter && resume) {
+                // 重新连接后先校验 跳过已经上传的文件块
+                resume = false;
+                resumedUploads.increment();
+                uploadedChunks = checkChunk(identifier, filename);
+            }
+        }
+
+        mergeFile(identifier, filename, fileSize);
+        uploadRecorder.success(System.nanoTime() - startTime, fileSize);
+    }
+
+    private Set<Integer> checkChunk(String identifier, String filename) throws IOException, InterruptedException {
+        String url = baseUrl + "/fileUpload/chunk?identifier=" + encode(identifier) + "&filename=" + encode(filename)
+                + "&uploadFolderPath=" + encode(uploadFolder);
+        long startTime = System.nanoTime();
+        JsonNode data = sendForData(HttpRequest.newBuilder(URI.create(url)).GET(), checkRecorder);
+        checkRecorder.success(System.nanoTime() - startTime, 0);
+
+        Set<Integer> uploadedChunks = new HashSet<>();
+        data.path("chunkResult").path("uploadedChunkList").forEach(chunk -> uploadedChunks.add(chunk.asInt()));
+        return uploadedChunks;
+    }
+
+    private void uploadChunk(String identifier, String filename, int chunkNumber, int totalChunks, long fileSize,
+                             long bandwidth) throws IOException, InterruptedException {
+        long chunkSize = options.getChunkSize().toBytes();
+        int currentChunkSize = (int) Math.min(chunkSize, fileSize - (chunkNumber - 1) * chunkSize);
+
+        // multipart/form-data 字段与前端上传的文件块一致
+        String boundary = "----FileTransferLoadTest" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        StringBuilder head = new StringBuilder();
+        appendField(head, boundary, "chunkNumber", String.valueOf(chunkNumber));
+        appendField(head, boundary, "chunkSize", String.valueOf(chunkSize));
+        appendField(head, boundary, "currentChunkSize", String.valueOf(currentChunkSize));
+        appendField(head, boundary, "totalSize", String.valueOf(fileSize));
+        appendField(head, boundary, "identifier", identifier);
+        appendField(head, boundary, "filename", filename);
+        appendField(head, boundary, "relativePath", filename);
+        appendField(head, boundary, "totalChunks", String.valueOf(totalChunks));
+        head.append("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"multipartFile\"; filename=\"blob\"\r\n")
+                .append("Content-Type: application/octet-stream\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] tailBytes = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] content = currentChunkSize == chunkContent.length ? chunkContent : Arrays.copyOf(chunkContent, currentChunkSize);
+
+        HttpRequest.BodyPublisher bodyPublisher;
+        if (bandwidth > 0) {
+            // 慢速用户 请求体按带宽发送(chunked)
+            bodyPublisher = HttpRequest.BodyPublishers.ofInputStream(() -> new ThrottledInputStream(
+                    new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(headBytes),
+                            new ByteArrayInputStream(content)), new ByteArrayInputStream(tailBytes)), bandwidth));
+        } else {
+            bodyPublisher = HttpRequest.BodyPublishers.ofByteArrays(List.of(headBytes, content, tailBytes));
+        }
+
+        String url = baseUrl + "/fileUpload/chunk?uploadFolderPath=" + encode(uploadFolder);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(bodyPublisher);
+        long startTime = System.nanoTime();
+        sendForData(request, uploadChunkRecorder);
+        uploadChunkRecorder.success(System.nanoTime() - startTime, currentChunkSize);
+    }
+
+    /**
+     * 提交合并任务并轮询到合并结束
+     */
+    private void mergeFile(String identifier, String filename, long fileSize) throws IOException, InterruptedException {
+        ObjectNode fileInfo = objectMapper.createObjectNode()
+                .put("name", filename)
+                .put("uniqueIdentifier", identifier)
+                .put("size", fileSize);
+        String url = baseUrl + "/fileUpload/mergeFile?uploadFolderPath=" + encode(uploadFolder);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(fileInfo)));
+
+        long startTime = System.nanoTime();
+        JsonNode data = sendForData(request, mergeRecorder);
+        String jobId = data.path("jobId").asText();
+        String state = data.path("mergeJob").path("state").asText();
+        while (!"COMPLETED".equals(state)) {
+            if ("FAILED".equals(state)) {
+                mergeRecorder.failure();
+                throw new IOException("合并失败: " + filename);
+            }
+            TimeUnit.MILLISECONDS.sleep(options.getMergePollInterval().toMillis());
+            String pollUrl = baseUrl + "/fileUpload/mergeFile?jobId=" + encode(jobId);
+            state = sendForData(HttpRequest.newBuilder(URI.create(pollUrl)).GET(), mergeRecorder)
+                    .path("mergeJob").path("state").asText();
+        }
+        mergeRecorder.success(System.nanoTime() - startTime, fileSize);
+    }
+
+    /**
+     * 按照前端的流程分片下载一个文件
+     */
+    private void download(long fileSize, long deadline, long bandwidth) throws IOException, InterruptedException {
+        String fileName = downloadFiles.get(fileSize);
+        long startTime = System.nanoTime();
+
+        String url = baseUrl + "/fileDownload/getFileInfo?downloadFolderPath=" + encode(downloadFolder)
+                + "&fileName=" + encode(fileName);
+        long requestTime = System.nanoTime();
+        long fileLength = sendForData(HttpRequest.newBuilder(URI.create(url)).GET(), fileInfoRecorder)
+                .path("fileLength").asLong();
+        fileInfoRecorder.success(System.nanoTime() - requestTime, 0);
+
+        long chunkSize = options.getDownloadChunkSize().toBytes();
+        String chunkUrl = baseUrl + "/fileDownload/chunk?downloadFolderPath=" + encode(downloadFolder)
+                + "&fileName=" + encode(fileName);
+        for (long start = 0; start < fileLength; start = start + chunkSize) {
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            long end = Math.min(start + chunkSize, fileLength) - 1;
+            downloadChunk(chunkUrl, start, end, bandwidth);
+        }
+        downloadRecorder.success(System.nanoTime() - startTime, fileLength);
+    }
+
+    private void downloadChunk(String url, long start, long end, long bandwidth)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(options.getRequestTimeout())
+                .header("Range", "bytes=" + start + "-" + end)
+                .GET()
+                .build();
+
+        long startTime = System.nanoTime();
+        long received = 0;
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = bandwidth > 0
+                    ? new ThrottledInputStream(response.body(), bandwidth) : response.body()) {
+                if (response.statusCode() != 206) {
+                    throw new IOException("下载文件块失败: HTTP " + response.statusCode());
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int read = body.read(buffer); read >= 0; read = body.read(buffer)) {
+                    received = received + read;
+                }
+            }
+        } catch (IOException exception) {
+            downloadChunkRecorder.failure();
+            throw exception;
+        }
+        if (received != end - start + 1) {
+            downloadChunkRecorder.failure();
+            throw new IOException("文件块不完整: " + received + "/" + (end - start + 1));
+        }
+        downloadChunkRecorder.success(System.nanoTime() - startTime, received);
+    }
+
+    /**
+     * 发送请求并返回AxiosResult中的data 请求失败时记录到recorder
+     */
+    private JsonNode sendForData(HttpRequest.Builder request, LatencyRecorder recorder)
+            throws IOException, InterruptedException {
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request.timeout(options.getRequestTimeout()).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IOException("请求失败: HTTP " + response.statusCode());
+            }
+            JsonNode result = objectMapper.readTree(response.body());
+            if (!result.path("success").asBoolean()) {
+                throw new IOException("请求失败: " + result.path("message").asText());
+            }
+            return result.path("data");
+        } catch (IOException exception) {
+            recorder.failure();
+            throw exception;
+        }
+    }
+
+    /**
+     * 按权重随机选择文件大小
+     */
+    private long nextFileSize() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (LoadTestOptions.WeightedSize weightedSize : fileSizes) {
+            value = value - weightedSize.getWeight();
+            if (value < 0) {
+                return weightedSize.getSize();
+            }
+        }
+        return fileSizes.get(fileSizes.size() - 1).getSize();
+    }
+
+    /**
+     * 输出压测报告
+     *
+     * @param out          输出
+     * @param elapsedNanos 实际运行时间(纳秒)
+     */
+    public void report(PrintStream out, long elapsedNanos) {
+        double seconds = (double) elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+        out.printf("压测时间: %.1fs 并发用户: %d 慢速用户比例: %.2f%n",
+                seconds, options.getConcurrency(), options.getSlowClientRate());
+        out.printf("%-18s %8s %8s %10s %10s %10s %10s %12s%n",
+                "操作", "成功", "失败", "p50(ms)", "p99(ms)", "max(ms)", "次/秒", "MB/s");
+        for (LatencyRecorder recorder : recorders.values()) {
+            out.printf("%-18s %8d %8d %10.2f %10.2f %10.2f %10.2f %12.2f%n",
+                    recorder.getName(), recorder.getCount(), recorder.getFailures(),
+                    recorder.percentile(50), recorder.percentile(99), recorder.percentile(100),
+                    recorder.getCount() / seconds, recorder.getBytes() / seconds / (1024 * 1024));
+        }
+
+        long uploadedBytes = uploadChunkRecorder.getBytes();
+        long downloadedBytes = downloadChunkRecorder.getBytes();
+        out.printf("上传: %.2f MB/s 下载: %.2f MB/s 合计: %.2f MB/s%n",
+                uploadedBytes / seconds / (1024 * 1024), downloadedBytes / seconds / (1024 * 1024),
+                (uploadedBytes + downloadedBytes) / seconds / (1024 * 1024));
+        out.printf("中途放弃的上传: %d 中断后续传的上传: %d%n", abortedUploads.sum(), resumedUploads.sum());
+    }
+
+    private LatencyRecorder recorder(String name) {
+        LatencyRecorder recorder = new LatencyRecorder(name);
+        recorders.put(name, recorder);
+        return recorder;
+    }
+
+    private static void appendField(StringBuilder body, String boundary, String name, String value) {
+        body.append("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n")
+                .append(value).append("\r\n");
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
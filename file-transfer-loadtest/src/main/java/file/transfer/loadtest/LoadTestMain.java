@@ -0,0 +1,148 @@
+package file.transfer.loadtest;
+
+import file.transfer.service.FileTransferServiceApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 压测入口 默认在同一进程中启动FileTransferServiceApplication(随机端口) 再用LoadGenerator模拟前端的上传和下载
+ * 指定--target时压测已经运行的服务 此时--work-folder必须是服务端也能访问的路径(下载文件由压测程序生成)
+ *
+ * @author Cxx
+ */
+@Slf4j
+public class LoadTestMain {
+    // 生成下载文件的缓冲区大小
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        // 属性名中带.的参数传给服务 其余为压测参数
+        Map<String, String> loadTestArgs = new HashMap<>();
+        Map<String, String> serviceArgs = new LinkedHashMap<>();
+        serviceArgs.put("server.port", "0");
+        serviceArgs.put("logging.level.root", "WARN");
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("参数格式为 --属性名=值: " + arg);
+                System.exit(1);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            (key.contains(".") ? serviceArgs : loadTestArgs).put(key, value);
+        }
+
+        LoadTestOptions options = new Binder(Collections.singletonList(new MapConfigurationPropertySource(loadTestArgs)), null,
+                ApplicationConversionService.getSharedInstance())
+                .bindOrCreate("", Bindable.of(LoadTestOptions.class));
+
+        boolean tempWorkFolder = options.getWorkFolder() == null;
+        Path workFolder = tempWorkFolder
+                ? Files.createTempDirectory("file-transfer-loadtest") : Paths.get(options.getWorkFolder());
+        Path uploadFolder = Files.createDirectories(workFolder.resolve("upload"));
+        Path downloadFolder = Files.createDirectories(workFolder.resolve("download"));
+
+        ConfigurableApplicationContext context = null;
+        try {
+            Map<Long, String> downloadFiles = createDownloadFiles(downloadFolder, options);
+
+            String baseUrl = options.getTarget();
+            if (baseUrl == null) {
+                context = startService(serviceArgs);
+                baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+            }
+            log.info("开始压测: {} 并发用户: {} 时间: {}", baseUrl, options.getConcurrency(), options.getDuration());
+
+            try (LoadGenerator loadGenerator = new LoadGenerator(baseUrl, options, uploadFolder, downloadFolder,
+                    downloadFiles)) {
+                long elapsedNanos = loadGenerator.run();
+                loadGenerator.report(System.out, elapsedNanos);
+            }
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            if (tempWorkFolder) {
+                deleteRecursively(workFolder);
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startService(Map<String, String> serviceArgs) {
+        String[] args = serviceArgs.entrySet().stream()
+                .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(FileTransferServiceApplication.class)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run(args);
+    }
+
+    /**
+     * 为每种文件大小生成一个下载文件 已存在时直接使用
+     *
+     * @param downloadFolder 下载文件夹
+     * @param options        压测配置
+     * @return 文件大小 -> 文件名
+     * @throws IOException IO错误
+     */
+    private static Map<Long, String> createDownloadFiles(Path downloadFolder, LoadTestOptions options)
+            throws IOException {
+        Map<Long, String> downloadFiles = new HashMap<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (LoadTestOptions.WeightedSize weightedSize : LoadTestOptions.parseFileSizes(options.getFileSizes())) {
+            long size = weightedSize.getSize();
+            String fileName = "download-" + size + ".bin";
+            downloadFiles.put(size, fileName);
+
+            Path path = downloadFolder.resolve(fileName);
+            if (Files.exists(path) && Files.size(path) == size) {
+                continue;
+            }
+            Random random = new Random(size);
+            try (OutputStream outputStream = Files.newOutputStream(path)) {
+                for (long written = 0; written < size; written = written + buffer.length) {
+                    random.nextBytes(buffer);
+                    outputStream.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+                }
+            }
+        }
+        return downloadFiles;
+    }
+
+    private static void deleteRecursively(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
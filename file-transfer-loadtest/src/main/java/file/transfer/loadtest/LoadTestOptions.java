@@ -0,0 +1,71 @@
+package file.transfer.loadtest;
+
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测配置 命令行参数为 --属性名=值 例如 --concurrency=32 --file-sizes=1MB:6,64MB:1
+ * 属性名中带.的参数(--file-transfer.* --server.* 等)传给同一进程中启动的服务
+ *
+ * @author Cxx
+ */
+@Data
+public class LoadTestOptions {
+    // 被测试的服务地址 为空时在同一进程中启动服务
+    private String target;
+    // 服务端的工作目录 上传文件夹和下载文件夹都在其中 为空时使用临时目录
+    private String workFolder;
+    // 并发用户数 每个用户依次上传或下载文件
+    private int concurrency = 16;
+    // 压测时间
+    private Duration duration = Duration.ofMinutes(1);
+    // 上传所占的比例 其余为下载
+    private double uploadRatio = 0.5;
+    // 文件大小分布 大小:权重
+    private String fileSizes = "1MB:6,16MB:3,128MB:1";
+    // 上传的文件块大小 与前端默认值一致
+    private DataSize chunkSize = DataSize.ofMegabytes(2);
+    // 下载的文件块大小 与前端默认值一致
+    private DataSize downloadChunkSize = DataSize.ofMegabytes(1);
+    // 上传中途放弃的比例 残留的文件块留给服务端清理
+    private double abortRate = 0.05;
+    // 上传中途中断后续传的比例
+    private double resumeRate = 0.1;
+    // 慢速用户的比例
+    private double slowClientRate = 0.1;
+    // 慢速用户的上传和下载带宽(每秒)
+    private DataSize slowClientBandwidth = DataSize.ofKilobytes(512);
+    // 单个请求的超时时间
+    private Duration requestTimeout = Duration.ofMinutes(5);
+    // 轮询合并任务的间隔
+    private Duration mergePollInterval = Duration.ofMillis(200);
+
+    /**
+     * 解析文件大小分布
+     *
+     * @param value 例如 1MB:6,16MB:3,128MB:1 省略权重时为1
+     * @return 文件大小分布
+     */
+    public static List<WeightedSize> parseFileSizes(String value) {
+        List<WeightedSize> fileSizes = new ArrayList<>();
+        for (String item : value.split(",")) {
+            String[] parts = item.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            fileSizes.add(new WeightedSize(DataSize.parse(parts[0].trim()).toBytes(), weight));
+        }
+        return fileSizes;
+    }
+
+    /**
+     * 带权重的文件大小
+     */
+    @Data
+    public static class WeightedSize {
+        private final long size;
+        private final int weight;
+    }
+}
@@ -0,0 +1,61 @@
+package file.transfer.loadtest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限速的输入流 模拟慢速用户的上传(请求体)和下载(读取响应体)
+ *
+ * @author Cxx
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    // 每次最多读取的字节数 避免一次读取后长时间等待
+    private static final int MAX_READ = 16 * 1024;
+
+    private final long bytesPerSecond;
+    private final long startTime = System.nanoTime();
+    private long readBytes;
+
+    public ThrottledInputStream(InputStream inputStream, long bytesPerSecond) {
+        super(inputStream);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            throttle(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, Math.min(len, MAX_READ));
+        if (read > 0) {
+            throttle(read);
+        }
+        return read;
+    }
+
+    /**
+     * 读取速度超过带宽时等待
+     */
+    private void throttle(int read) throws IOException {
+        readBytes = readBytes + read;
+        long expectedNanos = readBytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        long waitNanos = expectedNanos - (System.nanoTime() - startTime);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("限速等待被中断");
+            }
+        }
+    }
+}
@@ -2,11 +2,13 @@ package file.transfer.service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * @author Cxx
  */
 @SpringBootApplication
+@EnableScheduling
 public class FileTransferServiceApplication {
 
     public static void main(String[] args) {
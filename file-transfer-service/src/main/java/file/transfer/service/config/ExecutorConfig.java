@@ -0,0 +1,143 @@
+package file.transfer.service.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.task.TaskSchedulerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池配置
+ *
+ * @author Cxx
+ */
+@Configuration
+@Slf4j
+public class ExecutorConfig {
+    /**
+     * 合并文件块的线程池 线程数决定同时写入磁盘的文件块个数
+     * 使用虚拟线程时仍然限制并发数 只是等待磁盘时不占用平台线程
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService mergeExecutor(TransferProperties transferProperties) {
+        ThreadFactory threadFactory = transferProperties.getExecutor().isVirtualThreads()
+                ? newVirtualThreadFactory("merge-") : null;
+        return Executors.newFixedThreadPool(transferProperties.getMerge().getParallelism(),
+                threadFactory != null ? threadFactory : new CustomizableThreadFactory("merge-"));
+    }
+
+    /**
+     * 合并任务的线程池 等待队列有界 队列已满时拒绝新的合并任务
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService mergeJobExecutor(TransferProperties transferProperties) {
+        TransferProperties.Merge merge = transferProperties.getMerge();
+        ThreadFactory threadFactory = transferProperties.getExecutor().isVirtualThreads()
+                ? newVirtualThreadFactory("merge-job-") : null;
+        return new ThreadPoolExecutor(merge.getWorkers(), merge.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(merge.getQueueCapacity()),
+                threadFactory != null ? threadFactory : new CustomizableThreadFactory("merge-job-"));
+    }
+
+    /**
+     * 预先压缩下载文件的线程池 压缩只占用CPU 线程数不超过CPU核数 队列已满时放弃压缩 直接下载原文件
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService compressExecutor(TransferProperties transferProperties) {
+        TransferProperties.Compression compression = transferProperties.getCompression();
+        return new ThreadPoolExecutor(compression.getWorkers(), compression.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(compression.getQueueCapacity()), new CustomizableThreadFactory("compress-"));
+    }
+
+    /**
+     * 处理请求的虚拟线程执行器 每个请求一个虚拟线程 阻塞IO时不占用平台线程
+     * Tomcat不会关闭外部设置的执行器 注册为Bean 在Tomcat停止后随容器关闭
+     * 当前JDK不支持虚拟线程时为null 保留Tomcat默认的线程池
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    @ConditionalOnClass(Tomcat.class)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(prefix = "file-transfer.executor", name = "virtual-threads", havingValue = "true")
+    public ExecutorService requestExecutor() {
+        ThreadFactory threadFactory = newVirtualThreadFactory("request-");
+        if (threadFactory == null) {
+            return null;
+        }
+
+        try {
+            // Executors.newThreadPerTaskExecutor(ThreadFactory) JDK 21
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException exception) {
+            log.warn("创建虚拟线程执行器失败:{}", exception.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 使用虚拟线程处理请求 并发数由Tomcat的server.tomcat.max-connections限制
+     */
+    @Bean
+    @ConditionalOnClass(Tomcat.class)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(prefix = "file-transfer.executor", name = "virtual-threads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadCustomizer(
+            @Qualifier("requestExecutor") ObjectProvider<ExecutorService> requestExecutor) {
+        return protocolHandler -> {
+            ExecutorService executor = requestExecutor.getIfAvailable();
+            if (executor != null) {
+                log.info("使用虚拟线程处理请求");
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+
+    /**
+     * 定时任务(清理过期文件、压缩日志、清除过期状态)使用虚拟线程 遍历目录和删除文件时不占用平台线程
+     * 线程数仍由spring.task.scheduling.pool.size限制 当前JDK不支持时使用平台线程
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "file-transfer.executor", name = "virtual-threads", havingValue = "true")
+    public TaskSchedulerCustomizer virtualThreadSchedulerCustomizer() {
+        ThreadFactory threadFactory = newVirtualThreadFactory("scheduling-");
+        return taskScheduler -> {
+            if (threadFactory != null) {
+                taskScheduler.setThreadFactory(threadFactory);
+            }
+        };
+    }
+
+    /**
+     * 创建虚拟线程工厂 通过反射调用Thread.ofVirtual() 兼容JDK 11编译
+     *
+     * @param prefix 线程名前缀
+     * @return 线程工厂 当前JDK不支持虚拟线程时为null
+     */
+    private static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+            // JDK 21之前没有虚拟线程(JDK 19/20需要--enable-preview)
+            log.warn("当前JDK不支持虚拟线程(需要JDK 21) 使用平台线程:{}", prefix);
+            return null;
+        }
+    }
+}
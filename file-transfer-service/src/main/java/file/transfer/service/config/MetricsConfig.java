@@ -0,0 +1,55 @@
+package file.transfer.service.config;
+
+import file.transfer.service.service.MergeJobService;
+import file.transfer.service.service.SweeperService;
+import file.transfer.service.service.TransferMetricsService;
+import file.transfer.service.service.UploadSessionService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 传输状态指标 注册表导出时才读取当前值
+ *
+ * @author Cxx
+ */
+@Configuration
+public class MetricsConfig {
+    @Bean
+    public MeterBinder transferStateMetrics(TransferMetricsService transferMetricsService,
+                                            UploadSessionService uploadSessionService,
+                                            MergeJobService mergeJobService,
+                                            SweeperService sweeperService) {
+        return registry -> {
+            Gauge.builder("file.transfer.upload.active", transferMetricsService, TransferMetricsService::getActiveChunks)
+                    .description("正在写入的文件块个数")
+                    .register(registry);
+            Gauge.builder("file.transfer.upload.sessions", uploadSessionService, service -> service.getSessions().size())
+                    .description("未合并的上传会话个数")
+                    .register(registry);
+            Gauge.builder("file.transfer.merge.jobs", mergeJobService, MergeJobService::getActiveJobCount)
+                    .description("排队和正在合并的任务个数")
+                    .register(registry);
+            Gauge.builder("file.transfer.merge.pending", mergeJobService, MergeJobService::getPendingBytes)
+                    .description("正在合并的任务中尚未写入目标文件的字节数")
+                    .baseUnit("bytes")
+                    .register(registry);
+
+            FunctionCounter.builder("file.transfer.sweeper.reclaimed", sweeperService, SweeperService::getReclaimedBytes)
+                    .description("清理被放弃的上传释放的字节数")
+                    .baseUnit("bytes")
+                    .register(registry);
+            FunctionCounter.builder("file.transfer.sweeper.files", sweeperService, SweeperService::getDeletedFiles)
+                    .description("清理被放弃的上传删除的文件个数")
+                    .register(registry);
+            FunctionCounter.builder("file.transfer.sweeper.uploads", sweeperService, SweeperService::getSweptUploads)
+                    .description("清理的上传个数")
+                    .register(registry);
+            FunctionCounter.builder("file.transfer.sweeper.evicted", sweeperService, SweeperService::getEvictedUploads)
+                    .description("超出配额提前清理的上传个数")
+                    .register(registry);
+        };
+    }
+}
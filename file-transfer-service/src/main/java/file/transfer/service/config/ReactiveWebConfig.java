@@ -0,0 +1,104 @@
+package file.transfer.service.config;
+
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.service.ThrottleService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
+import org.springframework.http.codec.multipart.MultipartHttpMessageReader;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.ResourceHandlerRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.server.WebFilter;
+
+import javax.annotation.Resource;
+import java.net.InetSocketAddress;
+
+/**
+ * 非阻塞传输(WebFlux)配置 spring.main.web-application-type=reactive 时生效
+ *
+ * @author Cxx
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig implements WebFluxConfigurer {
+    // 单个上传请求最多的part个数 文件块信息的各个字段 + 文件块
+    private static final int MAX_PARTS = 32;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ThrottleService throttleService;
+
+    /**
+     * 使用Netty作为服务器 classpath中同时存在Tomcat时默认会选择Tomcat
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // 配置跨域请求
+    @Override
+    public void addCorsMappings(CorsRegistry registry) {
+        registry.addMapping("/**")
+                .allowedOrigins("*")
+                .allowedHeaders("*")
+                .allowedMethods("*");
+    }
+
+    // 将本地文件映射到Url 可以直接下载
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler(WebConfig.webPath).addResourceLocations("file:" + WebConfig.locationPath);
+    }
+
+    // 解析multipart 超过maxInMemorySize的文件块内容先写入临时文件 与servlet模式一致
+    // Spring 5.3.15的流式解析(streaming)在高并发下偶尔重复释放Netty的缓冲区(IllegalReferenceCountException) 不使用
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        DefaultPartHttpMessageReader partReader = new DefaultPartHttpMessageReader();
+        partReader.setMaxParts(MAX_PARTS);
+        partReader.setMaxDiskUsagePerPart(transferProperties.getUpload().getMaxChunkSize().toBytes());
+        // @RequestBody Flux<Part>使用partReader 每个请求创建exchange时都需要MultiValueMap的reader
+        configurer.defaultCodecs().multipartReader(new MultipartHttpMessageReader(partReader));
+        configurer.customCodecs().register(partReader);
+    }
+
+    // 按客户端地址和租户限制上传、下载文件块的并发请求数 带宽在读写文件块时限制 请求结束、失败或者取消时释放
+    @Bean
+    public WebFilter chunkThrottleFilter() {
+        return (exchange, chain) -> {
+            ServerHttpRequest request = exchange.getRequest();
+            String path = request.getPath().pathWithinApplication().value();
+            boolean chunkRequest = "/fileUpload/chunk".equals(path) ? request.getMethod() == HttpMethod.POST
+                    : "/fileDownload/chunk".equals(path) && request.getMethod() == HttpMethod.GET;
+            if (!throttleService.isEnabled() || !chunkRequest) {
+                return chain.filter(exchange);
+            }
+
+            InetSocketAddress remoteAddress = request.getRemoteAddress();
+            String client = remoteAddress == null || remoteAddress.getAddress() == null ? null
+                    : remoteAddress.getAddress().getHostAddress();
+            ThrottlePermit throttlePermit = throttleService.acquire(client,
+                    request.getHeaders().getFirst(transferProperties.getThrottle().getTenantHeader()));
+            if (throttlePermit == null) {
+                ServerHttpResponse response = exchange.getResponse();
+                response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+                return response.setComplete();
+            }
+            exchange.getAttributes().put(ThrottleService.PERMIT_ATTR, throttlePermit);
+            return chain.filter(exchange).doFinally(signalType -> throttlePermit.close());
+        };
+    }
+}
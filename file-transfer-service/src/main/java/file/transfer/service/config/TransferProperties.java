@@ -0,0 +1,217 @@
+package file.transfer.service.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文件传输配置 对应application.yml中的file-transfer
+ *
+ * @author Cxx
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "file-transfer")
+public class TransferProperties {
+    // 上传配置
+    private Upload upload = new Upload();
+    // 合并配置
+    private Merge merge = new Merge();
+    // 上传日志配置
+    private Journal journal = new Journal();
+    // 去重配置
+    private Dedup dedup = new Dedup();
+    // 校验配置
+    private Verify verify = new Verify();
+    // 线程配置
+    private Executor executor = new Executor();
+    // 清理配置
+    private Sweeper sweeper = new Sweeper();
+    // 下载读缓存配置
+    private ReadCache readCache = new ReadCache();
+    // 下载文件元数据缓存配置
+    private MetadataCache metadataCache = new MetadataCache();
+    // 压缩配置
+    private Compression compression = new Compression();
+    // 文件块大小协商配置
+    private Negotiation negotiation = new Negotiation();
+    // 限流配置
+    private Throttle throttle = new Throttle();
+
+    @Data
+    public static class Upload {
+        // 上传模式
+        private UploadMode mode = UploadMode.CHUNK_FILE;
+        // 单个文件块的最大大小 协商过的上传会话以协商结果为上限 压缩的文件块按解压后的大小检查
+        // 非阻塞上传(WebFlux)不经过spring.servlet.multipart的限制
+        private DataSize maxChunkSize = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Merge {
+        // 并行写入目标文件的线程数
+        private int parallelism = 4;
+        // 同时进行的合并任务个数
+        private int workers = 2;
+        // 等待合并的任务个数上限 超出时拒绝新的合并请求
+        private int queueCapacity = 100;
+        // 已结束的合并任务保留时间 供前端查询结果
+        private Duration jobRetention = Duration.ofMinutes(10);
+        // 收到最后一个文件块时是否立即在后台合并
+        private boolean autoMerge = true;
+    }
+
+    @Data
+    public static class Journal {
+        // 是否记录上传日志
+        private boolean enabled = false;
+        // 日志文件路径
+        private String path = "journal/upload.journal";
+        // 内存映射的日志文件大小 写满时提前压缩
+        private DataSize capacity = DataSize.ofMegabytes(64);
+        // 压缩间隔
+        private Duration compactInterval = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Dedup {
+        // 是否按文件内容去重 相同标识的文件只保存一份
+        private boolean enabled = false;
+        // 文件内容存储路径 必须与上传文件夹在同一文件系统中
+        private String blobPath = "blobs";
+        // 是否按文件块MD5去重 客户端可以跳过服务器上已有的文件块
+        private boolean chunkEnabled = false;
+        // 文件块存储路径 必须与上传文件夹在同一文件系统中
+        private String chunkPath = "chunks";
+    }
+
+    @Data
+    public static class Verify {
+        // 合并时是否校验文件内容与文件标识(uniqueIdentifier)一致
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Executor {
+        // 是否使用虚拟线程处理请求和合并文件块 需要JDK 21 不支持时使用平台线程
+        private boolean virtualThreads = false;
+    }
+
+    @Data
+    public static class Sweeper {
+        // 是否定时清理被放弃的上传残留的文件块
+        private boolean enabled = true;
+        // 清理间隔
+        private Duration interval = Duration.ofMinutes(1);
+        // 残留文件超过该时间没有修改时视为被放弃的上传
+        private Duration ttl = Duration.ofHours(24);
+        // 需要清理的上传文件夹 上传过的文件夹(uploadFolderPath)会自动加入
+        private List<String> roots = new ArrayList<>();
+        // 每个上传文件夹每次检查的文件块文件夹个数
+        private int batchSize = 100;
+        // 每秒最多删除的文件个数
+        private int deleteRate = 100;
+        // 每个上传文件夹中残留文件的总大小上限 0表示不限制
+        private DataSize quota = DataSize.ofBytes(0);
+    }
+
+    @Data
+    public static class ReadCache {
+        // 是否缓存下载文件打开的FileChannel和内存映射
+        private boolean enabled = true;
+        // 缓存的文件个数上限
+        private int maxFiles = 256;
+        // 内存映射的总大小上限
+        private DataSize maxMappedSize = DataSize.ofMegabytes(512);
+        // 内存映射的分段大小
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+        // 访问次数达到该值的文件视为热点文件 通过内存映射读取
+        private int hotThreshold = 2;
+    }
+
+    @Data
+    public static class MetadataCache {
+        // 是否缓存下载文件的大小、修改时间和ETag 通过WatchService监听文件夹的变化
+        private boolean enabled = true;
+        // 缓存的文件个数上限 超出时淘汰最久未访问的文件
+        private int maxEntries = 100000;
+    }
+
+    @Data
+    public static class Compression {
+        // 是否压缩下载文件
+        private boolean enabled = true;
+        // 支持的编码 按优先顺序排列 Accept-Encoding中权重相同时使用靠前的编码
+        private List<String> encodings = new ArrayList<>(List.of("zstd", "gzip"));
+        // 压缩文件的存储路径
+        private String cachePath = "compressed";
+        // 小于该大小的文件不压缩
+        private DataSize minSize = DataSize.ofKilobytes(4);
+        // 压缩后大小与原大小的比例超过该值时视为不可压缩 直接下载原文件
+        private double maxRatio = 0.9;
+        // gzip压缩级别 1-9
+        private int gzipLevel = 6;
+        // zstd压缩级别 1-22
+        private int zstdLevel = 3;
+        // 压缩线程数
+        private int workers = 1;
+        // 等待压缩的文件个数上限
+        private int queueCapacity = 100;
+        // 显式指定编码时等待压缩完成的最长时间 超时时返回原文件 压缩在后台继续
+        private Duration waitTimeout = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Negotiation {
+        // 是否根据测得的吞吐量和RTT推荐文件块大小 关闭时总是推荐默认值
+        private boolean enabled = true;
+        // 每个文件块的目标上传时间 慢速连接的文件块更小 重试代价更低
+        private Duration targetChunkTime = Duration.ofSeconds(2);
+        // 推荐的最小文件块大小 最大为upload.max-chunk-size
+        private DataSize minChunkSize = DataSize.ofKilobytes(256);
+        // 没有测量数据时推荐的文件块大小
+        private DataSize defaultChunkSize = DataSize.ofMegabytes(2);
+        // 没有RTT时推荐的并发数
+        private int defaultParallelism = 3;
+        // 推荐的最大并发数 浏览器对同一个域名最多6个连接
+        private int maxParallelism = 6;
+        // 吞吐量EWMA的平滑系数 越大越偏向最近的文件块
+        private double smoothing = 0.3;
+        // 吞吐量的有效期 超过该时间没有上传的客户端重新测量
+        private Duration sampleTtl = Duration.ofMinutes(10);
+        // 记录吞吐量的客户端个数和协商结果个数的上限 超出时淘汰最久未使用的
+        private int maxEntries = 10000;
+    }
+
+    @Data
+    public static class Throttle {
+        // 是否按客户端和租户限制上传、下载文件块的带宽和并发请求数
+        private boolean enabled = false;
+        // 租户标识的请求头 没有该请求头的请求只按客户端限流
+        private String tenantHeader = "X-Tenant-Id";
+        // 每个客户端地址的带宽(字节/秒) 0表示不限制
+        private DataSize clientBandwidth = DataSize.ofBytes(0);
+        // 每个客户端地址同时进行的文件块请求数 0表示不限制
+        private int clientMaxConcurrent = 8;
+        // 每个租户的带宽(字节/秒) 0表示不限制
+        private DataSize tenantBandwidth = DataSize.ofBytes(0);
+        // 每个租户同时进行的文件块请求数 0表示不限制
+        private int tenantMaxConcurrent = 0;
+        // 允许的突发量 空闲一段时间后可以不受限速连续传输的字节数
+        private DataSize burst = DataSize.ofMegabytes(1);
+        // 超过该时间没有请求的客户端和租户的限流状态被清除
+        private Duration idleTimeout = Duration.ofMinutes(10);
+    }
+
+    public enum UploadMode {
+        // 每个文件块单独保存为 文件名_序号 合并时再写入目标文件
+        CHUNK_FILE,
+        // 预先分配目标文件 文件块直接写入对应的位置 合并时只需重命名
+        DIRECT_WRITE
+    }
+}
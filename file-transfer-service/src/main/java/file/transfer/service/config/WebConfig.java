@@ -1,12 +1,30 @@
 package file.transfer.service.config;
 
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.service.ChunkNegotiationService;
+import file.transfer.service.service.ThrottleService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import javax.annotation.Resource;
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WebConfig implements WebMvcConfigurer {
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ThrottleService throttleService;
+
     // 配置跨域请求
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -16,13 +34,57 @@ public class WebConfig implements WebMvcConfigurer {
     }
 
     // 本地路径
-    private static final String locationPath = "/home/cxx/Downloads/";
+    static final String locationPath = "/home/cxx/Downloads/";
     // 映射路径 例http://Ip:Port/downloads/***.***
-    private static final String webPath = "/downloads/**";
+    static final String webPath = "/downloads/**";
 
     // 将本地文件映射到Url 可以直接下载
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler(webPath).addResourceLocations("file:" + locationPath);
     }
-}
\ No newline at end of file
+
+    // 记录上传文件块请求的开始时间 multipart在进入Controller之前已经接收完成 用于测量客户端的吞吐量
+    @Bean
+    public FilterRegistrationBean<Filter> chunkTimingFilter() {
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>((request, response, chain) -> {
+            request.setAttribute(ChunkNegotiationService.START_TIME_ATTR, System.nanoTime());
+            chain.doFilter(request, response);
+        });
+        registration.setName("chunkTimingFilter");
+        registration.addUrlPatterns("/fileUpload/chunk");
+        return registration;
+    }
+
+    // 按客户端地址和租户限制上传、下载文件块的并发请求数 在接收multipart之前拒绝 带宽在读写文件块时限制
+    @Bean
+    public FilterRegistrationBean<Filter> chunkThrottleFilter() {
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>((request, response, chain) -> {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            String method = httpRequest.getMethod();
+            boolean chunkRequest = "/fileUpload/chunk".equals(httpRequest.getServletPath()) ? "POST".equals(method)
+                    : "GET".equals(method);
+            if (!throttleService.isEnabled() || !chunkRequest) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            ThrottlePermit throttlePermit = throttleService.acquire(request.getRemoteAddr(),
+                    httpRequest.getHeader(transferProperties.getThrottle().getTenantHeader()));
+            if (throttlePermit == null) {
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                httpResponse.setStatus(429);
+                httpResponse.setHeader("Retry-After", "1");
+                return;
+            }
+            try (throttlePermit) {
+                request.setAttribute(ThrottleService.PERMIT_ATTR, throttlePermit);
+                chain.doFilter(request, response);
+            }
+        });
+        // 过滤器为lambda 默认名称相同 需要指定名称 否则只注册第一个
+        registration.setName("chunkThrottleFilter");
+        registration.addUrlPatterns("/fileUpload/chunk", "/fileDownload/chunk");
+        return registration;
+    }
+}
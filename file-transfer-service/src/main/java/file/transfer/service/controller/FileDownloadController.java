@@ -1,42 +1,69 @@
 package file.transfer.service.controller;
 
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
 import file.transfer.service.result.AxiosResult;
 import file.transfer.service.service.ChunkService;
-import file.transfer.service.utils.FileUtil;
+import file.transfer.service.service.CompressionService;
+import file.transfer.service.service.FileMetadataService;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * @author Cxx
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/fileDownload")
 @Slf4j
 public class FileDownloadController {
     @Resource
     private ChunkService chunkService;
 
+    @Resource
+    private FileMetadataService fileMetadataService;
+
+    @Resource
+    private CompressionService compressionService;
+
     @ApiOperation("获取下载文件信息")
     @GetMapping("/getFileInfo")
     public AxiosResult getDownloadFileInfo(@RequestParam("downloadFolderPath") String downloadFolderPath,
-                                           @RequestParam("fileName") String fileName) {
+                                           @RequestParam("fileName") String fileName,
+                                           @RequestParam(value = "encoding", required = false) String encoding,
+                                           WebRequest webRequest) throws IOException {
 
         // 获取文件路径
-        String downloadFilePath = downloadFolderPath + File.separator + fileName;
-        File downloadFile = new File(downloadFilePath);
+        Path downloadFilePath = Paths.get(downloadFolderPath + File.separator + fileName);
+        FileMetadata fileMetadata = fileMetadataService.getMetadata(downloadFilePath);
 
-        // 判断文件夹是否存在
-        if (FileUtil.fileExists(downloadFilePath)) {
-            return AxiosResult.ok().data("fileLength", downloadFile.length());
-        } else {
+        // 判断文件是否存在
+        if (fileMetadata == null) {
             return AxiosResult.error().message("下载文件不存在");
         }
+        // 指定encoding时返回压缩文件的信息 之后按压缩文件的字节范围下载 不可压缩时encoding为identity
+        FileRepresentation representation = compressionService.select(downloadFilePath, fileMetadata, encoding,
+                null, true);
+        FileMetadata metadata = representation.getMetadata();
+        // 文件没有变化时返回304
+        if (webRequest.checkNotModified(metadata.getETag(), metadata.getLastModified())) {
+            return null;
+        }
+        return AxiosResult.ok().data("fileLength", metadata.getSize())
+                .data("lastModified", metadata.getLastModified())
+                .data("eTag", metadata.getETag())
+                .data("encoding", representation.getEncoding() == null ? "identity"
+                        : representation.getEncoding().getName());
     }
 
     @ApiOperation("下载文件块")
@@ -49,13 +76,14 @@ public class FileDownloadController {
         // 获取文件路径
         String downloadFilePath = downloadFolderPath + File.separator + fileName;
         File file = new File(downloadFilePath);
-        if (!file.exists()) {
-            log.error("下载文件不存在");
-            return;
-        }
 
         try {
-            // 下载文件块
+            if (fileMetadataService.getMetadata(file.toPath()) == null) {
+                log.error("下载文件不存在");
+                return;
+            }
+
+            // 下载文件块 文件没有变化时返回304
             chunkService.downloadChunk(file, request, response);
         } catch (Exception exception) {
             log.error("下载文件失败:{}", exception.getMessage());
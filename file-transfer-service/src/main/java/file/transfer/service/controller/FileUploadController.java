@@ -1,47 +1,73 @@
 package file.transfer.service.controller;
 
+import file.transfer.service.entity.merge.MergeJob;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.entity.upload.ChunkHashInfo;
 import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.ChunkNegotiation;
 import file.transfer.service.entity.upload.ChunkResult;
 import file.transfer.service.entity.upload.UploaderFileInfo;
 import file.transfer.service.result.AxiosResult;
+import file.transfer.service.service.ChunkNegotiationService;
 import file.transfer.service.service.ChunkService;
-import file.transfer.service.utils.FileUtil;
+import file.transfer.service.service.MergeJobService;
+import file.transfer.service.service.ThrottleService;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author Cxx
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/fileUpload")
 @Slf4j
 public class FileUploadController {
     @Resource
     private ChunkService chunkService;
 
+    @Resource
+    private MergeJobService mergeJobService;
+
+    @Resource
+    private ChunkNegotiationService chunkNegotiationService;
+
+    @ApiOperation("协商文件块大小和并发数")
+    @GetMapping("/chunkSize")
+    public AxiosResult negotiateChunkSize(@RequestParam String filename,
+                                          @RequestParam long totalSize,
+                                          @RequestParam String uploadFolderPath,
+                                          @RequestParam(required = false) Long rtt,
+                                          HttpServletRequest request) {
+        ChunkNegotiation chunkNegotiation = chunkNegotiationService.negotiate(request.getRemoteAddr(),
+                uploadFolderPath, filename, totalSize, rtt);
+        return AxiosResult.ok().data("chunkNegotiation", chunkNegotiation);
+    }
+
     @ApiOperation("上传文件块")
     @PostMapping("/chunk")
     public AxiosResult uploadChunk(ChunkInfo chunkInfo,
-                                   String uploadFolderPath) {
-        MultipartFile file = chunkInfo.getMultipartFile();
-
+                                   String uploadFolderPath,
+                                   HttpServletRequest request) {
         try {
-            byte[] bytes = file.getBytes();
-            Path path = Paths.get(FileUtil.generatePath(uploadFolderPath, chunkInfo));
-            //文件写入指定路径
-            Files.write(path, bytes);
-
+            //文件写入指定路径 开启限流时按客户端和租户的带宽写入
+            chunkService.saveChunk(chunkInfo, uploadFolderPath,
+                    (ThrottlePermit) request.getAttribute(ThrottleService.PERMIT_ATTR));
+
+            // 从开始接收请求到写入完成的耗时 用于协商文件块大小
+            Object startTime = request.getAttribute(ChunkNegotiationService.START_TIME_ATTR);
+            if (startTime != null) {
+                chunkNegotiationService.recordChunk(request.getRemoteAddr(), request.getContentLengthLong(),
+                        System.nanoTime() - (Long) startTime);
+            }
             return AxiosResult.ok();
 
         } catch (IOException exception) {
@@ -54,47 +80,41 @@ public class FileUploadController {
     @GetMapping("/chunk")
     public AxiosResult checkChunk(@RequestParam String identifier,
                                   @RequestParam String filename,
-                                  @RequestParam String uploadFolderPath) {
+                                  @RequestParam String uploadFolderPath,
+                                  @RequestParam(required = false) String lastChunkHash,
+                                  @RequestParam(required = false) Long totalSize) {
+        ChunkResult chunkResult = chunkService.checkChunk(identifier, filename, uploadFolderPath,
+                lastChunkHash, totalSize);
+        return AxiosResult.ok().data("chunkResult", chunkResult);
+    }
+
+    @ApiOperation("根据文件块MD5复用服务器上已有的文件块")
+    @PostMapping("/chunkHash")
+    public AxiosResult reuseChunks(@RequestBody ChunkHashInfo chunkHashInfo,
+                                   @RequestParam String uploadFolderPath) {
         ChunkResult chunkResult = new ChunkResult();
-        List<Integer> uploadedChunkList = new ArrayList<>();
-
-        String folder = uploadFolderPath + File.separator + identifier;
-        String file = folder + File.separator + filename;
-
-        // 判断文件夹是否存在
-        if (FileUtil.fileExists(folder)) {
-            // 先判断整个文件是否已经上传过了，如果是，则告诉前端跳过上传，实现秒传
-            if (FileUtil.fileExists(file)) {
-                chunkResult.setSkipUpload(true);
-                chunkResult.setUploadedChunkList(uploadedChunkList);
-                log.info("完整文件已存在，直接跳过上传，实现秒传");
-            } else {
-                chunkResult.setSkipUpload(false);
-                // 获取已经上传的文件块
-                chunkResult.setUploadedChunkList(chunkService.getUploadedChunkList(folder, filename));
-            }
-        } else {
+
+        try {
             chunkResult.setSkipUpload(false);
-            chunkResult.setUploadedChunkList(uploadedChunkList);
+            // 服务器上已有的文件块无需再上传
+            chunkResult.setUploadedChunkList(chunkService.reuseChunks(chunkHashInfo, uploadFolderPath));
+            return AxiosResult.ok().data("chunkResult", chunkResult);
+        } catch (IOException exception) {
+            log.info("复用文件块失败: {}", exception.getMessage());
+            return AxiosResult.error().message("复用文件块失败");
         }
-
-        return AxiosResult.ok().data("chunkResult", chunkResult);
     }
 
     @ApiOperation("删除当前已上传的文件块")
     @DeleteMapping("/chunk")
     public AxiosResult deleteChunk(@RequestParam String identifier,
                                    @RequestParam String uploadFolderPath) {
-        String folder = uploadFolderPath + File.separator + identifier;
-
-        // 判断文件夹是否存在
-        if (FileUtil.fileExists(folder)) {
-            FileUtil.deleteDirectory(folder);
-        }
+        chunkService.deleteChunk(identifier, uploadFolderPath);
 
         return AxiosResult.ok();
     }
 
+    @ApiOperation("提交合并任务 立即返回任务id")
     @PostMapping("/mergeFile")
     public AxiosResult mergeFile(@RequestBody UploaderFileInfo uploaderFileInfo,
                                  @RequestParam String uploadFolderPath) {
@@ -104,12 +124,22 @@ public class FileUploadController {
         String localFile = uploadFolderPath + File.separator + uploaderFileInfo.getUniqueIdentifier() + File.separator + uploadFilename;
         String localFolder = uploadFolderPath + File.separator + uploaderFileInfo.getUniqueIdentifier();
 
-        if (chunkService.mergeFile(localFile, localFolder, uploadFilename)) {
-            log.info("文件{}合并完成", uploaderFileInfo.getName());
-            return AxiosResult.ok();
-        } else {
-            log.info("文件{}合并失败", uploaderFileInfo.getName());
-            return AxiosResult.error().message("文件合并失败");
+        try {
+            MergeJob mergeJob = mergeJobService.submitMerge(localFile, localFolder, uploadFilename);
+            return AxiosResult.ok().data("jobId", mergeJob.getJobId()).data("mergeJob", mergeJob);
+        } catch (RejectedExecutionException exception) {
+            log.info("合并队列已满: {}", uploaderFileInfo.getName());
+            return AxiosResult.error().message("合并队列已满");
+        }
+    }
+
+    @ApiOperation("查询合并任务的状态和进度")
+    @GetMapping("/mergeFile")
+    public AxiosResult getMergeJob(@RequestParam String jobId) {
+        MergeJob mergeJob = mergeJobService.getJob(jobId);
+        if (mergeJob == null) {
+            return AxiosResult.error().message("合并任务不存在");
         }
+        return AxiosResult.ok().data("mergeJob", mergeJob);
     }
 }
@@ -0,0 +1,103 @@
+package file.transfer.service.controller;
+
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.result.AxiosResult;
+import file.transfer.service.service.CompressionService;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.service.ReactiveTransferService;
+import file.transfer.service.service.ThrottleService;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * 非阻塞下载 与FileDownloadController的接口和返回结果一致
+ *
+ * @author Cxx
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/fileDownload")
+@Slf4j
+public class ReactiveFileDownloadController {
+    @Resource
+    private ReactiveTransferService reactiveTransferService;
+
+    @Resource
+    private FileMetadataService fileMetadataService;
+
+    @Resource
+    private CompressionService compressionService;
+
+    @ApiOperation("获取下载文件信息")
+    @GetMapping("/getFileInfo")
+    public Mono<AxiosResult> getDownloadFileInfo(@RequestParam("downloadFolderPath") String downloadFolderPath,
+                                                 @RequestParam("fileName") String fileName,
+                                                 @RequestParam(value = "encoding", required = false) String encoding,
+                                                 ServerWebExchange exchange) {
+
+        // 获取文件路径
+        Path downloadFilePath = Paths.get(downloadFolderPath + File.separator + fileName);
+        Mono<AxiosResult> result = Mono.fromCallable(() -> {
+            FileMetadata fileMetadata = fileMetadataService.getMetadata(downloadFilePath);
+
+            // 判断文件是否存在
+            if (fileMetadata == null) {
+                return AxiosResult.error().message("下载文件不存在");
+            }
+            // 指定encoding时返回压缩文件的信息 之后按压缩文件的字节范围下载 不可压缩时encoding为identity
+            FileRepresentation representation = compressionService.select(downloadFilePath, fileMetadata, encoding,
+                    null, true);
+            FileMetadata metadata = representation.getMetadata();
+            // 文件没有变化时返回304
+            if (exchange.checkNotModified(metadata.getETag(), Instant.ofEpochMilli(metadata.getLastModified()))) {
+                return null;
+            }
+            return AxiosResult.ok().data("fileLength", metadata.getSize())
+                    .data("lastModified", metadata.getLastModified())
+                    .data("eTag", metadata.getETag())
+                    .data("encoding", representation.getEncoding() == null ? "identity"
+                            : representation.getEncoding().getName());
+        });
+        // 元数据缓存未命中时需要读取文件属性并注册监听 压缩文件不存在时需要等待压缩完成 不能阻塞事件循环
+        return result.subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @ApiOperation("下载文件块")
+    @GetMapping("/chunk")
+    public Mono<Void> downLoadChunk(@RequestParam String downloadFolderPath,
+                                    @RequestParam String fileName,
+                                    ServerWebExchange exchange) {
+
+        // 获取文件路径
+        String downloadFilePath = downloadFolderPath + File.separator + fileName;
+        File file = new File(downloadFilePath);
+        // 下载文件块 文件没有变化时返回304 开启限流时按客户端和租户的带宽发送
+        ThrottlePermit throttlePermit = exchange.getAttribute(ThrottleService.PERMIT_ATTR);
+        // 元数据缓存未命中时需要读取文件属性 不能阻塞事件循环
+        return Mono.fromCallable(() -> fileMetadataService.getMetadata(file.toPath()) != null)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(exists -> {
+                    if (!exists) {
+                        log.error("下载文件不存在");
+                        return Mono.<Void>empty();
+                    }
+                    return reactiveTransferService.downloadChunk(file, exchange.getRequest(), exchange.getResponse(),
+                            throttlePermit);
+                })
+                .doOnError(exception -> log.error("下载文件失败:{}", exception.getMessage()))
+                .onErrorResume(exception -> Mono.empty());
+    }
+}
@@ -0,0 +1,165 @@
+package file.transfer.service.controller;
+
+import file.transfer.service.entity.merge.MergeJob;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.entity.upload.ChunkHashInfo;
+import file.transfer.service.entity.upload.ChunkNegotiation;
+import file.transfer.service.entity.upload.ChunkResult;
+import file.transfer.service.entity.upload.UploaderFileInfo;
+import file.transfer.service.result.AxiosResult;
+import file.transfer.service.service.ChunkNegotiationService;
+import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.MergeJobService;
+import file.transfer.service.service.ReactiveTransferService;
+import file.transfer.service.service.ThrottleService;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 非阻塞上传 与FileUploadController的接口和返回结果一致
+ *
+ * @author Cxx
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/fileUpload")
+@Slf4j
+public class ReactiveFileUploadController {
+    @Resource
+    private ChunkService chunkService;
+
+    @Resource
+    private ReactiveTransferService reactiveTransferService;
+
+    @Resource
+    private MergeJobService mergeJobService;
+
+    @Resource
+    private ChunkNegotiationService chunkNegotiationService;
+
+    @ApiOperation("协商文件块大小和并发数")
+    @GetMapping("/chunkSize")
+    public AxiosResult negotiateChunkSize(@RequestParam String filename,
+                                          @RequestParam long totalSize,
+                                          @RequestParam String uploadFolderPath,
+                                          @RequestParam(required = false) Long rtt,
+                                          ServerHttpRequest request) {
+        ChunkNegotiation chunkNegotiation = chunkNegotiationService.negotiate(getClient(request),
+                uploadFolderPath, filename, totalSize, rtt);
+        return AxiosResult.ok().data("chunkNegotiation", chunkNegotiation);
+    }
+
+    @ApiOperation("上传文件块")
+    @PostMapping("/chunk")
+    public Mono<AxiosResult> uploadChunk(@RequestBody Flux<Part> parts,
+                                         @RequestParam(required = false) String uploadFolderPath,
+                                         ServerWebExchange exchange) {
+        ServerHttpRequest request = exchange.getRequest();
+        // 请求体在订阅后才开始读取 从这里到写入完成的耗时用于协商文件块大小
+        long startTime = System.nanoTime();
+        //文件写入指定路径 开启限流时按客户端和租户的带宽接收
+        ThrottlePermit throttlePermit = exchange.getAttribute(ThrottleService.PERMIT_ATTR);
+        return reactiveTransferService.saveChunk(parts, uploadFolderPath, throttlePermit)
+                .then(Mono.fromSupplier(() -> {
+                    chunkNegotiationService.recordChunk(getClient(request), request.getHeaders().getContentLength(),
+                            System.nanoTime() - startTime);
+                    return AxiosResult.ok();
+                }))
+                .onErrorResume(IOException.class, exception -> {
+                    log.info("文件上传块失败: {}", exception.getMessage());
+                    return Mono.just(AxiosResult.error().message("上传失败"));
+                });
+    }
+
+    @ApiOperation("验证当前文件块是否上传")
+    @GetMapping("/chunk")
+    public Mono<AxiosResult> checkChunk(@RequestParam String identifier,
+                                        @RequestParam String filename,
+                                        @RequestParam String uploadFolderPath,
+                                        @RequestParam(required = false) String lastChunkHash,
+                                        @RequestParam(required = false) Long totalSize) {
+        return Mono.fromCallable(() -> chunkService.checkChunk(identifier, filename, uploadFolderPath,
+                        lastChunkHash, totalSize))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(chunkResult -> AxiosResult.ok().data("chunkResult", chunkResult));
+    }
+
+    @ApiOperation("根据文件块MD5复用服务器上已有的文件块")
+    @PostMapping("/chunkHash")
+    public Mono<AxiosResult> reuseChunks(@RequestBody ChunkHashInfo chunkHashInfo,
+                                         @RequestParam String uploadFolderPath) {
+        return Mono.fromCallable(() -> {
+                    ChunkResult chunkResult = new ChunkResult();
+                    chunkResult.setSkipUpload(false);
+                    // 服务器上已有的文件块无需再上传
+                    chunkResult.setUploadedChunkList(chunkService.reuseChunks(chunkHashInfo, uploadFolderPath));
+                    return AxiosResult.ok().data("chunkResult", chunkResult);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(IOException.class, exception -> {
+                    log.info("复用文件块失败: {}", exception.getMessage());
+                    return Mono.just(AxiosResult.error().message("复用文件块失败"));
+                });
+    }
+
+    @ApiOperation("删除当前已上传的文件块")
+    @DeleteMapping("/chunk")
+    public Mono<AxiosResult> deleteChunk(@RequestParam String identifier,
+                                         @RequestParam String uploadFolderPath) {
+        return Mono.fromCallable(() -> {
+                    chunkService.deleteChunk(identifier, uploadFolderPath);
+                    return AxiosResult.ok();
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @ApiOperation("提交合并任务 立即返回任务id")
+    @PostMapping("/mergeFile")
+    public AxiosResult mergeFile(@RequestBody UploaderFileInfo uploaderFileInfo,
+                                 @RequestParam String uploadFolderPath) {
+        log.info("开始合并文件: " + uploaderFileInfo.getName());
+        // 进行文件的合并操作
+        String uploadFilename = uploaderFileInfo.getName();
+        String localFile = uploadFolderPath + File.separator + uploaderFileInfo.getUniqueIdentifier() + File.separator + uploadFilename;
+        String localFolder = uploadFolderPath + File.separator + uploaderFileInfo.getUniqueIdentifier();
+
+        // 只是放入合并队列 不会阻塞
+        try {
+            MergeJob mergeJob = mergeJobService.submitMerge(localFile, localFolder, uploadFilename);
+            return AxiosResult.ok().data("jobId", mergeJob.getJobId()).data("mergeJob", mergeJob);
+        } catch (RejectedExecutionException exception) {
+            log.info("合并队列已满: {}", uploaderFileInfo.getName());
+            return AxiosResult.error().message("合并队列已满");
+        }
+    }
+
+    @ApiOperation("查询合并任务的状态和进度")
+    @GetMapping("/mergeFile")
+    public AxiosResult getMergeJob(@RequestParam String jobId) {
+        MergeJob mergeJob = mergeJobService.getJob(jobId);
+        if (mergeJob == null) {
+            return AxiosResult.error().message("合并任务不存在");
+        }
+        return AxiosResult.ok().data("mergeJob", mergeJob);
+    }
+
+    private String getClient(ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress == null || remoteAddress.getAddress() == null ? null
+                : remoteAddress.getAddress().getHostAddress();
+    }
+}
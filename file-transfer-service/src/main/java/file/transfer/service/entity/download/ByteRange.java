@@ -0,0 +1,25 @@
+package file.transfer.service.entity.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 下载文件的字节范围 起始和结束位置都包含在内
+ *
+ * @author Cxx
+ */
+@Data
+@AllArgsConstructor
+public class ByteRange {
+    // 起始位置
+    private long start;
+    // 结束位置
+    private long end;
+
+    /**
+     * 字节范围的长度
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+}
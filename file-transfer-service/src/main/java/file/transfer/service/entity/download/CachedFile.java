@@ -0,0 +1,86 @@
+package file.transfer.service.entity.download;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 读缓存中的下载文件 由ReadCacheService.open返回 下载结束后close
+ * 缓存本身持有一个引用 被淘汰后等正在进行的下载全部结束才关闭文件
+ *
+ * @author Cxx
+ */
+@Slf4j
+@Getter
+public class CachedFile implements AutoCloseable {
+    // 文件路径
+    private final Path path;
+    // 打开时的文件大小 与当前文件不一致时缓存失效
+    private final long size;
+    // 打开时的修改时间 与当前文件不一致时缓存失效
+    private final long lastModified;
+    // 打开的文件
+    private final FileChannel channel;
+    // 内存映射的分段大小
+    private final long segmentSize;
+    // 内存映射的分段 文件成为热点后按需映射
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+    // 访问次数
+    private final AtomicInteger hits = new AtomicInteger();
+    // 引用计数 归零时关闭文件
+    private final AtomicInteger references = new AtomicInteger(1);
+    // 已映射的字节数 由ReadCacheService在缓存锁内维护
+    @Setter
+    private long mappedBytes;
+
+    public CachedFile(Path path, long size, long lastModified, FileChannel channel, long segmentSize) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.segments = new AtomicReferenceArray<>((int) ((size + segmentSize - 1) / segmentSize));
+    }
+
+    /**
+     * 增加引用 文件已经关闭时失败
+     *
+     * @return 是否成功
+     */
+    public boolean retain() {
+        while (true) {
+            int current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用 最后一个引用释放时关闭文件 内存映射在GC时解除
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                log.warn("关闭缓存文件失败: {}", path, exception);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,38 @@
+package file.transfer.service.entity.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 内容编码 用于下载文件的压缩和上传文件块的解压
+ *
+ * @author Cxx
+ */
+@Getter
+@AllArgsConstructor
+public enum ContentEncoding {
+    GZIP("gzip", ".gz", "application/gzip"),
+    ZSTD("zstd", ".zst", "application/zstd");
+
+    // Content-Encoding中的名称
+    private final String name;
+    // 压缩文件的后缀
+    private final String suffix;
+    // 按字节范围下载压缩文件时的类型
+    private final String contentType;
+
+    /**
+     * 根据名称获取编码
+     *
+     * @param name 编码名称 不区分大小写
+     * @return 编码 不支持时为null
+     */
+    public static ContentEncoding of(String name) {
+        for (ContentEncoding contentEncoding : values()) {
+            if (contentEncoding.name.equalsIgnoreCase(name)) {
+                return contentEncoding;
+            }
+        }
+        return null;
+    }
+}
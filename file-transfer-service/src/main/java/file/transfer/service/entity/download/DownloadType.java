@@ -0,0 +1,17 @@
+package file.transfer.service.entity.download;
+
+/**
+ * 下载类型 用于区分下载指标
+ *
+ * @author Cxx
+ */
+public enum DownloadType {
+    // 整个文件
+    FULL,
+    // 单个字节范围
+    RANGE,
+    // 多个字节范围(multipart/byteranges)
+    MULTIPART_RANGE,
+    // 字节范围超出文件大小
+    UNSATISFIABLE
+}
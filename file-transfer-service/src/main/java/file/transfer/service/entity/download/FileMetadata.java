@@ -0,0 +1,20 @@
+package file.transfer.service.entity.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 下载文件的元数据 由FileMetadataService缓存
+ *
+ * @author Cxx
+ */
+@Getter
+@AllArgsConstructor
+public class FileMetadata {
+    // 文件大小
+    private final long size;
+    // 修改时间
+    private final long lastModified;
+    // 强ETag 由文件大小和修改时间生成
+    private final String eTag;
+}
@@ -0,0 +1,24 @@
+package file.transfer.service.entity.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * 下载文件的表示 原文件或者预先压缩的文件 由CompressionService选择
+ *
+ * @author Cxx
+ */
+@Getter
+@AllArgsConstructor
+public class FileRepresentation {
+    // 实际读取的文件
+    private final Path path;
+    // 大小为实际读取的文件大小 修改时间与原文件一致 ETag带有编码后缀
+    private final FileMetadata metadata;
+    // 内容编码 原文件为null
+    private final ContentEncoding encoding;
+    // 是否由前端通过encoding参数指定 此时下载的是压缩文件本身(字节范围基于压缩文件) 不设置Content-Encoding
+    private final boolean explicit;
+}
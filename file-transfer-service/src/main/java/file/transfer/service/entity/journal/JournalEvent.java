@@ -0,0 +1,28 @@
+package file.transfer.service.entity.journal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 上传日志事件
+ *
+ * @author Cxx
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalEvent {
+    // 事件类型
+    private JournalEventType type;
+    // 文件块所在文件夹 uploadFolderPath/identifier
+    private String folder;
+    // 文件名
+    private String filename;
+    // 文件块序号 从1开始
+    private int chunkNumber;
+    // 总块数
+    private int totalChunks;
+    // 附加数据 SESSION_SNAPSHOT时为文件块位图 CHUNK_LIMIT时为8字节的文件块大小上限
+    private byte[] data;
+}
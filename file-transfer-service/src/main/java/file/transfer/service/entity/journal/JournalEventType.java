@@ -0,0 +1,21 @@
+package file.transfer.service.entity.journal;
+
+/**
+ * 上传日志事件类型
+ *
+ * @author Cxx
+ */
+public enum JournalEventType {
+    // 收到文件块
+    CHUNK_RECEIVED,
+    // 开始合并
+    MERGE_STARTED,
+    // 合并完成
+    MERGE_COMPLETED,
+    // 删除文件块
+    SESSION_DELETED,
+    // 压缩日志时写入的上传会话快照
+    SESSION_SNAPSHOT,
+    // 确定上传会话的文件块大小上限
+    CHUNK_LIMIT
+}
@@ -0,0 +1,78 @@
+package file.transfer.service.entity.merge;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并任务 记录合并状态和已经合并的字节数 供前端轮询
+ *
+ * @author Cxx
+ */
+@Getter
+public class MergeJob {
+    // 任务id
+    private final String jobId = UUID.randomUUID().toString();
+    // 文件标识
+    private final String identifier;
+    // 文件名
+    private final String filename;
+    // 去重的键 文件块所在文件夹/文件名
+    @JsonIgnore
+    private final String key;
+    // 合并状态
+    private volatile MergeState state = MergeState.QUEUED;
+    // 文件总大小 开始合并后才知道
+    private volatile long totalBytes;
+    // 已经合并的字节数
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong mergedBytes = new AtomicLong();
+    // 失败原因
+    private volatile String message;
+    // 创建时间
+    private final long createTime = System.currentTimeMillis();
+    // 结束时间 未结束时为0
+    private volatile long finishTime;
+
+    public MergeJob(String identifier, String filename, String key) {
+        this.identifier = identifier;
+        this.filename = filename;
+        this.key = key;
+    }
+
+    public long getMergedBytes() {
+        return mergedBytes.get();
+    }
+
+    public void start() {
+        state = MergeState.MERGING;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public void addMergedBytes(long bytes) {
+        mergedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 结束合并任务
+     *
+     * @param merged  是否合并成功
+     * @param message 失败原因
+     */
+    public void finish(boolean merged, String message) {
+        this.message = message;
+        this.finishTime = System.currentTimeMillis();
+        this.state = merged ? MergeState.COMPLETED : MergeState.FAILED;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return state == MergeState.COMPLETED || state == MergeState.FAILED;
+    }
+}
@@ -0,0 +1,17 @@
+package file.transfer.service.entity.merge;
+
+/**
+ * 合并任务状态
+ *
+ * @author Cxx
+ */
+public enum MergeState {
+    // 等待合并
+    QUEUED,
+    // 正在合并
+    MERGING,
+    // 合并完成
+    COMPLETED,
+    // 合并失败
+    FAILED
+}
@@ -0,0 +1,22 @@
+package file.transfer.service.entity.sweep;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文件块所在文件夹中上传残留文件(文件块 临时文件 预分配文件 位图)的占用情况
+ *
+ * @author Cxx
+ */
+@Getter
+@AllArgsConstructor
+public class ChunkUsage {
+    // 文件块所在文件夹 uploadFolderPath/identifier
+    private final String folder;
+    // 残留文件个数
+    private final int files;
+    // 残留文件总大小
+    private final long bytes;
+    // 残留文件中最后一次修改的时间
+    private final long lastModified;
+}
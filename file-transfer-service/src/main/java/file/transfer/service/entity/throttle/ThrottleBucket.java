@@ -0,0 +1,89 @@
+package file.transfer.service.entity.throttle;
+
+import file.transfer.service.utils.TokenBucket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个客户端或租户的限流状态 带宽为令牌桶 并发请求数为原子计数 都不需要加锁
+ *
+ * @author Cxx
+ */
+public class ThrottleBucket {
+    // 带宽令牌桶 每个令牌为ThrottlePermit.TOKEN_SIZE字节 null表示不限制带宽
+    private final TokenBucket tokenBucket;
+    // 同时进行的请求数上限 0表示不限制
+    private final int maxConcurrent;
+    // 正在进行的请求数
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // 最近一次请求的时间(纳秒)
+    private volatile long lastAccessTime = System.nanoTime();
+
+    /**
+     * @param tokenBucket   带宽令牌桶 null表示不限制带宽
+     * @param maxConcurrent 同时进行的请求数上限 0表示不限制
+     */
+    public ThrottleBucket(TokenBucket tokenBucket, int maxConcurrent) {
+        this.tokenBucket = tokenBucket;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * 尝试开始一个请求
+     *
+     * @return 是否未超出并发请求数上限
+     */
+    public boolean tryAcquire() {
+        lastAccessTime = System.nanoTime();
+        if (maxConcurrent <= 0) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求结束
+     */
+    public void release() {
+        lastAccessTime = System.nanoTime();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 是否限制带宽
+     *
+     * @return 是否限制带宽
+     */
+    public boolean isShaping() {
+        return tokenBucket != null;
+    }
+
+    /**
+     * 预占带宽令牌
+     *
+     * @param tokens 令牌数
+     * @return 需要等待的时间(纳秒) 0表示无需等待
+     */
+    public long reserve(long tokens) {
+        return tokenBucket == null ? 0 : tokenBucket.reserve(tokens);
+    }
+
+    /**
+     * 是否已经空闲 空闲的限流状态可以被清除
+     *
+     * @param idleNanos 空闲时间(纳秒)
+     * @return 没有正在进行的请求并且超过空闲时间没有请求
+     */
+    public boolean isIdle(long idleNanos) {
+        return inFlight.get() == 0 && System.nanoTime() - lastAccessTime > idleNanos;
+    }
+}
@@ -0,0 +1,156 @@
+package file.transfer.service.entity.throttle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个文件块请求的限流许可 占用客户端和租户的并发请求数 请求结束时关闭
+ * 读写文件块时按字节数预占客户端和租户的带宽令牌 等待时间取两者中较长的
+ *
+ * @author Cxx
+ */
+public class ThrottlePermit implements AutoCloseable {
+    // 每个带宽令牌的字节数 令牌桶的令牌间隔为整数纳秒 按字节计算时高带宽下误差较大
+    public static final int TOKEN_SIZE = 1024;
+    // 每次写入的最大字节数 大缓冲区(内存映射的分段)分多次写入 避免一次等待过长
+    private static final int SLICE_SIZE = 64 * 1024;
+
+    // 客户端的限流状态
+    private final ThrottleBucket clientBucket;
+    // 租户的限流状态 没有租户时为null
+    private final ThrottleBucket tenantBucket;
+    // 是否已经释放并发请求数
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public ThrottlePermit(ThrottleBucket clientBucket, ThrottleBucket tenantBucket) {
+        this.clientBucket = clientBucket;
+        this.tenantBucket = tenantBucket;
+    }
+
+    /**
+     * 是否限制带宽 不限制时不需要包装输入输出
+     *
+     * @return 客户端或租户是否限制带宽
+     */
+    public boolean isShaping() {
+        return clientBucket.isShaping() || tenantBucket != null && tenantBucket.isShaping();
+    }
+
+    /**
+     * 预占带宽令牌
+     *
+     * @param bytes 字节数
+     * @return 需要等待的时间(纳秒) 0表示无需等待
+     */
+    public long reserve(long bytes) {
+        long tokens = (bytes + TOKEN_SIZE - 1) / TOKEN_SIZE;
+        if (tokens <= 0) {
+            return 0;
+        }
+        long waitNanos = clientBucket.reserve(tokens);
+        if (tenantBucket != null) {
+            waitNanos = Math.max(waitNanos, tenantBucket.reserve(tokens));
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 获取带宽令牌 令牌不足时等待
+     *
+     * @param bytes 字节数
+     */
+    public void acquire(long bytes) {
+        long waitNanos = reserve(bytes);
+        while (waitNanos > 0 && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(waitNanos);
+            waitNanos -= System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * 包装输出通道 每次写入前获取带宽令牌
+     *
+     * @param channel 输出通道
+     * @return 限速的输出通道 不限制带宽时为原通道
+     */
+    public WritableByteChannel throttle(WritableByteChannel channel) {
+        if (!isShaping()) {
+            return channel;
+        }
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int length = Math.min(src.remaining(), SLICE_SIZE);
+                acquire(length);
+                if (length == src.remaining()) {
+                    return channel.write(src);
+                }
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + length);
+                int written = channel.write(slice);
+                src.position(src.position() + written);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * 包装输入流 每次读取后按读取的字节数获取带宽令牌
+     *
+     * @param inputStream 输入流
+     * @return 限速的输入流 不限制带宽时为原输入流
+     */
+    public InputStream throttle(InputStream inputStream) {
+        if (!isShaping()) {
+            return inputStream;
+        }
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, Math.min(len, SLICE_SIZE));
+                if (read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * 释放客户端和租户的并发请求数 重复调用时只释放一次
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            clientBucket.release();
+            if (tenantBucket != null) {
+                tenantBucket.release();
+            }
+        }
+    }
+}
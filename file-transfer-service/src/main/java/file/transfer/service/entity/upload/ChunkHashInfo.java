@@ -0,0 +1,24 @@
+package file.transfer.service.entity.upload;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @author Cxx
+ */
+@Data
+public class ChunkHashInfo {
+    // 文件标识
+    private String identifier;
+    // 文件名
+    private String filename;
+    // 每块大小
+    private Long chunkSize;
+    // 总大小
+    private Long totalSize;
+    // 总块数
+    private Integer totalChunks;
+    // 每个文件块的MD5 第i个对应第i+1个文件块
+    private List<String> chunkHashes;
+}
@@ -27,6 +27,12 @@ public class ChunkInfo {
     private Integer totalChunks;
     // 文件类型
     private String type;
+    // 文件块MD5 可选 用于校验文件块和按文件块去重
+    private String chunkHash;
+    // 文件块内容的压缩编码 可选 gzip或zstd 此时currentChunkSize为解压后的大小
+    private String encoding;
+    // 协商文件块大小时返回的协商标识 可选 带上时以协商的文件块大小作为上传会话的上限
+    private String negotiationId;
     // 块内容
     private transient MultipartFile multipartFile;
 }
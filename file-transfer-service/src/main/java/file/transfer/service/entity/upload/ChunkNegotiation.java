@@ -0,0 +1,25 @@
+package file.transfer.service.entity.upload;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 文件块大小协商结果 前端按chunkSize切分文件 按simultaneousUploads并发上传
+ * 上传文件块时带上negotiationId 服务端以协商的chunkSize作为该上传会话的文件块大小上限
+ *
+ * @author Cxx
+ */
+@Data
+@AllArgsConstructor
+public class ChunkNegotiation {
+    // 推荐的文件块大小
+    private long chunkSize;
+    // 推荐的并发上传文件块个数
+    private int simultaneousUploads;
+    // 测得的单个连接的吞吐量(字节/秒) 0表示还没有测量数据
+    private long throughput;
+    // 服务端允许的最大文件块大小
+    private long maxChunkSize;
+    // 协商标识 不协商时为null
+    private String negotiationId;
+}
@@ -0,0 +1,53 @@
+package file.transfer.service.entity.upload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 文件块的写入位置 由openChunk生成 写入完成后交给commitChunk 失败时交给abortChunk
+ *
+ * @author Cxx
+ */
+@Getter
+@AllArgsConstructor
+public class ChunkTarget {
+    // 文件块信息
+    private final ChunkInfo chunkInfo;
+    // 上传会话
+    private final UploadSession uploadSession;
+    // 需要写入的文件 文件块的临时文件或者直接写入模式下预分配的目标文件
+    private final Path path;
+    // 文件块在写入文件中的位置
+    private final long position;
+    // 文件块大小
+    private final long size;
+    // 文件块的最终路径 直接写入模式下为null
+    private final Path chunkPath;
+    // 文件块MD5 不需要计算时为null
+    private final MessageDigest chunkDigest;
+    // 文件标识的锁 写入期间持有读锁 避免与合并、删除同时进行
+    private final StampedLock lock;
+    private final long stamp;
+    // 读锁是否已经释放
+    private final AtomicBoolean unlocked = new AtomicBoolean(false);
+    // 准备写入的时间(纳秒) 用于统计写入耗时
+    private final long startTime = System.nanoTime();
+
+    /**
+     * 释放读锁 提交和放弃都会调用 只释放一次
+     *
+     * @return 是否是本次调用释放的
+     */
+    public boolean unlock() {
+        if (unlocked.compareAndSet(false, true)) {
+            lock.unlockRead(stamp);
+            return true;
+        }
+        return false;
+    }
+}
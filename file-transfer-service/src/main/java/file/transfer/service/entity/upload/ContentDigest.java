@@ -0,0 +1,21 @@
+package file.transfer.service.entity.upload;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 合并时服务端根据收到的文件块计算的文件内容摘要 用于按内容去重和秒传
+ * 文件标识部分和最后一个文件块的MD5加上文件大小可以唯一确定文件内容 前端在检查文件块时提供同样的信息
+ *
+ * @author Cxx
+ */
+@Data
+@AllArgsConstructor
+public class ContentDigest {
+    // 整个文件的MD5
+    private String fileDigest;
+    // 除最后一个文件块外的内容的MD5 与前端计算文件标识的方式一致 只有一个文件块时为整个文件的MD5
+    private String identifierDigest;
+    // 最后一个文件块的MD5
+    private String lastChunkDigest;
+}
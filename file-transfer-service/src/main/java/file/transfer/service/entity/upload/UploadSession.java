@@ -0,0 +1,52 @@
+package file.transfer.service.entity.upload;
+
+import file.transfer.service.utils.ChunkBitmap;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+
+/**
+ * 上传会话 记录正在上传的文件的文件块状态
+ *
+ * @author Cxx
+ */
+@Getter
+public class UploadSession {
+    // 文件块所在文件夹 uploadFolderPath/identifier
+    private final String folder;
+    // 文件名
+    private final String filename;
+    // 已上传的文件块
+    private final ChunkBitmap chunkBitmap;
+    // 每块大小 0表示未知(从磁盘重建的会话)
+    @Setter
+    private volatile long chunkSize;
+    // 文件块大小上限 第一个文件块到达时根据协商结果确定 0表示未确定
+    @Setter
+    private volatile long maxChunkSize;
+    // 文件标识的增量MD5 按文件块顺序计算
+    @Setter
+    private MessageDigest fileDigest;
+    // 已经计算MD5的文件块个数
+    @Setter
+    private int digestedChunks;
+
+    public UploadSession(String folder, String filename, ChunkBitmap chunkBitmap) {
+        this.folder = folder;
+        this.filename = filename;
+        this.chunkBitmap = chunkBitmap;
+    }
+
+    /**
+     * 获取上传会话的唯一标识
+     *
+     * @param folder   文件块所在文件夹
+     * @param filename 文件名
+     * @return 文件块所在文件夹/文件名
+     */
+    public static String getKey(String folder, String filename) {
+        return Paths.get(folder, filename).normalize().toString();
+    }
+}
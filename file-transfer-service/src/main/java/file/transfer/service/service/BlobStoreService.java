@@ -0,0 +1,30 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.upload.ContentDigest;
+
+import java.nio.file.Path;
+
+/**
+ * @author Cxx
+ */
+public interface BlobStoreService {
+    /**
+     * 如果已经保存了相同内容的文件 则将其链接到目标文件 实现秒传
+     * 内容由文件标识、最后一个文件块的MD5和文件大小确定 与合并时服务端计算的结果一致才能命中
+     * @param identifier 文件标识(除最后一个文件块外的MD5)
+     * @param lastChunkHash 最后一个文件块的MD5
+     * @param size 文件大小
+     * @param target 目标文件
+     * @return 是否链接成功
+     */
+    boolean linkBlob(String identifier, String lastChunkHash, long size, Path target);
+
+    /**
+     * 将合并完成的文件保存为该内容的文件 已经存在相同内容时将文件替换为已有内容的硬链接
+     * 内容按服务端计算的整个文件的MD5和文件大小区分 并按文件标识和最后一个文件块的MD5建立索引 用于秒传
+     * @param contentDigest 服务端计算的文件内容摘要
+     * @param size 文件大小
+     * @param file 合并完成的文件
+     */
+    void storeBlob(ContentDigest contentDigest, long size, Path file);
+}
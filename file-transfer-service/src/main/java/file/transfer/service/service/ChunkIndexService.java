@@ -0,0 +1,22 @@
+package file.transfer.service.service;
+
+import java.nio.file.Path;
+
+/**
+ * @author Cxx
+ */
+public interface ChunkIndexService {
+    /**
+     * 获取服务器上已有的文件块
+     * @param chunkHash 文件块MD5
+     * @return 文件块路径 不存在时返回null
+     */
+    Path getChunk(String chunkHash);
+
+    /**
+     * 将上传的文件块加入索引
+     * @param chunkHash 文件块MD5
+     * @param chunkFile 文件块
+     */
+    void addChunk(String chunkHash, Path chunkFile);
+}
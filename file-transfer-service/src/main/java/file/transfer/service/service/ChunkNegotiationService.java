@@ -0,0 +1,41 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.upload.ChunkNegotiation;
+
+/**
+ * @author Cxx
+ */
+public interface ChunkNegotiationService {
+    /**
+     * servlet模式下记录请求开始时间的请求属性 multipart在进入Controller之前已经接收完成
+     */
+    String START_TIME_ATTR = ChunkNegotiationService.class.getName() + ".startTime";
+
+    /**
+     * 根据客户端测得的吞吐量和RTT推荐文件块大小和并发数
+     * 返回的协商标识对应推荐的文件块大小 上传文件块时带上协商标识 作为该上传会话的文件块大小上限
+     * @param client 客户端地址
+     * @param uploadFolderPath 上传文件夹路径
+     * @param filename 文件名
+     * @param totalSize 文件总大小
+     * @param rtt 客户端测得的RTT(毫秒) 可以为null
+     * @return 协商结果
+     */
+    ChunkNegotiation negotiate(String client, String uploadFolderPath, String filename, long totalSize, Long rtt);
+
+    /**
+     * 记录一个文件块的上传耗时 更新客户端的吞吐量
+     * @param client 客户端地址
+     * @param bytes 请求大小
+     * @param elapsedNanos 从开始接收请求到文件块写入完成的耗时(纳秒)
+     */
+    void recordChunk(String client, long bytes, long elapsedNanos);
+
+    /**
+     * 获取协商标识对应的文件块大小上限
+     * 没有协商标识或者协商标识未知(已淘汰或服务重启)时为file-transfer.upload.max-chunk-size
+     * @param negotiationId 协商标识 可以为null
+     * @return 文件块大小上限
+     */
+    long getMaxChunkSize(String negotiationId);
+}
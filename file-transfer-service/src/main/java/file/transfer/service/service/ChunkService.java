@@ -1,9 +1,19 @@
 package file.transfer.service.service;
 
+import file.transfer.service.entity.merge.MergeJob;
+import file.transfer.service.entity.sweep.ChunkUsage;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.entity.upload.ChunkHashInfo;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.ChunkResult;
+import file.transfer.service.entity.upload.ChunkTarget;
+import file.transfer.service.utils.TokenBucket;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -11,7 +21,7 @@ import java.util.List;
  */
 public interface ChunkService {
     /**
-     * 下载文件块
+     * 下载文件块 开启限流时按请求属性ThrottleService.PERMIT_ATTR中的限流许可限制带宽
      * @param file 下载文件
      * @param request web请求
      * @param response web响应
@@ -19,6 +29,102 @@ public interface ChunkService {
      */
     void downloadChunk(File file, HttpServletRequest request, HttpServletResponse response) throws IOException;
 
+    /**
+     * 保存上传的文件块
+     * @param chunkInfo 文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @throws IOException IO错误
+     */
+    void saveChunk(ChunkInfo chunkInfo, String uploadFolderPath) throws IOException;
+
+    /**
+     * 保存上传的文件块 并按限流许可限制写入的带宽
+     * @param chunkInfo 文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param throttlePermit 限流许可 不限流时为null
+     * @throws IOException IO错误
+     */
+    void saveChunk(ChunkInfo chunkInfo, String uploadFolderPath, ThrottlePermit throttlePermit) throws IOException;
+
+    /**
+     * 准备文件块的写入位置 供非阻塞上传写入文件块内容
+     * @param chunkInfo 文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param size 文件块大小
+     * @return 文件块的写入位置
+     * @throws IOException IO错误
+     */
+    ChunkTarget openChunk(ChunkInfo chunkInfo, String uploadFolderPath, long size) throws IOException;
+
+    /**
+     * 将文件块内容以流的形式写入准备好的写入位置 文件块带有encoding时边解压边写入
+     * @param chunkTarget 文件块的写入位置
+     * @param inputStream 文件块内容
+     * @throws IOException IO错误或者内容大小与currentChunkSize不一致 失败时由调用者放弃文件块
+     */
+    void writeChunk(ChunkTarget chunkTarget, InputStream inputStream) throws IOException;
+
+    /**
+     * 文件块写入完成 校验并标记文件块已上传
+     * @param chunkTarget 文件块的写入位置
+     * @throws IOException IO错误或校验失败
+     */
+    void commitChunk(ChunkTarget chunkTarget) throws IOException;
+
+    /**
+     * 放弃写入失败的文件块
+     * @param chunkTarget 文件块的写入位置
+     */
+    void abortChunk(ChunkTarget chunkTarget);
+
+    /**
+     * 根据文件块MD5复用服务器上已有的文件块
+     * @param chunkHashInfo 文件块MD5信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @return 已上传(包括复用)的文件块列表
+     * @throws IOException IO错误
+     */
+    List<Integer> reuseChunks(ChunkHashInfo chunkHashInfo, String uploadFolderPath) throws IOException;
+
+    /**
+     * 验证文件是否已经上传 获取已经上传的文件块
+     * 开启去重并提供了最后一个文件块的MD5和文件大小时 服务器上已有相同内容的文件直接链接到目标文件夹 实现秒传
+     * @param identifier 文件标识
+     * @param filename 文件名
+     * @param uploadFolderPath 上传文件夹路径
+     * @param lastChunkHash 最后一个文件块的MD5 可选
+     * @param totalSize 文件大小 可选
+     * @return 文件块验证结果
+     */
+    ChunkResult checkChunk(String identifier, String filename, String uploadFolderPath,
+                           String lastChunkHash, Long totalSize);
+
+    /**
+     * 删除当前已上传的文件块
+     * @param identifier 文件标识
+     * @param uploadFolderPath 上传文件夹路径
+     */
+    void deleteChunk(String identifier, String uploadFolderPath);
+
+    /**
+     * 统计文件夹中上传残留文件(文件块 临时文件 预分配文件 位图)的占用情况 合并完成的文件不统计
+     * 只统计有位图或者上传会话的文件 文件夹中的其他文件不会被当作残留文件
+     * @param folder 文件块所在文件夹
+     * @return 残留文件的占用情况 没有残留文件时返回null
+     * @throws IOException 读取文件夹失败
+     */
+    ChunkUsage getChunkUsage(String folder) throws IOException;
+
+    /**
+     * 清理文件夹中的上传残留文件 文件夹为空时一并删除
+     * 正在上传或合并 或者统计之后又有新的文件块时跳过
+     * @param chunkUsage 统计时的占用情况
+     * @param deleteLimiter 删除限流 每删除一个文件获取一个令牌
+     * @return 释放的字节数 跳过时返回-1
+     * @throws IOException 删除文件失败
+     */
+    long sweepChunks(ChunkUsage chunkUsage, TokenBucket deleteLimiter) throws IOException;
+
     /**
      * 获取已经上传的文件块列表
      * @param folder 文件夹
@@ -35,4 +141,14 @@ public interface ChunkService {
      * @return 是否合并成功
      */
     boolean mergeFile(String localFile, String localFolder, String uploadFilename);
+
+    /**
+     * 合并文件 并将合并进度记录到合并任务中
+     * @param localFile 本地文件名
+     * @param localFolder 本地文件夹
+     * @param uploadFilename 上传的文件名
+     * @param mergeJob 合并任务 不需要记录进度时为null
+     * @return 是否合并成功
+     */
+    boolean mergeFile(String localFile, String localFolder, String uploadFilename, MergeJob mergeJob);
 }
@@ -0,0 +1,28 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author Cxx
+ */
+public interface CompressionService {
+    /**
+     * 选择下载文件的表示
+     * 前端通过encoding参数指定编码时 下载预先压缩的文件本身 字节范围基于压缩文件 压缩文件不存在时最多等待wait-timeout 超时返回原文件
+     * 否则只有不带Range的整个文件下载根据Accept-Encoding协商 压缩文件还不存在时在后台压缩 本次下载原文件
+     *
+     * @param path           下载文件
+     * @param fileMetadata   下载文件的元数据
+     * @param encoding       前端指定的编码 可以为null
+     * @param acceptEncoding Accept-Encoding请求头 可以为null
+     * @param ranged         是否为Range请求
+     * @return 文件的表示 不压缩时为原文件
+     * @throws IOException IO错误
+     */
+    FileRepresentation select(Path path, FileMetadata fileMetadata, String encoding, String acceptEncoding,
+                              boolean ranged) throws IOException;
+}
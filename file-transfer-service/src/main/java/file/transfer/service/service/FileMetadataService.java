@@ -0,0 +1,20 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.download.FileMetadata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author Cxx
+ */
+public interface FileMetadataService {
+    /**
+     * 获取下载文件的元数据 缓存中没有时读取文件属性
+     *
+     * @param path 文件路径
+     * @return 元数据 文件不存在或者不是普通文件时为null
+     * @throws IOException IO错误
+     */
+    FileMetadata getMetadata(Path path) throws IOException;
+}
@@ -0,0 +1,37 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.merge.MergeJob;
+
+/**
+ * @author Cxx
+ */
+public interface MergeJobService {
+    /**
+     * 提交合并任务 同一个文件已有未结束的合并任务时直接返回该任务
+     * @param localFile 本地文件名
+     * @param localFolder 本地文件夹
+     * @param uploadFilename 上传的文件名
+     * @return 合并任务
+     * @throws java.util.concurrent.RejectedExecutionException 合并队列已满
+     */
+    MergeJob submitMerge(String localFile, String localFolder, String uploadFilename);
+
+    /**
+     * 获取合并任务
+     * @param jobId 任务id
+     * @return 合并任务 不存在或已过期时返回null
+     */
+    MergeJob getJob(String jobId);
+
+    /**
+     * 获取排队和正在合并的任务个数
+     * @return 未结束的任务个数
+     */
+    int getActiveJobCount();
+
+    /**
+     * 获取正在合并的任务中尚未写入目标文件的字节数 排队中的任务开始合并后才知道文件大小
+     * @return 尚未写入的字节数
+     */
+    long getPendingBytes();
+}
@@ -0,0 +1,37 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.File;
+
+/**
+ * 非阻塞传输(WebFlux) 文件块的读写不占用线程 其余逻辑与ChunkService共用
+ *
+ * @author Cxx
+ */
+public interface ReactiveTransferService {
+    /**
+     * 下载文件块
+     * @param file 下载文件
+     * @param request web请求
+     * @param response web响应
+     * @param throttlePermit 限流许可 不限流时为null
+     * @return 写入完成
+     */
+    Mono<Void> downloadChunk(File file, ServerHttpRequest request, ServerHttpResponse response,
+                             ThrottlePermit throttlePermit);
+
+    /**
+     * 保存上传的文件块
+     * @param parts multipart请求的各个part 文件块信息在前 文件块在后
+     * @param uploadFolderPath 上传文件夹路径
+     * @param throttlePermit 限流许可 不限流时为null
+     * @return 保存完成 失败时为IOException
+     */
+    Mono<Void> saveChunk(Flux<Part> parts, String uploadFolderPath, ThrottlePermit throttlePermit);
+}
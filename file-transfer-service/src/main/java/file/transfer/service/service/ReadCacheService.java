@@ -0,0 +1,56 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.CachedFile;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * @author Cxx
+ */
+public interface ReadCacheService {
+    /**
+     * 打开下载文件 缓存中的文件大小或修改时间与参数不一致时重新打开
+     *
+     * @param path         文件路径
+     * @param size         当前文件大小
+     * @param lastModified 当前修改时间
+     * @return 缓存的文件 使用结束后close
+     * @throws IOException IO错误
+     */
+    CachedFile open(Path path, long size, long lastModified) throws IOException;
+
+    /**
+     * 文件是否为热点文件 热点文件通过内存映射读取
+     *
+     * @param cachedFile 缓存的文件
+     * @return 是否为热点文件
+     */
+    boolean isHot(CachedFile cachedFile);
+
+    /**
+     * 文件被修改或删除 移出缓存 正在进行的下载结束后关闭文件
+     *
+     * @param path 文件路径
+     */
+    void invalidate(Path path);
+
+    /**
+     * 文件夹中的文件变化未知(监听事件丢失或文件夹被删除) 移出该文件夹中的所有文件
+     *
+     * @param folder 文件夹路径
+     */
+    void invalidateFolder(Path folder);
+
+    /**
+     * 将文件的字节范围写入输出通道 已映射的部分直接从内存写入 其余部分通过FileChannel读取
+     *
+     * @param cachedFile    缓存的文件
+     * @param range         字节范围
+     * @param outputChannel 输出通道
+     * @throws IOException IO错误
+     */
+    void transferTo(CachedFile cachedFile, ByteRange range, WritableByteChannel outputChannel) throws IOException;
+}
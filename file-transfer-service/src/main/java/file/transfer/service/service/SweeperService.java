@@ -0,0 +1,35 @@
+package file.transfer.service.service;
+
+/**
+ * @author Cxx
+ */
+public interface SweeperService {
+    /**
+     * 清理被放弃的上传残留的文件块 每次只检查一部分文件夹
+     */
+    void sweep();
+
+    /**
+     * 获取累计释放的字节数
+     * @return 释放的字节数
+     */
+    long getReclaimedBytes();
+
+    /**
+     * 获取累计删除的残留文件个数
+     * @return 删除的文件个数
+     */
+    long getDeletedFiles();
+
+    /**
+     * 获取累计清理的上传个数(超时和超出配额)
+     * @return 清理的上传个数
+     */
+    long getSweptUploads();
+
+    /**
+     * 获取累计因超出配额提前清理的上传个数
+     * @return 提前清理的上传个数
+     */
+    long getEvictedUploads();
+}
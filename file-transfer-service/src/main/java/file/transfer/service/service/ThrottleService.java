@@ -0,0 +1,27 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.throttle.ThrottlePermit;
+
+/**
+ * @author Cxx
+ */
+public interface ThrottleService {
+    /**
+     * 保存文件块请求的限流许可的请求属性 没有开启限流时不存在
+     */
+    String PERMIT_ATTR = ThrottleService.class.getName() + ".permit";
+
+    /**
+     * 是否开启限流
+     * @return 是否开启限流
+     */
+    boolean isEnabled();
+
+    /**
+     * 开始一个文件块请求 占用客户端和租户的并发请求数
+     * @param client 客户端地址
+     * @param tenant 租户标识 可以为null
+     * @return 限流许可 请求结束时关闭 超出并发请求数上限时为null
+     */
+    ThrottlePermit acquire(String client, String tenant);
+}
@@ -0,0 +1,69 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.download.ByteRange;
+
+import java.util.List;
+
+/**
+ * @author Cxx
+ */
+public interface TransferMetricsService {
+    /**
+     * 开始写入文件块
+     */
+    void chunkStarted();
+
+    /**
+     * 文件块写入结束
+     * @param nanos 从准备写入到提交或放弃的耗时(纳秒)
+     * @param bytes 文件块大小
+     * @param success 是否提交成功
+     */
+    void chunkFinished(long nanos, long bytes, boolean success);
+
+    /**
+     * 获取正在写入的文件块个数
+     * @return 正在写入的文件块个数
+     */
+    int getActiveChunks();
+
+    /**
+     * 记录续传校验
+     * @param nanos 耗时(纳秒)
+     */
+    void recordCheck(long nanos);
+
+    /**
+     * 记录合并
+     * @param nanos 耗时(纳秒) 包括等待文件块写入完成的时间
+     * @param bytes 合并后的文件大小
+     * @param success 是否合并成功
+     */
+    void recordMerge(long nanos, long bytes, boolean success);
+
+    /**
+     * 记录下载
+     * @param ranges 前端请求的字节范围 null表示整个文件
+     * @param fileSize 文件大小
+     * @param nanos 耗时(纳秒)
+     */
+    void recordDownload(List<ByteRange> ranges, long fileSize, long nanos);
+
+    /**
+     * 记录删除文件块
+     * @param nanos 耗时(纳秒)
+     */
+    void recordDelete(long nanos);
+
+    /**
+     * 记录下载读缓存是否命中
+     * @param hit 是否命中
+     */
+    void recordReadCache(boolean hit);
+
+    /**
+     * 记录超出并发请求数上限被拒绝的文件块请求
+     * @param tenant 是否超出租户的上限 否则为客户端的上限
+     */
+    void recordThrottled(boolean tenant);
+}
@@ -0,0 +1,48 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.upload.ChunkInfo;
+
+/**
+ * @author Cxx
+ */
+public interface UploadJournalService {
+    /**
+     * 记录收到文件块
+     * @param folder 文件块所在文件夹
+     * @param chunkInfo 文件块信息
+     */
+    void chunkReceived(String folder, ChunkInfo chunkInfo);
+
+    /**
+     * 记录上传会话的文件块大小上限
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     * @param maxChunkSize 文件块大小上限
+     */
+    void chunkLimited(String folder, String filename, long maxChunkSize);
+
+    /**
+     * 记录开始合并
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     */
+    void mergeStarted(String folder, String filename);
+
+    /**
+     * 记录合并完成
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     */
+    void mergeCompleted(String folder, String filename);
+
+    /**
+     * 记录删除文件块
+     * @param folder 文件块所在文件夹
+     */
+    void sessionDeleted(String folder);
+
+    /**
+     * 压缩日志 只保留未完成的上传会话
+     */
+    void compact();
+}
@@ -0,0 +1,48 @@
+package file.transfer.service.service;
+
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.utils.ChunkBitmap;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * @author Cxx
+ */
+public interface UploadSessionService {
+    /**
+     * 获取内存中的上传会话
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     * @return 上传会话 不存在时返回null
+     */
+    UploadSession getSession(String folder, String filename);
+
+    /**
+     * 获取上传会话 不存在时利用loader从磁盘重建
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     * @param loader 文件块位图加载器
+     * @return 上传会话
+     */
+    UploadSession getOrLoadSession(String folder, String filename, Supplier<ChunkBitmap> loader);
+
+    /**
+     * 移除上传会话(合并完成)
+     * @param folder 文件块所在文件夹
+     * @param filename 文件名
+     */
+    void removeSession(String folder, String filename);
+
+    /**
+     * 移除文件夹下的所有上传会话(删除文件块)
+     * @param folder 文件块所在文件夹
+     */
+    void removeSessions(String folder);
+
+    /**
+     * 获取所有上传会话
+     * @return 上传会话
+     */
+    Collection<UploadSession> getSessions();
+}
@@ -0,0 +1,164 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ContentDigest;
+import file.transfer.service.service.BlobStoreService;
+import file.transfer.service.utils.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * 按文件内容存储合并完成的文件 同一内容在磁盘上只保存一份
+ * 内容的标识为服务端在合并时计算的整个文件的MD5加上文件大小 前端的文件标识不包括最后一个文件块 不能单独用于去重
+ * 同时按文件标识、最后一个文件块的MD5和文件大小建立索引 前端检查文件块时提供这些信息即可秒传
+ * 每个逻辑文件都是文件内容的硬链接 由文件系统维护引用计数 删除逻辑文件不影响其他文件
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class BlobStoreServiceImpl implements BlobStoreService {
+    // 内容MD5必须是32位十六进制 避免被拼接成任意路径
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+    // 替换为硬链接时的临时文件后缀 残留时由清理任务删除
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Override
+    public boolean linkBlob(String identifier, String lastChunkHash, long size, Path target) {
+        Path uploadPath = getUploadPath(identifier, lastChunkHash, size);
+        if (uploadPath == null || !Files.exists(uploadPath)) {
+            return false;
+        }
+
+        try {
+            Files.createDirectories(target.getParent());
+            Files.createLink(target, uploadPath);
+            log.info("文件{}内容已存在 直接链接", target);
+            return true;
+        } catch (FileAlreadyExistsException exception) {
+            // 同时有其他上传完成了该文件
+            return isSameFile(target, uploadPath);
+        } catch (IOException | UnsupportedOperationException exception) {
+            log.error("链接文件内容失败: {}", exception.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void storeBlob(ContentDigest contentDigest, long size, Path file) {
+        Path blobPath = contentDigest == null ? null : getBlobPath(contentDigest.getFileDigest(), size);
+        if (blobPath == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(blobPath.getParent());
+            saveContent(blobPath, size, file);
+
+            // 按文件标识和最后一个文件块的MD5建立索引 指向同一份内容 相同文件再次上传时秒传
+            Path uploadPath = getUploadPath(contentDigest.getIdentifierDigest(), contentDigest.getLastChunkDigest(), size);
+            if (uploadPath != null && isSameFile(blobPath, file)) {
+                Files.createDirectories(uploadPath.getParent());
+                try {
+                    Files.createLink(uploadPath, blobPath);
+                } catch (FileAlreadyExistsException exception) {
+                    // 相同内容已经建立了索引
+                }
+            }
+        } catch (IOException | UnsupportedOperationException exception) {
+            log.error("保存文件内容失败: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * 保存文件内容 已经存在相同内容时将文件替换为已有内容的硬链接
+     *
+     * @param blobPath 文件内容的存储路径
+     * @param size     文件大小
+     * @param file     合并完成的文件
+     * @throws IOException IO错误
+     */
+    private void saveContent(Path blobPath, long size, Path file) throws IOException {
+        try {
+            Files.createLink(blobPath, file);
+            return;
+        } catch (FileAlreadyExistsException exception) {
+            // 其他文件已经保存了相同的内容
+        }
+
+        if (Files.isSameFile(blobPath, file) || Files.size(blobPath) != size) {
+            return;
+        }
+        // 先在同一文件夹中创建已有内容的硬链接 再原子地替换合并完成的文件 释放重复的磁盘空间
+        Path tempPath = FileUtil.createTempFile(file.getParent(), file.getFileName() + ".", TEMP_SUFFIX);
+        try {
+            Files.delete(tempPath);
+            Files.createLink(tempPath, blobPath);
+            Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("文件{}内容已存在 替换为已有内容的链接", file);
+        } finally {
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException exception) {
+                log.warn("删除临时文件失败: {}", exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取文件内容的存储路径 按MD5的前两位分目录 避免单个目录下文件过多
+     *
+     * @param contentDigest 整个文件内容的MD5
+     * @param size          文件大小
+     * @return 存储路径 未开启去重或者MD5不合法时返回null
+     */
+    Path getBlobPath(String contentDigest, long size) {
+        if (!transferProperties.getDedup().isEnabled() || contentDigest == null
+                || !DIGEST_PATTERN.matcher(contentDigest).matches() || size < 0) {
+            return null;
+        }
+
+        String blobName = contentDigest.toLowerCase();
+        return Paths.get(transferProperties.getDedup().getBlobPath(), blobName.substring(0, 2), blobName + "-" + size);
+    }
+
+    /**
+     * 获取上传索引的路径 与文件内容在同一目录下 是文件内容的另一个硬链接
+     *
+     * @param identifier    文件标识(除最后一个文件块外的MD5)
+     * @param lastChunkHash 最后一个文件块的MD5
+     * @param size          文件大小
+     * @return 索引路径 未开启去重或者MD5不合法时返回null
+     */
+    Path getUploadPath(String identifier, String lastChunkHash, long size) {
+        if (!transferProperties.getDedup().isEnabled() || identifier == null || lastChunkHash == null
+                || !DIGEST_PATTERN.matcher(identifier).matches() || !DIGEST_PATTERN.matcher(lastChunkHash).matches()
+                || size < 0) {
+            return null;
+        }
+
+        String indexName = identifier.toLowerCase();
+        return Paths.get(transferProperties.getDedup().getBlobPath(), indexName.substring(0, 2),
+                indexName + "-" + lastChunkHash.toLowerCase() + "-" + size);
+    }
+
+    private boolean isSameFile(Path path, Path other) {
+        try {
+            return Files.isSameFile(path, other);
+        } catch (IOException exception) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.service.ChunkIndexService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 全局文件块索引 按文件块MD5保存所有上传过的文件块 相同的文件块只保存一份
+ * 文件块存储为上传文件块的硬链接 合并后删除上传的文件块不影响存储的文件块
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class ChunkIndexServiceImpl implements ChunkIndexService {
+    // 文件块MD5 避免被拼接成任意路径
+    private static final Pattern CHUNK_HASH_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    // 已存储的文件块MD5
+    private final Set<String> chunkHashes = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        Path chunkPath = Paths.get(transferProperties.getDedup().getChunkPath());
+        if (!transferProperties.getDedup().isChunkEnabled() || !Files.isDirectory(chunkPath)) {
+            return;
+        }
+
+        // 启动时加载已存储的文件块
+        try (Stream<Path> walk = Files.walk(chunkPath, 2)) {
+            walk.map(path -> path.getFileName().toString())
+                    .filter(name -> CHUNK_HASH_PATTERN.matcher(name).matches())
+                    .forEach(chunkHashes::add);
+        } catch (IOException exception) {
+            log.error("加载文件块索引失败: {}", exception.getMessage());
+        }
+        log.info("加载文件块索引完成: {}个文件块", chunkHashes.size());
+    }
+
+    @Override
+    public Path getChunk(String chunkHash) {
+        chunkHash = chunkHash == null ? null : chunkHash.toLowerCase();
+        Path storePath = getStorePath(chunkHash);
+        if (storePath == null || !chunkHashes.contains(chunkHash)) {
+            return null;
+        }
+
+        // 文件块已经被清理
+        if (!Files.exists(storePath)) {
+            chunkHashes.remove(chunkHash);
+            return null;
+        }
+        return storePath;
+    }
+
+    @Override
+    public void addChunk(String chunkHash, Path chunkFile) {
+        chunkHash = chunkHash == null ? null : chunkHash.toLowerCase();
+        Path storePath = getStorePath(chunkHash);
+        if (storePath == null || chunkHashes.contains(chunkHash)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(storePath.getParent());
+            Files.createLink(storePath, chunkFile);
+        } catch (FileAlreadyExistsException exception) {
+            // 其他上传已经保存了相同的文件块
+        } catch (IOException | UnsupportedOperationException exception) {
+            log.error("保存文件块失败: {}", exception.getMessage());
+            return;
+        }
+        chunkHashes.add(chunkHash);
+    }
+
+    /**
+     * 获取文件块的存储路径 按MD5的前两位分目录
+     *
+     * @param chunkHash 文件块MD5
+     * @return 存储路径 未开启去重或者MD5不合法时返回null
+     */
+    private Path getStorePath(String chunkHash) {
+        if (!transferProperties.getDedup().isChunkEnabled() || chunkHash == null
+                || !CHUNK_HASH_PATTERN.matcher(chunkHash).matches()) {
+            return null;
+        }
+        return Paths.get(transferProperties.getDedup().getChunkPath(), chunkHash.substring(0, 2), chunkHash);
+    }
+}
@@ -0,0 +1,175 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ChunkNegotiation;
+import file.transfer.service.service.ChunkNegotiationService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 文件块大小协商 按客户端地址统计每个文件块请求的吞吐量(EWMA)
+ * 文件块大小为吞吐量乘以目标上传时间(取2的幂) 快速连接减少请求次数 慢速连接降低重试代价
+ * 文件标识由前端按文件块大小计算 同一个文件再次协商时推荐相同的文件块大小 保证可以续传
+ * 每次协商返回一个协商标识 只有带上该标识的上传会话以协商的文件块大小为上限 其他客户端上传同名文件或者使用默认文件块大小不受影响
+ *
+ * @author Cxx
+ */
+@Service
+public class ChunkNegotiationServiceImpl implements ChunkNegotiationService {
+    // 小于该大小的请求主要是请求开销 不参与吞吐量统计 避免文件块越协商越小
+    private static final long MIN_SAMPLE_SIZE = 64 * 1024;
+    // 文件块的上传时间至少为RTT的该倍数 每个请求的空闲开销不超过约10%
+    private static final int RTT_RATIO = 10;
+
+    // 客户端地址 -> 吞吐量 按访问顺序排列 最久未访问的在最前
+    private final Map<String, Throughput> throughputs = new LinkedHashMap<>(16, 0.75f, true);
+    // 上传文件夹/文件名:文件总大小 -> 推荐的文件块大小
+    private final Map<String, Long> chunkSizes = new LinkedHashMap<>(16, 0.75f, true);
+    // 协商标识 -> 协商的文件块大小 上传会话确定上限后不再需要 按访问顺序淘汰
+    private final Map<String, Long> negotiations = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Override
+    public ChunkNegotiation negotiate(String client, String uploadFolderPath, String filename, long totalSize,
+                                      Long rtt) {
+        TransferProperties.Negotiation negotiation = transferProperties.getNegotiation();
+        long maxChunkSize = transferProperties.getUpload().getMaxChunkSize().toBytes();
+        long minChunkSize = Math.min(negotiation.getMinChunkSize().toBytes(), maxChunkSize);
+        if (!negotiation.isEnabled()) {
+            return new ChunkNegotiation(Math.min(negotiation.getDefaultChunkSize().toBytes(), maxChunkSize),
+                    negotiation.getDefaultParallelism(), 0, maxChunkSize, null);
+        }
+
+        long throughput = getThroughput(client);
+        double rttSeconds = rtt == null || rtt < 0 ? 0 : rtt / 1000.0;
+        String key = getKey(uploadFolderPath, filename, totalSize);
+        Long chunkSize;
+        synchronized (chunkSizes) {
+            chunkSize = chunkSizes.get(key);
+        }
+        if (chunkSize == null) {
+            if (throughput > 0) {
+                double chunkSeconds = Math.max(negotiation.getTargetChunkTime().toMillis() / 1000.0,
+                        rttSeconds * RTT_RATIO);
+                chunkSize = Long.highestOneBit(Math.max((long) (throughput * chunkSeconds), 1));
+            } else {
+                chunkSize = negotiation.getDefaultChunkSize().toBytes();
+            }
+            chunkSize = Math.min(Math.max(chunkSize, minChunkSize), maxChunkSize);
+
+            synchronized (chunkSizes) {
+                Long existingChunkSize = chunkSizes.putIfAbsent(key, chunkSize);
+                if (existingChunkSize != null) {
+                    chunkSize = existingChunkSize;
+                }
+                if (chunkSizes.size() > negotiation.getMaxEntries()) {
+                    chunkSizes.remove(chunkSizes.keySet().iterator().next());
+                }
+            }
+        }
+
+        int parallelism = negotiation.getDefaultParallelism();
+        if (throughput > 0) {
+            // 并发的文件块在目标时间内能上传的字节数与单个连接相当 再加上请求往返期间空闲的连接
+            double chunkSeconds = (double) chunkSize / throughput;
+            parallelism = (int) Math.ceil(negotiation.getTargetChunkTime().toMillis() / 1000.0 / chunkSeconds)
+                    + (int) Math.max(1, Math.ceil(rttSeconds / chunkSeconds));
+        }
+        long totalChunks = Math.max((totalSize + chunkSize - 1) / chunkSize, 1);
+        parallelism = (int) Math.min(Math.min(parallelism, negotiation.getMaxParallelism()), totalChunks);
+
+        String negotiationId = UUID.randomUUID().toString().replace("-", "");
+        synchronized (negotiations) {
+            negotiations.put(negotiationId, chunkSize);
+            if (negotiations.size() > negotiation.getMaxEntries()) {
+                negotiations.remove(negotiations.keySet().iterator().next());
+            }
+        }
+        return new ChunkNegotiation(chunkSize, Math.max(parallelism, 1), throughput, maxChunkSize, negotiationId);
+    }
+
+    @Override
+    public void recordChunk(String client, long bytes, long elapsedNanos) {
+        TransferProperties.Negotiation negotiation = transferProperties.getNegotiation();
+        if (!negotiation.isEnabled() || client == null || bytes < MIN_SAMPLE_SIZE || elapsedNanos <= 0) {
+            return;
+        }
+
+        double sample = bytes * 1e9 / elapsedNanos;
+        long now = System.nanoTime();
+        synchronized (throughputs) {
+            Throughput throughput = throughputs.get(client);
+            if (throughput == null || now - throughput.updateTime > negotiation.getSampleTtl().toNanos()) {
+                throughputs.put(client, new Throughput(sample, now));
+                if (throughputs.size() > negotiation.getMaxEntries()) {
+                    throughputs.remove(throughputs.keySet().iterator().next());
+                }
+            } else {
+                throughput.bytesPerSecond = throughput.bytesPerSecond
+                        + negotiation.getSmoothing() * (sample - throughput.bytesPerSecond);
+                throughput.updateTime = now;
+            }
+        }
+    }
+
+    @Override
+    public long getMaxChunkSize(String negotiationId) {
+        long maxChunkSize = transferProperties.getUpload().getMaxChunkSize().toBytes();
+        if (!transferProperties.getNegotiation().isEnabled() || negotiationId == null) {
+            return maxChunkSize;
+        }
+
+        Long chunkSize;
+        synchronized (negotiations) {
+            chunkSize = negotiations.get(negotiationId);
+        }
+        return chunkSize == null ? maxChunkSize : Math.min(chunkSize, maxChunkSize);
+    }
+
+    /**
+     * 获取客户端的吞吐量
+     *
+     * @param client 客户端地址
+     * @return 吞吐量(字节/秒) 没有测量数据或者已经过期时为0
+     */
+    private long getThroughput(String client) {
+        if (client == null) {
+            return 0;
+        }
+        synchronized (throughputs) {
+            Throughput throughput = throughputs.get(client);
+            if (throughput == null || System.nanoTime() - throughput.updateTime
+                    > transferProperties.getNegotiation().getSampleTtl().toNanos()) {
+                return 0;
+            }
+            return (long) throughput.bytesPerSecond;
+        }
+    }
+
+    private String getKey(String uploadFolderPath, String filename, long totalSize) {
+        return Paths.get(uploadFolderPath == null ? "" : uploadFolderPath, String.valueOf(filename))
+                .toAbsolutePath().normalize() + ":" + totalSize;
+    }
+
+    /**
+     * 单个客户端的吞吐量 在throughputs锁内读写
+     */
+    private static class Throughput {
+        // 吞吐量的EWMA(字节/秒)
+        private double bytesPerSecond;
+        // 最近一次更新的时间(纳秒)
+        private long updateTime;
+
+        private Throughput(double bytesPerSecond, long updateTime) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.updateTime = updateTime;
+        }
+    }
+}
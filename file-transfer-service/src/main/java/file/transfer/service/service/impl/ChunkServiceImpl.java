@@ -1,20 +1,80 @@
 package file.transfer.service.service.impl;
 
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.CachedFile;
+import file.transfer.service.entity.download.ContentEncoding;
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+import file.transfer.service.entity.merge.MergeJob;
+import file.transfer.service.entity.sweep.ChunkUsage;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.entity.upload.ChunkHashInfo;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.ChunkResult;
+import file.transfer.service.entity.upload.ChunkTarget;
+import file.transfer.service.entity.upload.ContentDigest;
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.BlobStoreService;
+import file.transfer.service.service.ChunkIndexService;
+import file.transfer.service.service.ChunkNegotiationService;
 import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.CompressionService;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.service.MergeJobService;
+import file.transfer.service.service.ReadCacheService;
+import file.transfer.service.service.ThrottleService;
+import file.transfer.service.service.TransferMetricsService;
+import file.transfer.service.service.UploadJournalService;
+import file.transfer.service.service.UploadSessionService;
+import file.transfer.service.utils.ChunkBitmap;
+import file.transfer.service.utils.CompressionUtil;
+import file.transfer.service.utils.FileUtil;
+import file.transfer.service.utils.HttpRangeUtil;
+import file.transfer.service.utils.StripedLock;
+import file.transfer.service.utils.TokenBucket;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static file.transfer.service.utils.FileUtil.fileExists;
@@ -25,7 +85,70 @@ import static file.transfer.service.utils.FileUtil.fileExists;
 @Service
 @Slf4j
 public class ChunkServiceImpl implements ChunkService {
-    private final String fileSeparator = "_";
+    // 上传中的文件块临时文件后缀
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 文件块名称分隔符 文件名_序号
+    private static final String FILE_SEPARATOR = "_";
+    // 直接写入模式下 预分配的目标文件后缀
+    private static final String PART_SUFFIX = ".part";
+    // 文件块位图后缀 直接写入模式下保存完整位图 文件块模式下只保存文件块总数
+    private static final String BITMAP_SUFFIX = ".chunks";
+    // 合并中的临时文件后缀
+    private static final String MERGING_SUFFIX = ".merging";
+    // 文件标识锁的个数
+    private static final int LOCK_STRIPES = 1024;
+    // 合并时每写入该大小更新一次合并进度
+    private static final long MERGE_PROGRESS_STEP = 16 * 1024 * 1024;
+
+    // 下载文件的类型
+    private static final String DOWNLOAD_CONTENT_TYPE = "application/x-download";
+
+    // Tomcat sendfile相关的请求属性
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // 文件标识的读写锁 文件块写入共享 合并和删除独占
+    private final StripedLock identifierLocks = new StripedLock(LOCK_STRIPES);
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ExecutorService mergeExecutor;
+
+    @Resource
+    private UploadSessionService uploadSessionService;
+
+    @Resource
+    private UploadJournalService uploadJournalService;
+
+    @Resource
+    private BlobStoreService blobStoreService;
+
+    @Resource
+    private ChunkIndexService chunkIndexService;
+
+    // 合并任务队列依赖ChunkService 延迟注入避免循环依赖
+    @Lazy
+    @Resource
+    private MergeJobService mergeJobService;
+
+    @Resource
+    private TransferMetricsService transferMetricsService;
+
+    @Resource
+    private ReadCacheService readCacheService;
+
+    @Resource
+    private FileMetadataService fileMetadataService;
+
+    @Resource
+    private CompressionService compressionService;
+
+    @Resource
+    private ChunkNegotiationService chunkNegotiationService;
 
     /**
      * 下载文件块
@@ -37,74 +160,1075 @@ public class ChunkServiceImpl implements ChunkService {
      */
     @Override
     public void downloadChunk(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
-        try {
-            // 分片下载
-            long fileSize = file.length();
-            // 定义断点
-            long startPosition, endPosition;
-            // 文件输入流
-            inputStream = new BufferedInputStream(new FileInputStream(file));
-            // response输出流
-            outputStream = new BufferedOutputStream(response.getOutputStream());
-
-            // 设置有用户决定是否需要下载
-            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            // 设置文件类型
-            response.setContentType("application/x-download");
-            // 设置以附件的形式下载并保存到本地
-            response.addHeader("Content-Disposition", "attachment;filename=" +
-                    URLEncoder.encode(file.getName(), StandardCharsets.UTF_8));
-            // 设置可以中断下载
-            response.setHeader("Accept-Range", "bytes");
-            // 设置文件的大小 Bug:这里如果设置了Content-Length 则后端会卡死
-            // response.setHeader("Content-Length", "" + fileSize);
-
-            // 获取前端的文件块范围
-            String chunkRange = request.getHeader("Range").replaceAll("bytes=", "");
-            String[] chunkRangeArray = chunkRange.split("-");
-
-            // 获取文件块的起始位置
-            startPosition = Long.parseLong(chunkRangeArray[0]);
-            endPosition = Long.parseLong(chunkRangeArray[1]);
-            // 若结束字节超出文件大小 取文件大小
-            if (endPosition > fileSize - 1) {
-                endPosition = fileSize - 1;
-            }
-
-            // 跳过之前下载的位置
-            long skip = inputStream.skip(startPosition);
-            // buffer缓冲区
-            byte[] buffer = new byte[1024];
-            // 需要读取的文件块大小
-            long chunkTotalLength = endPosition - startPosition + 1;
-            // 当前读取的总大小 和 读取到Buffer的长度
-            int currentTotalLength = 0, readBufferLength = 0;
-            // 循环读取文件并写入到response中
-            while (currentTotalLength < chunkTotalLength) {
-                // 需要读取的buffer长度
-                int readLength = (chunkTotalLength - currentTotalLength) <= buffer.length
-                        ? (int) (chunkTotalLength - currentTotalLength)
-                        : buffer.length;
-                // 从输入流中读取指定长度到Buffer中
-                readBufferLength = inputStream.read(buffer, 0, readLength);
-                // 计算当前读取到的总长度
-                currentTotalLength = currentTotalLength + readBufferLength;
-                // 将Buffer中的数据写入到response输出流中
-                outputStream.write(buffer, 0, readBufferLength);
+        // 分片下载 文件大小、修改时间和ETag从元数据缓存中获取
+        FileMetadata fileMetadata = fileMetadataService.getMetadata(file.toPath());
+        if (fileMetadata == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // 选择原文件或者预先压缩的文件 之后的字节范围、ETag都基于选择的文件
+        FileRepresentation representation = compressionService.select(file.toPath(), fileMetadata,
+                request.getParameter("encoding"), request.getHeader("Accept-Encoding"), request.getHeader("Range") != null);
+        ContentEncoding contentEncoding = representation.getEncoding();
+        long fileSize = representation.getMetadata().getSize();
+        long lastModified = representation.getMetadata().getLastModified();
+        String eTag = representation.getMetadata().getETag();
+        String fileName = file.getName();
+        String contentType = DOWNLOAD_CONTENT_TYPE;
+        if (representation.isExplicit()) {
+            // 下载压缩文件本身 不设置Content-Encoding 避免浏览器自动解压
+            fileName = fileName + contentEncoding.getSuffix();
+            contentType = contentEncoding.getContentType();
+        } else if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding.getName());
+        }
+
+        // 设置以附件的形式下载并保存到本地
+        response.addHeader("Content-Disposition", "attachment;filename=" +
+                URLEncoder.encode(fileName, StandardCharsets.UTF_8));
+        // 设置可以中断下载
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+        if (transferProperties.getCompression().isEnabled()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        // 文件没有变化时返回304(If-None-Match/If-Modified-Since)
+        long ifModifiedSince = -1;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException exception) {
+            // 日期格式错误时忽略
+        }
+        if (HttpRangeUtil.checkNotModified(request.getHeader("If-None-Match"), ifModifiedSince, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        // 获取前端的文件块范围 文件在此期间被修改(If-Range不成立)时返回整个文件
+        List<ByteRange> ranges = null;
+        long ifRangeDate = -1;
+        try {
+            ifRangeDate = request.getDateHeader("If-Range");
+        } catch (IllegalArgumentException exception) {
+            // If-Range为ETag
+        }
+        if (HttpRangeUtil.checkIfRange(request.getHeader("If-Range"), ifRangeDate, eTag, lastModified)) {
+            ranges = HttpRangeUtil.parseRanges(request.getHeader("Range"), fileSize);
+        }
+
+        // 开启限流时的限流许可 由过滤器在请求结束时关闭
+        ThrottlePermit throttlePermit = (ThrottlePermit) request.getAttribute(ThrottleService.PERMIT_ATTR);
+        long startTime = System.nanoTime();
+        try (CachedFile cachedFile = readCacheService.open(representation.getPath(), fileSize, lastModified)) {
+            if (ranges == null) {
+                // 没有Range时下载整个文件
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(contentType);
+                transferRange(cachedFile, new ByteRange(0, fileSize - 1), throttlePermit, request, response);
+            } else if (ranges.isEmpty()) {
+                // 起始位置超出文件范围
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + fileSize);
+            } else if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(contentType);
+                response.setHeader("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + fileSize);
+                transferRange(cachedFile, range, throttlePermit, request, response);
+            } else {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                transferMultipartRanges(cachedFile, ranges, contentType, throttlePermit, response);
             }
         } finally {
-            // 关闭输入 输出流
-            if (inputStream != null) {
-                inputStream.close();
+            // sendfile由Tomcat在请求处理结束后发送 不计入耗时
+            transferMetricsService.recordDownload(ranges, fileSize, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 将文件的一个字节范围写入response
+     *
+     * @param cachedFile     下载文件
+     * @param range          字节范围
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param request        web请求
+     * @param response       web响应
+     * @throws IOException IO错误
+     */
+    private void transferRange(CachedFile cachedFile, ByteRange range, ThrottlePermit throttlePermit,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Content-Length必须与实际发送的字节数一致 否则前端会一直等待
+        response.setContentLengthLong(range.getLength());
+        if (range.getLength() <= 0) {
+            return;
+        }
+
+        // 容器支持sendfile时 由Tomcat直接将文件区间写入socket 不经过用户态缓冲区 热点文件同样使用sendfile
+        // sendfile在请求处理结束、过滤器释放限流许可之后才发送 持有限流许可时(无论是否限速)不使用sendfile
+        if (throttlePermit == null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, cachedFile.getPath().toFile().getCanonicalPath());
+            request.setAttribute(SENDFILE_FILE_START_ATTR, range.getStart());
+            request.setAttribute(SENDFILE_FILE_END_ATTR, range.getEnd() + 1);
+            return;
+        }
+
+        // 否则通过读缓存写入response输出流 热点文件从内存映射的分段写入
+        WritableByteChannel outputChannel = Channels.newChannel(response.getOutputStream());
+        readCacheService.transferTo(cachedFile, range,
+                throttlePermit == null ? outputChannel : throttlePermit.throttle(outputChannel));
+    }
+
+    /**
+     * 将文件的多个字节范围以multipart/byteranges的格式写入response
+     *
+     * @param cachedFile     下载文件
+     * @param ranges         字节范围列表
+     * @param contentType    每个部分的类型
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param response       web响应
+     * @throws IOException IO错误
+     */
+    private void transferMultipartRanges(CachedFile cachedFile, List<ByteRange> ranges, String contentType,
+                                         ThrottlePermit throttlePermit, HttpServletResponse response)
+            throws IOException {
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        long fileSize = cachedFile.getSize();
+
+        // 预先生成每个部分的头 计算准确的Content-Length
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + range.getStart() + "-" + range.getEnd() + "/" + fileSize + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength = contentLength + partHeader.length + range.getLength();
+        }
+        byte[] closeBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength = contentLength + closeBoundary.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        OutputStream outputStream = response.getOutputStream();
+        WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+        if (throttlePermit != null) {
+            outputChannel = throttlePermit.throttle(outputChannel);
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            outputStream.write(partHeaders.get(i));
+            readCacheService.transferTo(cachedFile, ranges.get(i), outputChannel);
+        }
+        outputStream.write(closeBoundary);
+    }
+
+    /**
+     * 保存上传的文件块
+     *
+     * @param chunkInfo        文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @throws IOException IO错误
+     */
+    @Override
+    public void saveChunk(ChunkInfo chunkInfo, String uploadFolderPath) throws IOException {
+        saveChunk(chunkInfo, uploadFolderPath, null);
+    }
+
+    /**
+     * 保存上传的文件块 并按限流许可限制写入的带宽
+     * multipart在进入Controller之前已经由容器接收 限速的是从临时文件读取并写入文件块的过程 请求的处理时间相应延长
+     *
+     * @param chunkInfo        文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param throttlePermit   限流许可 不限流时为null
+     * @throws IOException IO错误
+     */
+    @Override
+    public void saveChunk(ChunkInfo chunkInfo, String uploadFolderPath, ThrottlePermit throttlePermit)
+            throws IOException {
+        MultipartFile multipartFile = chunkInfo.getMultipartFile();
+        if (multipartFile == null) {
+            throw new IOException("缺少文件块");
+        }
+        // 压缩的文件块按解压后的大小写入
+        long size = multipartFile.getSize();
+        if (chunkInfo.getEncoding() != null) {
+            if (chunkInfo.getCurrentChunkSize() == null || chunkInfo.getCurrentChunkSize() < 0
+                    || chunkInfo.getCurrentChunkSize() > transferProperties.getUpload().getMaxChunkSize().toBytes()) {
+                throw new IOException("文件块超出最大大小: " + chunkInfo.getChunkNumber());
+            }
+            size = chunkInfo.getCurrentChunkSize();
+        }
+        ChunkTarget chunkTarget = openChunk(chunkInfo, uploadFolderPath, size, true);
+
+        try (InputStream inputStream = multipartFile.getInputStream()) {
+            writeChunk(chunkTarget, throttlePermit == null ? inputStream : throttlePermit.throttle(inputStream));
+        } catch (IOException exception) {
+            abortChunk(chunkTarget);
+            throw exception;
+        }
+
+        commitChunk(chunkTarget);
+    }
+
+    /**
+     * 将文件块内容以流的形式写入准备好的写入位置 文件块带有encoding时边解压边写入
+     *
+     * @param chunkTarget 文件块的写入位置
+     * @param inputStream 文件块内容
+     * @throws IOException IO错误或者内容大小与currentChunkSize不一致
+     */
+    @Override
+    public void writeChunk(ChunkTarget chunkTarget, InputStream inputStream) throws IOException {
+        ChunkInfo chunkInfo = chunkTarget.getChunkInfo();
+        ContentEncoding contentEncoding = null;
+        if (chunkInfo.getEncoding() != null) {
+            contentEncoding = ContentEncoding.of(chunkInfo.getEncoding());
+            if (contentEncoding == null) {
+                throw new IOException("不支持的文件块编码: " + chunkInfo.getEncoding());
             }
-            if (outputStream != null) {
-                outputStream.close();
+            inputStream = CompressionUtil.decode(inputStream, contentEncoding);
+        }
+
+        try (ReadableByteChannel inputChannel = openChunkChannel(inputStream, chunkTarget.getChunkDigest());
+             FileChannel fileChannel = FileChannel.open(chunkTarget.getPath(), StandardOpenOption.WRITE)) {
+            // 以流的形式写入文件 不将整个文件块读入内存
+            FileUtil.transferFrom(inputChannel, fileChannel, chunkTarget.getPosition(), chunkTarget.getSize());
+            // 解压后的内容超出currentChunkSize
+            if (contentEncoding != null && inputChannel.read(ByteBuffer.allocate(1)) != -1) {
+                throw new IOException("文件块大小与currentChunkSize不一致: " + chunkInfo.getChunkNumber());
             }
         }
     }
 
+    /**
+     * 准备文件块的写入位置
+     * 文件块模式下为 文件名_序号 的临时文件 直接写入模式下为预分配的目标文件的对应位置
+     *
+     * @param chunkInfo        文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param size             文件块大小
+     * @return 文件块的写入位置
+     * @throws IOException IO错误或者文件正在合并、删除
+     */
+    @Override
+    public ChunkTarget openChunk(ChunkInfo chunkInfo, String uploadFolderPath, long size) throws IOException {
+        // 非阻塞上传不能等待锁
+        return openChunk(chunkInfo, uploadFolderPath, size, false);
+    }
+
+    /**
+     * 准备文件块的写入位置 并加上文件标识的读锁 直到提交或放弃文件块时释放
+     *
+     * @param chunkInfo        文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param size             文件块大小
+     * @param wait             是否等待正在进行的合并、删除结束 否则直接失败
+     * @return 文件块的写入位置
+     * @throws IOException IO错误或者文件正在合并、删除
+     */
+    private ChunkTarget openChunk(ChunkInfo chunkInfo, String uploadFolderPath, long size, boolean wait)
+            throws IOException {
+        checkChunkInfo(chunkInfo);
+        StampedLock lock = identifierLocks.get(chunkInfo.getIdentifier());
+        long stamp = wait ? lock.readLock() : lock.tryReadLock();
+        if (stamp == 0) {
+            throw new IOException("文件正在合并或删除: " + chunkInfo.getIdentifier());
+        }
+
+        try {
+            ChunkTarget chunkTarget = openChunk(chunkInfo, uploadFolderPath, size, lock, stamp);
+            transferMetricsService.chunkStarted();
+            return chunkTarget;
+        } catch (IOException | RuntimeException exception) {
+            lock.unlockRead(stamp);
+            throw exception;
+        }
+    }
+
+    /**
+     * 校验文件块信息 servlet和reactive上传共用 缺少字段或者取值不合法时在写入之前拒绝
+     *
+     * @param chunkInfo 文件块信息
+     * @throws IOException 文件块信息不完整或不合法
+     */
+    private void checkChunkInfo(ChunkInfo chunkInfo) throws IOException {
+        if (chunkInfo.getChunkNumber() == null || chunkInfo.getChunkSize() == null
+                || chunkInfo.getTotalSize() == null || chunkInfo.getTotalChunks() == null
+                || chunkInfo.getIdentifier() == null || chunkInfo.getFilename() == null) {
+            throw new IOException("文件块信息不完整");
+        }
+        if (chunkInfo.getChunkSize() <= 0 || chunkInfo.getTotalSize() < 0 || chunkInfo.getTotalChunks() <= 0
+                || chunkInfo.getChunkNumber() < 1 || chunkInfo.getChunkNumber() > chunkInfo.getTotalChunks()) {
+            throw new IOException("文件块信息不合法: " + chunkInfo.getChunkNumber() + "/" + chunkInfo.getTotalChunks());
+        }
+    }
+
+    private ChunkTarget openChunk(ChunkInfo chunkInfo, String uploadFolderPath, long size,
+                                  StampedLock lock, long stamp) throws IOException {
+        String folder = FileUtil.generateFolder(uploadFolderPath, chunkInfo.getIdentifier());
+        UploadSession uploadSession = getOrLoadSession(folder, chunkInfo.getFilename());
+        // 文件块大小上限由上传会话的第一个文件块确定 带协商标识时为协商结果 记录到上传日志中 服务重启后不变
+        long maxChunkSize = uploadSession.getMaxChunkSize();
+        if (maxChunkSize == 0) {
+            maxChunkSize = chunkNegotiationService.getMaxChunkSize(chunkInfo.getNegotiationId());
+            uploadSession.setMaxChunkSize(maxChunkSize);
+            uploadJournalService.chunkLimited(folder, chunkInfo.getFilename(), maxChunkSize);
+        }
+        if (size > maxChunkSize || chunkInfo.getChunkSize() != null && chunkInfo.getChunkSize() > maxChunkSize) {
+            throw new IOException("文件块超出最大大小: " + chunkInfo.getChunkNumber());
+        }
+
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        setTotalChunks(uploadSession, chunkInfo.getTotalChunks());
+        uploadSession.setChunkSize(chunkInfo.getChunkSize());
+
+        // 按文件块去重或者客户端提供了MD5时 在写入的同时计算文件块的MD5
+        MessageDigest chunkDigest = transferProperties.getDedup().isChunkEnabled() || chunkInfo.getChunkHash() != null
+                ? newMessageDigest() : null;
+
+        if (transferProperties.getUpload().getMode() == TransferProperties.UploadMode.DIRECT_WRITE) {
+            Path partPath = Paths.get(folder, chunkInfo.getFilename() + PART_SUFFIX);
+
+            // 文件块在目标文件中的位置
+            long position = (chunkInfo.getChunkNumber() - 1) * chunkInfo.getChunkSize();
+            if (position + size > chunkInfo.getTotalSize()) {
+                throw new IOException("文件块超出文件大小: " + chunkInfo.getChunkNumber());
+            }
+
+            preallocate(partPath, chunkBitmap, chunkInfo.getTotalSize());
+            return new ChunkTarget(chunkInfo, uploadSession, partPath, position, size, null, chunkDigest, lock, stamp);
+        }
+
+        // 先写入临时文件 写入完成后再重命名 避免中断的上传留下不完整的文件块
+        Path chunkPath = Paths.get(FileUtil.generatePath(uploadFolderPath, chunkInfo));
+        Path tempPath = FileUtil.createTempFile(chunkPath.getParent(), chunkPath.getFileName() + ".", TEMP_SUFFIX);
+        return new ChunkTarget(chunkInfo, uploadSession, tempPath, 0, size, chunkPath, chunkDigest, lock, stamp);
+    }
+
+    /**
+     * 文件块写入完成 校验MD5并标记文件块已上传
+     *
+     * @param chunkTarget 文件块的写入位置
+     * @throws IOException IO错误或校验失败
+     */
+    @Override
+    public void commitChunk(ChunkTarget chunkTarget) throws IOException {
+        boolean committed = false;
+        try {
+            doCommitChunk(chunkTarget);
+            committed = true;
+        } finally {
+            finishChunk(chunkTarget, committed);
+        }
+    }
+
+    private void doCommitChunk(ChunkTarget chunkTarget) throws IOException {
+        ChunkInfo chunkInfo = chunkTarget.getChunkInfo();
+        UploadSession uploadSession = chunkTarget.getUploadSession();
+        MessageDigest chunkDigest = chunkTarget.getChunkDigest();
+
+        try {
+            checkChunkHash(chunkInfo, chunkDigest);
+        } catch (IOException exception) {
+            abortChunk(chunkTarget);
+            throw exception;
+        }
+
+        // 文件块写入完成后再标记 避免中断的上传被当作已上传
+        if (chunkTarget.getChunkPath() == null) {
+            markDirectChunk(uploadSession, chunkInfo.getChunkNumber());
+        } else {
+            try {
+                Files.move(chunkTarget.getPath(), chunkTarget.getChunkPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException exception) {
+                // 重命名失败时删除临时文件 避免残留
+                abortChunk(chunkTarget);
+                throw exception;
+            }
+            uploadSession.getChunkBitmap().set(chunkInfo.getChunkNumber());
+            if (chunkDigest != null) {
+                chunkIndexService.addChunk(chunkInfo.getChunkHash(), chunkTarget.getChunkPath());
+            }
+        }
+        uploadJournalService.chunkReceived(uploadSession.getFolder(), chunkInfo);
+        advanceFileDigest(uploadSession);
+        autoMerge(uploadSession);
+    }
+
+    /**
+     * 放弃写入失败的文件块 删除文件块的临时文件
+     *
+     * @param chunkTarget 文件块的写入位置
+     */
+    @Override
+    public void abortChunk(ChunkTarget chunkTarget) {
+        try {
+            if (chunkTarget.getChunkPath() != null) {
+                Files.deleteIfExists(chunkTarget.getPath());
+            }
+        } catch (IOException exception) {
+            log.warn("删除文件块临时文件失败:{}", exception.getMessage());
+        } finally {
+            finishChunk(chunkTarget, false);
+        }
+    }
+
+    /**
+     * 释放文件标识的读锁并记录写入耗时 提交失败时会先放弃再结束 只记录一次
+     *
+     * @param chunkTarget 文件块的写入位置
+     * @param committed   是否提交成功
+     */
+    private void finishChunk(ChunkTarget chunkTarget, boolean committed) {
+        if (chunkTarget.unlock()) {
+            transferMetricsService.chunkFinished(System.nanoTime() - chunkTarget.getStartTime(),
+                    chunkTarget.getSize(), committed);
+        }
+    }
+
+    /**
+     * 补充上传会话的文件块总数
+     * 文件块模式下第一次得知文件块总数时保存只有文件块总数的位图 服务重启后重建位图时读取 合并前据此校验文件块是否完整
+     * 直接写入模式的位图在每个文件块写入后保存
+     *
+     * @param uploadSession 上传会话
+     * @param totalChunks   文件块总数
+     * @throws IOException IO错误
+     */
+    private void setTotalChunks(UploadSession uploadSession, int totalChunks) throws IOException {
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        if (chunkBitmap.getTotalChunks() != 0 || totalChunks <= 0) {
+            return;
+        }
+        synchronized (chunkBitmap) {
+            if (chunkBitmap.getTotalChunks() != 0) {
+                return;
+            }
+            // 两种模式都先保存只有文件块总数的位图 也用于清理时确认文件夹是上传会话
+            new ChunkBitmap(totalChunks).store(
+                    Paths.get(uploadSession.getFolder(), uploadSession.getFilename() + BITMAP_SUFFIX));
+            chunkBitmap.setTotalChunks(totalChunks);
+        }
+    }
+
+    /**
+     * 直接写入模式 第一个到达的文件块按文件总大小预分配目标文件
+     *
+     * @param partPath    预分配的目标文件路径
+     * @param chunkBitmap 文件块位图
+     * @param totalSize   文件总大小
+     * @throws IOException IO错误
+     */
+    private void preallocate(Path partPath, ChunkBitmap chunkBitmap, long totalSize) throws IOException {
+        synchronized (chunkBitmap) {
+            if (!Files.exists(partPath)) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(partPath.toFile(), "rw")) {
+                    randomAccessFile.setLength(totalSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * 直接写入模式 标记文件块已写入并保存位图
+     *
+     * @param uploadSession 上传会话
+     * @param chunkNumber   文件块序号
+     * @throws IOException IO错误
+     */
+    private void markDirectChunk(UploadSession uploadSession, int chunkNumber) throws IOException {
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        synchronized (chunkBitmap) {
+            chunkBitmap.set(chunkNumber);
+            chunkBitmap.store(Paths.get(uploadSession.getFolder(), uploadSession.getFilename() + BITMAP_SUFFIX));
+        }
+    }
+
+    /**
+     * 打开文件块的输入通道 需要时在读取的同时计算MD5
+     *
+     * @param inputStream 文件块内容
+     * @param chunkDigest 文件块MD5 不需要计算时为null
+     * @return 输入通道
+     */
+    private ReadableByteChannel openChunkChannel(InputStream inputStream, MessageDigest chunkDigest) {
+        return Channels.newChannel(chunkDigest == null ? inputStream : new DigestInputStream(inputStream, chunkDigest));
+    }
+
+    /**
+     * 校验客户端提供的文件块MD5 并将计算的MD5保存至文件块信息中
+     *
+     * @param chunkInfo   文件块信息
+     * @param chunkDigest 文件块MD5 不需要计算时为null
+     * @throws IOException 校验失败
+     */
+    private void checkChunkHash(ChunkInfo chunkInfo, MessageDigest chunkDigest) throws IOException {
+        if (chunkDigest == null) {
+            return;
+        }
+
+        String chunkHash = FileUtil.toHex(chunkDigest.digest());
+        if (chunkInfo.getChunkHash() != null && !chunkInfo.getChunkHash().equalsIgnoreCase(chunkHash)) {
+            throw new IOException("文件块校验失败: " + chunkInfo.getChunkNumber());
+        }
+        chunkInfo.setChunkHash(chunkHash);
+    }
+
+    /**
+     * 根据文件块MD5复用服务器上已有的文件块
+     *
+     * @param chunkHashInfo    文件块MD5信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @return 已上传(包括复用)的文件块列表
+     * @throws IOException IO错误
+     */
+    @Override
+    public List<Integer> reuseChunks(ChunkHashInfo chunkHashInfo, String uploadFolderPath) throws IOException {
+        // 与上传文件块相同 持有文件标识的读锁
+        StampedLock lock = identifierLocks.get(chunkHashInfo.getIdentifier());
+        long stamp = lock.readLock();
+        try {
+            return doReuseChunks(chunkHashInfo, uploadFolderPath);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Integer> doReuseChunks(ChunkHashInfo chunkHashInfo, String uploadFolderPath) throws IOException {
+        String folder = FileUtil.generateFolder(uploadFolderPath, chunkHashInfo.getIdentifier());
+        UploadSession uploadSession = getOrLoadSession(folder, chunkHashInfo.getFilename());
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        setTotalChunks(uploadSession, chunkHashInfo.getTotalChunks());
+        uploadSession.setChunkSize(chunkHashInfo.getChunkSize());
+        boolean directWrite = transferProperties.getUpload().getMode() == TransferProperties.UploadMode.DIRECT_WRITE;
+        Path partPath = Paths.get(folder, chunkHashInfo.getFilename() + PART_SUFFIX);
+
+        List<String> chunkHashes = chunkHashInfo.getChunkHashes();
+        for (int i = 0; i < chunkHashes.size() && i < chunkHashInfo.getTotalChunks(); i++) {
+            int chunkNumber = i + 1;
+            Path storedChunk = chunkIndexService.getChunk(chunkHashes.get(i));
+            if (chunkBitmap.get(chunkNumber) || storedChunk == null) {
+                continue;
+            }
+
+            // 文件块大小必须与该位置的文件块一致
+            long position = (chunkNumber - 1) * chunkHashInfo.getChunkSize();
+            long size = Math.min(chunkHashInfo.getChunkSize(), chunkHashInfo.getTotalSize() - position);
+            if (Files.size(storedChunk) != size) {
+                continue;
+            }
+
+            ChunkInfo chunkInfo = new ChunkInfo();
+            chunkInfo.setIdentifier(chunkHashInfo.getIdentifier());
+            chunkInfo.setFilename(chunkHashInfo.getFilename());
+            chunkInfo.setChunkNumber(chunkNumber);
+            chunkInfo.setChunkSize(chunkHashInfo.getChunkSize());
+            chunkInfo.setCurrentChunkSize(size);
+            chunkInfo.setTotalSize(chunkHashInfo.getTotalSize());
+            chunkInfo.setTotalChunks(chunkHashInfo.getTotalChunks());
+            chunkInfo.setChunkHash(chunkHashes.get(i));
+
+            if (directWrite) {
+                // 将已有的文件块拷贝至目标文件的对应位置
+                preallocate(partPath, chunkBitmap, chunkHashInfo.getTotalSize());
+                try (FileChannel storedChannel = FileChannel.open(storedChunk, StandardOpenOption.READ);
+                     FileChannel fileChannel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+                    FileUtil.transferFrom(storedChannel, fileChannel, position, size);
+                }
+                markDirectChunk(uploadSession, chunkNumber);
+            } else {
+                // 直接链接已有的文件块
+                try {
+                    Files.createLink(Paths.get(FileUtil.generatePath(uploadFolderPath, chunkInfo)), storedChunk);
+                } catch (FileAlreadyExistsException exception) {
+                    // 文件块已经存在
+                }
+                chunkBitmap.set(chunkNumber);
+            }
+            uploadJournalService.chunkReceived(folder, chunkInfo);
+        }
+        advanceFileDigest(uploadSession);
+        autoMerge(uploadSession);
+
+        return chunkBitmap.toList();
+    }
+
+    /**
+     * 所有文件块都已上传时立即在后台合并 前端无需等待mergeFile请求
+     * 合并任务按文件去重 之后的mergeFile请求返回同一个任务(或者已经合并完成的结果)
+     *
+     * @param uploadSession 上传会话
+     */
+    private void autoMerge(UploadSession uploadSession) {
+        if (!transferProperties.getMerge().isAutoMerge() || !uploadSession.getChunkBitmap().isComplete()) {
+            return;
+        }
+
+        String localFolder = uploadSession.getFolder();
+        String localFile = Paths.get(localFolder, uploadSession.getFilename()).toString();
+        try {
+            mergeJobService.submitMerge(localFile, localFolder, uploadSession.getFilename());
+        } catch (RejectedExecutionException exception) {
+            // 等待前端的mergeFile请求再合并
+            log.warn("合并队列已满 文件{}等待mergeFile请求", uploadSession.getFilename());
+        }
+    }
+
+    /**
+     * 按文件块顺序增量计算文件标识的MD5
+     * 文件标识由前端计算 为除最后一个文件块以外所有文件块的MD5(只有一个文件块时为整个文件的MD5)
+     * 刚写入的文件块仍在页缓存中 合并时无需再读取整个文件 去重时再加上最后一个文件块即为整个文件的MD5
+     *
+     * @param uploadSession 上传会话
+     */
+    private void advanceFileDigest(UploadSession uploadSession) {
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        int totalChunks = chunkBitmap.getTotalChunks();
+        if (!transferProperties.getVerify().isEnabled() && !transferProperties.getDedup().isEnabled()
+                || totalChunks == 0) {
+            return;
+        }
+
+        // 参与计算文件标识的文件块个数
+        int digestChunks = Math.max(totalChunks - 1, 1);
+        Path partPath = Paths.get(uploadSession.getFolder(), uploadSession.getFilename() + PART_SUFFIX);
+        synchronized (uploadSession) {
+            if (uploadSession.getFileDigest() == null) {
+                uploadSession.setFileDigest(newMessageDigest());
+            }
+            try {
+                while (uploadSession.getDigestedChunks() < digestChunks
+                        && chunkBitmap.get(uploadSession.getDigestedChunks() + 1)) {
+                    int chunkNumber = uploadSession.getDigestedChunks() + 1;
+                    if (Files.exists(partPath)) {
+                        // 直接写入模式 从目标文件中读取对应的文件块
+                        long chunkSize = uploadSession.getChunkSize();
+                        if (chunkSize == 0) {
+                            return;
+                        }
+                        long size = totalChunks == 1 ? Files.size(partPath) : chunkSize;
+                        updateDigest(uploadSession.getFileDigest(), partPath, (chunkNumber - 1) * chunkSize, size);
+                    } else {
+                        Path chunkPath = Paths.get(uploadSession.getFolder(),
+                                uploadSession.getFilename() + FILE_SEPARATOR + chunkNumber);
+                        updateDigest(uploadSession.getFileDigest(), chunkPath, 0, Files.size(chunkPath));
+                    }
+                    uploadSession.setDigestedChunks(chunkNumber);
+                }
+            } catch (IOException exception) {
+                log.error("计算文件MD5失败: {}", exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 将文件的指定区间加入MD5计算
+     *
+     * @param messageDigest MD5
+     * @param path          文件路径
+     * @param position      起始位置
+     * @param size          区间大小
+     * @throws IOException IO错误
+     */
+    private void updateDigest(MessageDigest messageDigest, Path path, long position, long size) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (size > 0) {
+                messageDigest.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, position, size));
+            }
+        }
+    }
+
+    /**
+     * 在文件标识的增量MD5的基础上加上最后一个文件块 得到整个文件内容的MD5 同时计算文件标识部分和最后一个文件块的MD5
+     * 必须在文件块合并或者重命名之前调用
+     *
+     * @param uploadSession 上传会话
+     * @return 文件内容摘要 未开启去重或者缺少文件块信息时为null
+     */
+    private ContentDigest getContentDigest(UploadSession uploadSession) {
+        if (!transferProperties.getDedup().isEnabled()) {
+            return null;
+        }
+
+        advanceFileDigest(uploadSession);
+        ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+        int totalChunks = chunkBitmap.getTotalChunks();
+        synchronized (uploadSession) {
+            if (!chunkBitmap.isComplete() || uploadSession.getDigestedChunks() < Math.max(totalChunks - 1, 1)) {
+                log.warn("文件{}缺少文件块信息 不进行去重", uploadSession.getFilename());
+                return null;
+            }
+
+            try {
+                MessageDigest fileDigest = (MessageDigest) uploadSession.getFileDigest().clone();
+                String identifierDigest = FileUtil.toHex(((MessageDigest) fileDigest.clone()).digest());
+                MessageDigest lastChunkDigest = newMessageDigest();
+
+                Path partPath = Paths.get(uploadSession.getFolder(), uploadSession.getFilename() + PART_SUFFIX);
+                Path lastChunkPath;
+                long position;
+                long size;
+                if (Files.exists(partPath)) {
+                    // 直接写入模式 最后一个文件块为目标文件的剩余部分
+                    lastChunkPath = partPath;
+                    position = (totalChunks - 1) * uploadSession.getChunkSize();
+                    size = Files.size(partPath) - position;
+                } else {
+                    lastChunkPath = Paths.get(uploadSession.getFolder(),
+                            uploadSession.getFilename() + FILE_SEPARATOR + totalChunks);
+                    position = 0;
+                    size = Files.size(lastChunkPath);
+                }
+                updateDigest(lastChunkDigest, lastChunkPath, position, size);
+                // 只有一个文件块时文件标识已经包括了整个文件
+                if (totalChunks > 1) {
+                    updateDigest(fileDigest, lastChunkPath, position, size);
+                }
+                return new ContentDigest(FileUtil.toHex(fileDigest.digest()), identifierDigest,
+                        FileUtil.toHex(lastChunkDigest.digest()));
+            } catch (CloneNotSupportedException exception) {
+                throw new IllegalStateException(exception);
+            } catch (IOException exception) {
+                log.error("计算文件MD5失败: {}", exception.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 校验文件内容与文件标识是否一致
+     *
+     * @param uploadSession 上传会话
+     * @param identifier    文件标识
+     * @return 是否一致 无法校验时返回true
+     */
+    private boolean verifyFileDigest(UploadSession uploadSession, String identifier) {
+        if (!transferProperties.getVerify().isEnabled()) {
+            return true;
+        }
+
+        advanceFileDigest(uploadSession);
+        int totalChunks = uploadSession.getChunkBitmap().getTotalChunks();
+        synchronized (uploadSession) {
+            if (totalChunks == 0 || uploadSession.getDigestedChunks() < Math.max(totalChunks - 1, 1)) {
+                log.warn("文件{}缺少文件块信息 无法校验", uploadSession.getFilename());
+                return true;
+            }
+
+            try {
+                // 复制一份再计算 合并失败重试时仍可使用
+                MessageDigest fileDigest = (MessageDigest) uploadSession.getFileDigest().clone();
+                return FileUtil.toHex(fileDigest.digest()).equalsIgnoreCase(identifier);
+            } catch (CloneNotSupportedException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+    }
+
+    /**
+     * 获取上传会话 不存在时从磁盘重建
+     *
+     * @param folder   文件块所在文件夹
+     * @param filename 文件名
+     * @return 上传会话
+     * @throws IOException 重建失败
+     */
+    private UploadSession getOrLoadSession(String folder, String filename) throws IOException {
+        try {
+            return uploadSessionService.getOrLoadSession(folder, filename, () -> loadChunkBitmap(folder, filename));
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * 从磁盘重建文件块位图 只在服务启动后第一次访问该文件时执行
+     *
+     * @param folder   文件块所在文件夹
+     * @param filename 文件名
+     * @return 文件块位图
+     */
+    private ChunkBitmap loadChunkBitmap(String folder, String filename) {
+        try {
+            // 直接写入模式 读取保存的位图
+            Path bitmapPath = Paths.get(folder, filename + BITMAP_SUFFIX);
+            if (Files.exists(bitmapPath) && Files.exists(Paths.get(folder, filename + PART_SUFFIX))) {
+                return ChunkBitmap.load(bitmapPath);
+            }
+
+            // 遍历文件夹下的文件块 文件块总数从文件块模式保存的位图中读取 没有时为未知
+            ChunkBitmap chunkBitmap = new ChunkBitmap(Files.exists(bitmapPath)
+                    ? ChunkBitmap.load(bitmapPath).getTotalChunks() : 0);
+            try (Stream<Path> list = Files.list(Paths.get(folder))) {
+                // 去除需要合并的文件和上传中的临时文件
+                list.filter(path -> !path.getFileName().toString().equals(filename))
+                        .mapToInt(path -> FileUtil.getChunkNumber(path.getFileName().toString()))
+                        .filter(chunkNumber -> chunkNumber > 0)
+                        .forEach(chunkBitmap::setUnchecked);
+            }
+            return chunkBitmap;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * 验证文件是否已经上传 获取已经上传的文件块
+     *
+     * @param identifier       文件标识
+     * @param filename         文件名
+     * @param uploadFolderPath 上传文件夹路径
+     * @return 文件块验证结果
+     */
+    @Override
+    public ChunkResult checkChunk(String identifier, String filename, String uploadFolderPath,
+                                  String lastChunkHash, Long totalSize) {
+        long startTime = System.nanoTime();
+        try {
+            return doCheckChunk(identifier, filename, uploadFolderPath, lastChunkHash, totalSize);
+        } finally {
+            transferMetricsService.recordCheck(System.nanoTime() - startTime);
+        }
+    }
+
+    private ChunkResult doCheckChunk(String identifier, String filename, String uploadFolderPath,
+                                     String lastChunkHash, Long totalSize) {
+        ChunkResult chunkResult = new ChunkResult();
+        List<Integer> uploadedChunkList = new ArrayList<>();
+
+        String folder = uploadFolderPath + File.separator + identifier;
+        String file = folder + File.separator + filename;
+
+        // 正在上传的文件 直接从内存中获取已经上传的文件块 无需访问磁盘
+        UploadSession uploadSession = uploadSessionService.getSession(folder, filename);
+        if (uploadSession != null) {
+            chunkResult.setSkipUpload(false);
+            chunkResult.setUploadedChunkList(uploadSession.getChunkBitmap().toList());
+            return chunkResult;
+        }
+
+        // 先判断整个文件是否已经上传过了，如果是，则告诉前端跳过上传，实现秒传
+        // 其他文件名上传过相同内容时直接链接 文件标识不包括最后一个文件块 需要同时匹配最后一个文件块的MD5和文件大小
+        if (fileExists(file)) {
+            chunkResult.setSkipUpload(true);
+            chunkResult.setUploadedChunkList(uploadedChunkList);
+            log.info("完整文件已存在，直接跳过上传，实现秒传");
+        } else if (linkBlob(identifier, file, lastChunkHash, totalSize)) {
+            chunkResult.setSkipUpload(true);
+            chunkResult.setUploadedChunkList(uploadedChunkList);
+            log.info("相同内容的文件已存在，直接链接，实现秒传");
+        } else if (fileExists(folder)) {
+            chunkResult.setSkipUpload(false);
+            // 获取已经上传的文件块
+            chunkResult.setUploadedChunkList(getUploadedChunkList(folder, filename));
+        } else {
+            chunkResult.setSkipUpload(false);
+            chunkResult.setUploadedChunkList(uploadedChunkList);
+        }
+
+        return chunkResult;
+    }
+
+    /**
+     * 将服务器上已有的相同内容链接到目标文件
+     * 加上文件标识的写锁 与正在进行的上传、合并和删除互斥 无法立即获得时不链接 按普通上传处理
+     *
+     * @param identifier    文件标识
+     * @param file          目标文件
+     * @param lastChunkHash 最后一个文件块的MD5
+     * @param totalSize     文件大小
+     * @return 是否链接成功
+     */
+    private boolean linkBlob(String identifier, String file, String lastChunkHash, Long totalSize) {
+        if (lastChunkHash == null || totalSize == null) {
+            return false;
+        }
+        StampedLock lock = identifierLocks.get(identifier);
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            return false;
+        }
+        try {
+            return blobStoreService.linkBlob(identifier, lastChunkHash, totalSize, Paths.get(file));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除当前已上传的文件块
+     *
+     * @param identifier       文件标识
+     * @param uploadFolderPath 上传文件夹路径
+     */
+    @Override
+    public void deleteChunk(String identifier, String uploadFolderPath) {
+        String folder = uploadFolderPath + File.separator + identifier;
+        long startTime = System.nanoTime();
+
+        // 等待正在写入的文件块完成 删除期间不再接收新的文件块
+        StampedLock lock = identifierLocks.get(identifier);
+        long stamp = lock.writeLock();
+        try {
+            // 判断文件夹是否存在
+            if (fileExists(folder)) {
+                FileUtil.deleteDirectory(folder);
+            }
+            uploadSessionService.removeSessions(folder);
+            uploadJournalService.sessionDeleted(folder);
+        } finally {
+            lock.unlockWrite(stamp);
+            transferMetricsService.recordDelete(System.nanoTime() - startTime);
+        }
+    }
+
+    @Override
+    public ChunkUsage getChunkUsage(String folder) throws IOException {
+        List<Path> debris = listChunkDebris(Paths.get(folder));
+        if (debris.isEmpty()) {
+            return null;
+        }
+
+        long bytes = 0;
+        long lastModified = 0;
+        for (Path path : debris) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                bytes = bytes + attributes.size();
+                lastModified = Math.max(lastModified, attributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException exception) {
+                // 统计期间文件块已经被合并或删除
+            }
+        }
+        return new ChunkUsage(folder, debris.size(), bytes, lastModified);
+    }
+
+    @Override
+    public long sweepChunks(ChunkUsage chunkUsage, TokenBucket deleteLimiter) throws IOException {
+        Path folder = Paths.get(chunkUsage.getFolder());
+
+        // 正在上传或合并时跳过 不等待锁 避免阻塞清理线程
+        StampedLock lock = identifierLocks.get(folder.getFileName().toString());
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            return -1;
+        }
+        try {
+            // 统计之后又收到了文件块 说明上传没有被放弃
+            ChunkUsage currentUsage = getChunkUsage(chunkUsage.getFolder());
+            if (currentUsage == null || currentUsage.getLastModified() > chunkUsage.getLastModified()) {
+                return -1;
+            }
+
+            // 逐个删除 每个文件获取一个令牌 限制删除产生的磁盘IO
+            long reclaimedBytes = 0;
+            for (Path path : listChunkDebris(folder)) {
+                deleteLimiter.acquire(1);
+                try {
+                    long size = Files.size(path);
+                    Files.delete(path);
+                    reclaimedBytes = reclaimedBytes + size;
+                } catch (NoSuchFileException exception) {
+                    // 已经被删除
+                }
+            }
+            uploadSessionService.removeSessions(chunkUsage.getFolder());
+            uploadJournalService.sessionDeleted(chunkUsage.getFolder());
+
+            // 文件夹中只有残留文件时一并删除 保留合并完成的文件
+            try {
+                Files.deleteIfExists(folder);
+            } catch (DirectoryNotEmptyException exception) {
+                // 文件夹中还有合并完成的文件
+            }
+            return reclaimedBytes;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 列出文件夹中的上传残留文件: 文件块 临时文件 预分配文件和位图
+     * 只清理能确认是上传会话的文件: 文件夹中有该文件的位图 或者有该文件的上传会话(包括从上传日志恢复的会话)
+     * uploadFolderPath由前端指定 其中可能有用户自己的文件 即使命名与文件块相同也不会被当作残留文件
+     *
+     * @param folder 文件块所在文件夹
+     * @return 残留文件 文件夹不存在或者不是上传会话时为空
+     * @throws IOException 读取文件夹失败
+     */
+    private List<Path> listChunkDebris(Path folder) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(folder)) {
+            files = list.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (NoSuchFileException exception) {
+            return new ArrayList<>();
+        }
+
+        // 正在上传的文件名 位图在第一个文件块到达时写入 早于其他残留文件
+        Set<String> filenames = new HashSet<>();
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(BITMAP_SUFFIX)) {
+                filenames.add(name.substring(0, name.length() - BITMAP_SUFFIX.length()));
+            }
+        }
+        Path normalizedFolder = folder.toAbsolutePath().normalize();
+        for (UploadSession uploadSession : uploadSessionService.getSessions()) {
+            if (Paths.get(uploadSession.getFolder()).toAbsolutePath().normalize().equals(normalizedFolder)) {
+                filenames.add(uploadSession.getFilename());
+            }
+        }
+
+        List<Path> debris = new ArrayList<>();
+        if (filenames.isEmpty()) {
+            return debris;
+        }
+        for (Path path : files) {
+            String filename = getDebrisFilename(path.getFileName().toString());
+            if (filename != null && filenames.contains(filename)) {
+                debris.add(path);
+            }
+        }
+        return debris;
+    }
+
+    /**
+     * 根据上传残留文件的命名获取其所属的文件名
+     * 文件名_序号 文件名_序号.随机数.tmp 文件名.随机数.merging 文件名.part 文件名.chunks
+     *
+     * @param name 文件名称
+     * @return 所属的文件名 不符合残留文件的命名时返回null
+     */
+    private static String getDebrisFilename(String name) {
+        if (name.endsWith(PART_SUFFIX) || name.endsWith(BITMAP_SUFFIX)) {
+            return name.substring(0, name.lastIndexOf('.'));
+        }
+        if (name.endsWith(TEMP_SUFFIX) || name.endsWith(MERGING_SUFFIX)) {
+            String prefix = name.substring(0, name.lastIndexOf('.'));
+            int index = prefix.lastIndexOf('.');
+            if (index < 0 || !isNumber(prefix.substring(index + 1))) {
+                return null;
+            }
+            prefix = prefix.substring(0, index);
+            return name.endsWith(TEMP_SUFFIX) ? getChunkFilename(prefix) : prefix;
+        }
+        return getChunkFilename(name);
+    }
+
+    private static String getChunkFilename(String name) {
+        return FileUtil.getChunkNumber(name) > 0 ? name.substring(0, name.lastIndexOf(FILE_SEPARATOR)) : null;
+    }
+
+    private static boolean isNumber(String value) {
+        return !value.isEmpty() && value.chars().allMatch(Character::isDigit);
+    }
+
     /**
      * 获取已经上传的文件块列表
      *
@@ -113,23 +1237,12 @@ public class ChunkServiceImpl implements ChunkService {
      * @return 已上传的文件块列表
      */
     public List<Integer> getUploadedChunkList(String folder, String filename) {
-        List<Integer> uploadedChunkList = new ArrayList<>();
-
-        // 获取文件夹下所有的文件
-        try (Stream<Path> list = Files.list(Paths.get(folder))) {
-            // 去除需要合并的文件
-            list.filter(path -> !path.getFileName().toString().equals(filename))
-                    // 循环遍历文件 将已经上传的文件序号添加至列表中
-                    .forEach(path -> {
-                        String chunkPath = path.getFileName().toString();
-                        int index = chunkPath.lastIndexOf(fileSeparator);
-                        uploadedChunkList.add(Integer.valueOf(chunkPath.substring(index + 1)));
-                    });
-        } catch (Exception exception) {
+        try {
+            return getOrLoadSession(folder, filename).getChunkBitmap().toList();
+        } catch (IOException exception) {
             log.error("获取文件块失败: {}", exception.getMessage());
+            return new ArrayList<>();
         }
-
-        return uploadedChunkList;
     }
 
     /**
@@ -140,46 +1253,213 @@ public class ChunkServiceImpl implements ChunkService {
      * @param uploadFilename 上传的文件名
      * @return 是否合并成功
      */
+    @Override
     public boolean mergeFile(String localFile, String localFolder, String uploadFilename) {
+        return mergeFile(localFile, localFolder, uploadFilename, null);
+    }
+
+    /**
+     * 合并文件 并将合并进度记录到合并任务中
+     *
+     * @param localFile      本地文件名
+     * @param localFolder    本地文件夹
+     * @param uploadFilename 上传的文件名
+     * @param mergeJob       合并任务 不需要记录进度时为null
+     * @return 是否合并成功
+     */
+    @Override
+    public boolean mergeFile(String localFile, String localFolder, String uploadFilename, MergeJob mergeJob) {
+        // 文件夹名即为文件标识
+        String identifier = Paths.get(localFolder).getFileName().toString();
+
+        // 等待正在写入的文件块完成 合并期间不再接收新的文件块
+        long startTime = System.nanoTime();
+        boolean merged = false;
+        StampedLock lock = identifierLocks.get(identifier);
+        long stamp = lock.writeLock();
+        try {
+            merged = doMergeFile(localFile, localFolder, uploadFilename, identifier, mergeJob);
+            return merged;
+        } finally {
+            lock.unlockWrite(stamp);
+            transferMetricsService.recordMerge(System.nanoTime() - startTime,
+                    merged ? new File(localFile).length() : 0, merged);
+        }
+    }
+
+    private boolean doMergeFile(String localFile, String localFolder, String uploadFilename, String identifier,
+                                MergeJob mergeJob) {
         // 判断文件是否存在
         if (fileExists(localFile)) {
             log.info("需要合并的文件{}已经存在", uploadFilename);
+            reportMerged(mergeJob, new File(localFile).length());
             return true;
         }
 
+        uploadJournalService.mergeStarted(localFolder, uploadFilename);
         try {
-            // 不存在的话，进行合并
-            Files.createFile(Paths.get(localFile));
-
-            // 获取文件夹下所有的文件
-            try (Stream<Path> list = Files.list(Paths.get(localFolder))) {
-                // 去除需要合并的文件
-                list.filter(path -> !path.getFileName().toString().equals(uploadFilename))
-                        // 按照文件名排序
-                        .sorted((o1, o2) -> {
-                            String p1 = o1.getFileName().toString();
-                            String p2 = o2.getFileName().toString();
-                            int i1 = p1.lastIndexOf(fileSeparator);
-                            int i2 = p2.lastIndexOf(fileSeparator);
-                            return Integer.valueOf(p1.substring(i1 + 1))
-                                    .compareTo(Integer.valueOf(p2.substring(i2 + 1)));
-                        })
-                        // 循环写入到文件中
-                        .forEach(path -> {
-                            try {
-                                // 以追加的形式写入文件
-                                Files.write(Paths.get(localFile), Files.readAllBytes(path), StandardOpenOption.APPEND);
-                                // 合并后删除该块
-                                Files.delete(path);
-                            } catch (IOException exception) {
-                                log.error("写入文件失败: " + exception.getMessage());
-                            }
-                        });
+            // 校验文件内容
+            UploadSession uploadSession = getOrLoadSession(localFolder, uploadFilename);
+            if (!verifyFileDigest(uploadSession, identifier)) {
+                log.error("文件{}内容与文件标识{}不一致", uploadFilename, identifier);
+                return false;
             }
+            // 按上传会话的文件块总数校验 文件块总数未知(服务重启且没有位图)时同样视为未全部上传
+            ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+            if (!chunkBitmap.isComplete()) {
+                log.error("文件块未全部上传: {}/{}", chunkBitmap.cardinality(), chunkBitmap.getTotalChunks());
+                return false;
+            }
+            // 文件内容摘要 在文件块合并或者重命名之前计算 用于去重和秒传
+            ContentDigest contentDigest = getContentDigest(uploadSession);
+
+            // 直接写入模式 所有文件块都已写入目标文件 只需重命名
+            Path partPath = Paths.get(localFolder, uploadFilename + PART_SUFFIX);
+            if (Files.exists(partPath)) {
+                long totalSize = Files.size(partPath);
+                Files.move(partPath, Paths.get(localFile), StandardCopyOption.ATOMIC_MOVE);
+                reportMerged(mergeJob, totalSize);
+            } else {
+                // 不存在的话，进行合并
+                mergeChunkFiles(Paths.get(localFile), Paths.get(localFolder), uploadFilename,
+                        chunkBitmap.getTotalChunks(), mergeJob);
+            }
+            Files.deleteIfExists(Paths.get(localFolder, uploadFilename + BITMAP_SUFFIX));
+
+            uploadSessionService.removeSession(localFolder, uploadFilename);
+            uploadJournalService.mergeCompleted(localFolder, uploadFilename);
+            blobStoreService.storeBlob(contentDigest, new File(localFile).length(), Paths.get(localFile));
             return true;
         } catch (IOException exception) {
             log.error("文件合并失败: {}", exception.getMessage());
             return false;
         }
     }
+
+    /**
+     * 将文件块并行写入目标文件
+     * 每个文件块在目标文件中的位置预先计算 各文件块之间互不影响 利用FileChannel.transferFrom直接在内核中拷贝
+     *
+     * @param localFile      本地文件
+     * @param localFolder    本地文件夹
+     * @param uploadFilename 上传的文件名
+     * @param totalChunks    文件块总数
+     * @param mergeJob       合并任务 不需要记录进度时为null
+     * @throws IOException IO错误或文件块不完整
+     */
+    private void mergeChunkFiles(Path localFile, Path localFolder, String uploadFilename, int totalChunks,
+                                 MergeJob mergeJob) throws IOException {
+        long startTime = System.nanoTime();
+
+        // 获取文件夹下所有的文件块 按照文件块序号排序
+        TreeMap<Integer, Path> chunkPaths = new TreeMap<>();
+        try (Stream<Path> list = Files.list(localFolder)) {
+            // 去除需要合并的文件和上传中的临时文件
+            list.filter(path -> !path.getFileName().toString().equals(uploadFilename))
+                    .forEach(path -> {
+                        int chunkNumber = FileUtil.getChunkNumber(path.getFileName().toString());
+                        if (chunkNumber > 0) {
+                            chunkPaths.put(chunkNumber, path);
+                        }
+                    });
+        }
+        // 文件块序号必须从1开始连续 并且与文件块总数一致
+        if (chunkPaths.size() != totalChunks || chunkPaths.lastKey() != totalChunks) {
+            throw new IOException("文件块不完整: " + chunkPaths.keySet() + "/" + totalChunks);
+        }
+
+        // 计算每个文件块在目标文件中的位置
+        long[] positions = new long[chunkPaths.size()];
+        long[] sizes = new long[chunkPaths.size()];
+        long totalSize = 0;
+        for (Map.Entry<Integer, Path> entry : chunkPaths.entrySet()) {
+            int index = entry.getKey() - 1;
+            positions[index] = totalSize;
+            sizes[index] = Files.size(entry.getValue());
+            totalSize = totalSize + sizes[index];
+        }
+        if (mergeJob != null) {
+            mergeJob.setTotalBytes(totalSize);
+        }
+
+        // 先写入临时文件 合并完成后再重命名 避免未合并完成的文件被当作已上传
+        Path mergingPath = FileUtil.createTempFile(localFolder, uploadFilename + ".", MERGING_SUFFIX);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(mergingPath.toFile(), "rw")) {
+            randomAccessFile.setLength(totalSize);
+            FileChannel targetChannel = randomAccessFile.getChannel();
+
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[positions.length];
+            for (Map.Entry<Integer, Path> entry : chunkPaths.entrySet()) {
+                int index = entry.getKey() - 1;
+                futures[index] = CompletableFuture.runAsync(() ->
+                        transferChunk(entry.getValue(), targetChannel, positions[index], sizes[index], mergeJob),
+                        mergeExecutor);
+            }
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException exception) {
+            Files.deleteIfExists(mergingPath);
+            throw exception.getCause() instanceof UncheckedIOException
+                    ? ((UncheckedIOException) exception.getCause()).getCause()
+                    : new IOException(exception.getCause());
+        } catch (IOException exception) {
+            Files.deleteIfExists(mergingPath);
+            throw exception;
+        }
+
+        Files.move(mergingPath, localFile, StandardCopyOption.ATOMIC_MOVE);
+        // 合并后删除文件块
+        for (Path chunkPath : chunkPaths.values()) {
+            Files.deleteIfExists(chunkPath);
+        }
+
+        long costMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), 1);
+        log.info("文件{}合并完成: {}个文件块 {}字节 耗时{}ms 速度{}MB/s", uploadFilename, chunkPaths.size(),
+                totalSize, costMillis, totalSize * 1000 / costMillis / 1024 / 1024);
+    }
+
+    /**
+     * 将文件块写入目标文件的指定位置
+     *
+     * @param chunkPath     文件块路径
+     * @param targetChannel 目标文件通道
+     * @param position      写入的起始位置
+     * @param size          文件块大小
+     * @param mergeJob      合并任务 不需要记录进度时为null
+     */
+    private void transferChunk(Path chunkPath, FileChannel targetChannel, long position, long size, MergeJob mergeJob) {
+        try (FileChannel chunkChannel = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+            // 分段写入 每段写入后更新合并进度
+            for (long offset = 0; offset < size; offset = offset + MERGE_PROGRESS_STEP) {
+                long count = Math.min(MERGE_PROGRESS_STEP, size - offset);
+                chunkChannel.position(offset);
+                FileUtil.transferFrom(chunkChannel, targetChannel, position + offset, count);
+                if (mergeJob != null) {
+                    mergeJob.addMergedBytes(count);
+                }
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * 不需要拷贝的合并(文件已存在或直接写入模式) 直接记录为全部合并
+     *
+     * @param mergeJob  合并任务 不需要记录进度时为null
+     * @param totalSize 文件大小
+     */
+    private void reportMerged(MergeJob mergeJob, long totalSize) {
+        if (mergeJob != null) {
+            mergeJob.setTotalBytes(totalSize);
+            mergeJob.addMergedBytes(totalSize);
+        }
+    }
+
+    private MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
 }
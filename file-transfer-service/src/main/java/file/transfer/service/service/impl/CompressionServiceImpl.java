@@ -0,0 +1,249 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ContentEncoding;
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+import file.transfer.service.service.CompressionService;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.utils.CompressionUtil;
+import file.transfer.service.utils.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 下载文件的压缩 每个文件版本(大小和修改时间)的每种编码只压缩一次 保存在cachePath中
+ * 压缩文件名为 原文件路径的SHA-256-大小-修改时间.后缀 原文件修改后重新压缩并删除旧版本
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class CompressionServiceImpl implements CompressionService {
+    // 读取原文件的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 压缩该大小后检查压缩率 不可压缩的文件提前放弃
+    private static final long SAMPLE_SIZE = 1024 * 1024;
+    // 压缩中的临时文件后缀
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // 压缩文件路径 -> 正在进行的压缩 不可压缩的文件保留结果为null的记录 避免重复压缩
+    private final ConcurrentMap<Path, CompletableFuture<Path>> compressions = new ConcurrentHashMap<>();
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private FileMetadataService fileMetadataService;
+
+    @Resource
+    private ExecutorService compressExecutor;
+
+    @Override
+    public FileRepresentation select(Path path, FileMetadata fileMetadata, String encoding, String acceptEncoding,
+                                     boolean ranged) throws IOException {
+        TransferProperties.Compression compression = transferProperties.getCompression();
+        FileRepresentation identity = new FileRepresentation(path, fileMetadata, null, false);
+        if (!compression.isEnabled() || fileMetadata.getSize() < compression.getMinSize().toBytes()) {
+            return identity;
+        }
+
+        // 浏览器会自动解压Content-Encoding 带Range时只能由前端显式指定
+        boolean explicit = encoding != null;
+        ContentEncoding contentEncoding = explicit ? ContentEncoding.of(encoding)
+                : ranged ? null : CompressionUtil.negotiate(acceptEncoding, compression.getEncodings());
+        if (contentEncoding == null || !CompressionUtil.isAvailable(contentEncoding)
+                || !compression.getEncodings().contains(contentEncoding.getName())) {
+            return identity;
+        }
+
+        Path encodedPath = getEncodedPath(path, fileMetadata, contentEncoding);
+        FileMetadata encodedMetadata = fileMetadataService.getMetadata(encodedPath);
+        if (encodedMetadata == null) {
+            if (!compress(path, fileMetadata, encodedPath, contentEncoding, explicit)) {
+                return identity;
+            }
+            encodedMetadata = fileMetadataService.getMetadata(encodedPath);
+            if (encodedMetadata == null) {
+                return identity;
+            }
+        }
+
+        // 修改时间与原文件一致 ETag在原文件的基础上加上编码 原文件修改后一起变化
+        String eTag = fileMetadata.getETag();
+        eTag = eTag.substring(0, eTag.length() - 1) + "-" + contentEncoding.getName() + "\"";
+        return new FileRepresentation(encodedPath,
+                new FileMetadata(encodedMetadata.getSize(), fileMetadata.getLastModified(), eTag),
+                contentEncoding, explicit);
+    }
+
+    /**
+     * 压缩文件 同一个压缩文件只压缩一次 总是在压缩线程池中执行 不占用请求线程的CPU
+     *
+     * @param path            原文件
+     * @param fileMetadata    原文件的元数据
+     * @param encodedPath     压缩文件
+     * @param contentEncoding 编码
+     * @param wait            是否等待压缩完成(最多wait-timeout) 否则只提交压缩任务
+     * @return 压缩文件是否可用
+     */
+    private boolean compress(Path path, FileMetadata fileMetadata, Path encodedPath, ContentEncoding contentEncoding,
+                             boolean wait) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> compression = compressions.putIfAbsent(encodedPath, created);
+        if (compression == null) {
+            compression = created;
+            try {
+                compressExecutor.execute(() -> compress(path, fileMetadata, encodedPath, contentEncoding, created));
+            } catch (RejectedExecutionException exception) {
+                compressions.remove(encodedPath, created);
+                return false;
+            }
+        }
+
+        long timeout = wait ? transferProperties.getCompression().getWaitTimeout().toMillis() : 0;
+        try {
+            return compression.get(timeout, TimeUnit.MILLISECONDS) != null;
+        } catch (TimeoutException exception) {
+            if (wait) {
+                log.info("等待压缩超时 返回原文件: {} {}", path, contentEncoding.getName());
+            }
+            return false;
+        } catch (ExecutionException exception) {
+            return false;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void compress(Path path, FileMetadata fileMetadata, Path encodedPath, ContentEncoding contentEncoding,
+                          CompletableFuture<Path> compression) {
+        TransferProperties.Compression config = transferProperties.getCompression();
+        int level = contentEncoding == ContentEncoding.ZSTD ? config.getZstdLevel() : config.getGzipLevel();
+        Path tempPath = null;
+        try {
+            Files.createDirectories(encodedPath.getParent());
+            tempPath = FileUtil.createTempFile(encodedPath.getParent(), encodedPath.getFileName() + ".", TEMP_SUFFIX);
+
+            boolean compressible;
+            try (InputStream inputStream = Files.newInputStream(path);
+                 FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE);
+                 OutputStream outputStream = CompressionUtil.encode(Channels.newOutputStream(fileChannel),
+                         contentEncoding, level)) {
+                compressible = copy(inputStream, outputStream, fileChannel, config.getMaxRatio());
+            }
+
+            // 压缩期间原文件被修改时放弃 下次下载时重新压缩
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            boolean modified = attributes.size() != fileMetadata.getSize()
+                    || attributes.lastModifiedTime().toMillis() != fileMetadata.getLastModified();
+            if (modified || !compressible || Files.size(tempPath) > fileMetadata.getSize() * config.getMaxRatio()) {
+                Files.delete(tempPath);
+                if (modified) {
+                    compressions.remove(encodedPath, compression);
+                }
+                compression.complete(null);
+                return;
+            }
+
+            Files.move(tempPath, encodedPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteOldVersions(encodedPath);
+            compressions.remove(encodedPath, compression);
+            compression.complete(encodedPath);
+            log.info("压缩完成: {} {} {} -> {}", path, contentEncoding.getName(), fileMetadata.getSize(),
+                    Files.size(encodedPath));
+        } catch (IOException | RuntimeException exception) {
+            log.error("压缩文件失败: {} {}", path, exception.getMessage());
+            if (tempPath != null) {
+                try {
+                    Files.deleteIfExists(tempPath);
+                } catch (IOException deleteException) {
+                    log.warn("删除临时文件失败: {}", tempPath);
+                }
+            }
+            compressions.remove(encodedPath, compression);
+            compression.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * 将原文件写入压缩流 读取SAMPLE_SIZE后压缩率仍然超过maxRatio时提前放弃
+     *
+     * @return 是否可压缩
+     */
+    private boolean copy(InputStream inputStream, OutputStream outputStream, FileChannel fileChannel, double maxRatio)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long readLength = 0;
+        boolean sampled = false;
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+            readLength = readLength + length;
+            if (!sampled && readLength >= SAMPLE_SIZE) {
+                sampled = true;
+                outputStream.flush();
+                if (fileChannel.size() > readLength * maxRatio) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 删除同一个原文件同一种编码的其他版本
+     */
+    private void deleteOldVersions(Path encodedPath) throws IOException {
+        String fileName = encodedPath.getFileName().toString();
+        String prefix = fileName.substring(0, fileName.indexOf('-') + 1);
+        String suffix = fileName.substring(fileName.lastIndexOf('.'));
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(encodedPath.getParent(), prefix + "*" + suffix)) {
+            for (Path oldPath : paths) {
+                if (!oldPath.equals(encodedPath)) {
+                    Files.deleteIfExists(oldPath);
+                }
+            }
+        }
+    }
+
+    private Path getEncodedPath(Path path, FileMetadata fileMetadata, ContentEncoding contentEncoding) {
+        String pathHash;
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            pathHash = FileUtil.toHex(messageDigest.digest(
+                    path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+        return Paths.get(transferProperties.getCompression().getCachePath()).toAbsolutePath().resolve(
+                pathHash + "-" + Long.toHexString(fileMetadata.getSize()) + "-"
+                        + Long.toHexString(fileMetadata.getLastModified()) + contentEncoding.getSuffix());
+    }
+}
@@ -0,0 +1,210 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.service.ReadCacheService;
+import file.transfer.service.utils.HttpRangeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载文件元数据缓存 下载文件所在的文件夹通过WatchService监听
+ * 文件夹中有文件创建、删除或修改时 对应的缓存失效 下次访问时重新读取文件属性 同时移出读缓存中打开的文件
+ * 按访问顺序淘汰(LRU) 缓存的文件个数超出上限时淘汰最久未访问的文件
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class FileMetadataServiceImpl implements FileMetadataService {
+    // 文件路径 -> 元数据 按访问顺序排列 最久未访问的在最前
+    private final Map<Path, FileMetadata> metadataCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileMetadata> eldest) {
+            return size() > transferProperties.getMetadataCache().getMaxEntries();
+        }
+    };
+    // 已监听的文件夹
+    private final ConcurrentMap<Path, WatchKey> watchedFolders = new ConcurrentHashMap<>();
+    // 缓存失效的次数 读取文件属性期间有缓存失效时不放入缓存 避免放入已经过期的元数据
+    private final AtomicLong invalidations = new AtomicLong();
+    // 不启用缓存或者文件系统不支持监听时为null
+    private WatchService watchService;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ReadCacheService readCacheService;
+
+    @PostConstruct
+    public void init() {
+        if (!transferProperties.getMetadataCache().isEnabled()) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException exception) {
+            log.warn("文件系统不支持监听 不缓存下载文件元数据: {}", exception.getMessage());
+            return;
+        }
+
+        Thread watchThread = new Thread(this::watch, "file-metadata-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    @Override
+    public FileMetadata getMetadata(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        if (watchService == null) {
+            return readMetadata(key);
+        }
+
+        FileMetadata fileMetadata;
+        synchronized (metadataCache) {
+            fileMetadata = metadataCache.get(key);
+        }
+        if (fileMetadata != null) {
+            return fileMetadata;
+        }
+
+        // 先监听文件夹再读取文件属性 读取之后的修改一定会使缓存失效
+        boolean watched = watchFolder(key.getParent());
+        long invalidation = invalidations.get();
+        fileMetadata = readMetadata(key);
+        if (fileMetadata == null || !watched) {
+            return fileMetadata;
+        }
+
+        synchronized (metadataCache) {
+            metadataCache.put(key, fileMetadata);
+            if (invalidations.get() != invalidation || !watchedFolders.containsKey(key.getParent())) {
+                metadataCache.remove(key, fileMetadata);
+            }
+        }
+        return fileMetadata;
+    }
+
+    /**
+     * 读取文件属性 一次系统调用同时获取大小和修改时间
+     *
+     * @param key 文件路径
+     * @return 元数据 文件不存在或者不是普通文件时为null
+     * @throws IOException IO错误
+     */
+    private FileMetadata readMetadata(Path key) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (NoSuchFileException exception) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        return new FileMetadata(size, lastModified, HttpRangeUtil.generateETag(size, lastModified));
+    }
+
+    /**
+     * 监听文件夹 已经监听时直接返回
+     *
+     * @param folder 文件夹
+     * @return 是否监听成功 失败时(例如超出系统的监听个数上限)不缓存该文件夹中的文件
+     */
+    private boolean watchFolder(Path folder) {
+        if (folder == null) {
+            return false;
+        }
+        if (watchedFolders.containsKey(folder)) {
+            return true;
+        }
+
+        try {
+            WatchKey watchKey = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedFolders.put(folder, watchKey);
+            return true;
+        } catch (NoSuchFileException exception) {
+            return false;
+        } catch (IOException | ClosedWatchServiceException exception) {
+            log.warn("监听文件夹失败: {} {}", folder, exception.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 处理文件夹的变化 服务关闭时退出
+     */
+    private void watch() {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException exception) {
+                return;
+            }
+
+            // 先增加失效次数再移出缓存 与getMetadata中的检查顺序相反
+            invalidations.incrementAndGet();
+            Path folder = (Path) watchKey.watchable();
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // 事件丢失 整个文件夹的缓存失效
+                    invalidateFolder(folder);
+                } else {
+                    Path path = folder.resolve((Path) event.context());
+                    synchronized (metadataCache) {
+                        metadataCache.remove(path);
+                    }
+                    readCacheService.invalidate(path);
+                }
+            }
+
+            // 文件夹被删除后不再监听
+            if (!watchKey.reset()) {
+                watchedFolders.remove(folder, watchKey);
+                invalidations.incrementAndGet();
+                invalidateFolder(folder);
+            }
+        }
+    }
+
+    private void invalidateFolder(Path folder) {
+        synchronized (metadataCache) {
+            metadataCache.keySet().removeIf(path -> folder.equals(path.getParent()));
+        }
+        readCacheService.invalidateFolder(folder);
+    }
+}
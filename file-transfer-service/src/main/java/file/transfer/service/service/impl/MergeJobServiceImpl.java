@@ -0,0 +1,103 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.merge.MergeJob;
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.MergeJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 合并任务队列 合并在后台线程中进行 请求立即返回任务id
+ * 同一个文件(文件块所在文件夹/文件名)同时只有一个合并任务 重复提交时返回已有的任务
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class MergeJobServiceImpl implements MergeJobService {
+    // 所有合并任务 任务id -> 合并任务 结束的任务保留一段时间供前端查询
+    private final Map<String, MergeJob> jobs = new ConcurrentHashMap<>();
+    // 未结束的合并任务 文件块所在文件夹/文件名 -> 合并任务
+    private final Map<String, MergeJob> activeJobs = new ConcurrentHashMap<>();
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ExecutorService mergeJobExecutor;
+
+    @Resource
+    private ChunkService chunkService;
+
+    @Override
+    public MergeJob submitMerge(String localFile, String localFolder, String uploadFilename) {
+        String key = UploadSession.getKey(localFolder, uploadFilename);
+        String identifier = Paths.get(localFolder).getFileName().toString();
+
+        MergeJob mergeJob = new MergeJob(identifier, uploadFilename, key);
+        MergeJob activeJob = activeJobs.putIfAbsent(key, mergeJob);
+        if (activeJob != null) {
+            log.info("文件{}已有合并任务:{}", uploadFilename, activeJob.getJobId());
+            return activeJob;
+        }
+
+        jobs.put(mergeJob.getJobId(), mergeJob);
+        try {
+            mergeJobExecutor.execute(() -> runJob(mergeJob, localFile, localFolder, uploadFilename));
+        } catch (RejectedExecutionException exception) {
+            jobs.remove(mergeJob.getJobId());
+            activeJobs.remove(key, mergeJob);
+            throw exception;
+        }
+        return mergeJob;
+    }
+
+    @Override
+    public MergeJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    @Override
+    public int getActiveJobCount() {
+        return activeJobs.size();
+    }
+
+    @Override
+    public long getPendingBytes() {
+        return activeJobs.values().stream()
+                .mapToLong(mergeJob -> Math.max(0, mergeJob.getTotalBytes() - mergeJob.getMergedBytes()))
+                .sum();
+    }
+
+    private void runJob(MergeJob mergeJob, String localFile, String localFolder, String uploadFilename) {
+        mergeJob.start();
+        try {
+            boolean merged = chunkService.mergeFile(localFile, localFolder, uploadFilename, mergeJob);
+            mergeJob.finish(merged, merged ? null : "文件合并失败");
+        } catch (RuntimeException exception) {
+            log.error("文件{}合并失败: {}", uploadFilename, exception.getMessage());
+            mergeJob.finish(false, "文件合并失败");
+        } finally {
+            activeJobs.remove(mergeJob.getKey(), mergeJob);
+        }
+    }
+
+    /**
+     * 清除过期的已结束任务
+     */
+    @Scheduled(fixedDelayString = "${file-transfer.merge.job-retention:PT10M}")
+    public void evictJobs() {
+        long expireTime = System.currentTimeMillis() - transferProperties.getMerge().getJobRetention().toMillis();
+        jobs.values().removeIf(mergeJob -> mergeJob.isFinished() && mergeJob.getFinishTime() < expireTime);
+    }
+}
@@ -0,0 +1,469 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.ContentEncoding;
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.ChunkTarget;
+import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.CompressionService;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.service.ReactiveTransferService;
+import file.transfer.service.service.TransferMetricsService;
+import file.transfer.service.utils.HttpRangeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.DataBinder;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Resource;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URLEncoder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞传输(WebFlux) spring.main.web-application-type=reactive 时生效
+ * 文件块内容通过AsynchronousFileChannel读写 会话、位图、日志等簿记仍由ChunkService在boundedElastic线程中完成
+ *
+ * @author Cxx
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveTransferServiceImpl implements ReactiveTransferService {
+    // 文件块的part名称 对应前端的fileParameterName
+    private static final String MULTIPART_FILE = "multipartFile";
+    // 下载文件的类型
+    private static final String DOWNLOAD_CONTENT_TYPE = "application/x-download";
+    // 读取文件的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 解压文件块时预读的缓冲区个数
+    private static final int PREFETCH = 4;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ChunkService chunkService;
+
+    @Resource
+    private TransferMetricsService transferMetricsService;
+
+    @Resource
+    private FileMetadataService fileMetadataService;
+
+    @Resource
+    private CompressionService compressionService;
+
+    @Override
+    public Mono<Void> downloadChunk(File file, ServerHttpRequest request, ServerHttpResponse response,
+                                    ThrottlePermit throttlePermit) {
+        // 分片下载 文件大小、修改时间和ETag从元数据缓存中获取 并选择原文件或者预先压缩的文件
+        // 元数据缓存未命中时需要读取文件属性并注册监听 不能阻塞事件循环
+        HttpHeaders requestHeaders = request.getHeaders();
+        String encoding = request.getQueryParams().getFirst("encoding");
+        return Mono.fromCallable(() -> {
+                    FileMetadata fileMetadata = fileMetadataService.getMetadata(file.toPath());
+                    return Optional.ofNullable(fileMetadata == null ? null : compressionService.select(file.toPath(),
+                            fileMetadata, encoding, requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING),
+                            requestHeaders.getFirst(HttpHeaders.RANGE) != null));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(selected -> {
+                    if (selected.isEmpty()) {
+                        response.setStatusCode(HttpStatus.NOT_FOUND);
+                        return response.setComplete();
+                    }
+                    return writeRepresentation(file.getName(), selected.get(), throttlePermit, request, response);
+                });
+    }
+
+    /**
+     * 按照选择的文件表示写入response 之后的字节范围、ETag都基于选择的文件
+     *
+     * @param fileName       下载文件名
+     * @param representation 原文件或者预先压缩的文件
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param request        web请求
+     * @param response       web响应
+     * @return 写入完成
+     */
+    private Mono<Void> writeRepresentation(String fileName, FileRepresentation representation,
+                                           ThrottlePermit throttlePermit, ServerHttpRequest request,
+                                           ServerHttpResponse response) {
+        ContentEncoding contentEncoding = representation.getEncoding();
+        long fileSize = representation.getMetadata().getSize();
+        long lastModified = representation.getMetadata().getLastModified();
+        String eTag = representation.getMetadata().getETag();
+        HttpHeaders headers = response.getHeaders();
+        MediaType contentType = MediaType.parseMediaType(DOWNLOAD_CONTENT_TYPE);
+        if (representation.isExplicit()) {
+            // 下载压缩文件本身 不设置Content-Encoding 避免浏览器自动解压
+            fileName = fileName + contentEncoding.getSuffix();
+            contentType = MediaType.parseMediaType(contentEncoding.getContentType());
+        } else if (contentEncoding != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding.getName());
+        }
+
+        // 设置以附件的形式下载并保存到本地
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=" +
+                URLEncoder.encode(fileName, StandardCharsets.UTF_8));
+        // 设置可以中断下载
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.set(HttpHeaders.ETAG, eTag);
+        headers.setLastModified(lastModified);
+        if (transferProperties.getCompression().isEnabled()) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        // 文件没有变化时返回304(If-None-Match/If-Modified-Since)
+        HttpHeaders requestHeaders = request.getHeaders();
+        long ifModifiedSince = -1;
+        try {
+            ifModifiedSince = requestHeaders.getIfModifiedSince();
+        } catch (IllegalArgumentException exception) {
+            // 日期格式错误时忽略
+        }
+        if (HttpRangeUtil.checkNotModified(requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), ifModifiedSince,
+                eTag, lastModified)) {
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+
+        // 获取前端的文件块范围 文件在此期间被修改(If-Range不成立)时返回整个文件
+        List<ByteRange> ranges = null;
+        long ifRangeDate = -1;
+        try {
+            ifRangeDate = requestHeaders.getFirstDate(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException exception) {
+            // If-Range为ETag
+        }
+        if (HttpRangeUtil.checkIfRange(requestHeaders.getFirst(HttpHeaders.IF_RANGE), ifRangeDate, eTag, lastModified)) {
+            ranges = HttpRangeUtil.parseRanges(requestHeaders.getFirst(HttpHeaders.RANGE), fileSize);
+        }
+
+        // 写入完成或者前端断开时记录下载耗时
+        List<ByteRange> requestRanges = ranges;
+        long startTime = System.nanoTime();
+        return writeRanges(representation.getPath().toFile(), fileSize, ranges, contentType, throttlePermit, response)
+                .doFinally(
+                signalType -> transferMetricsService.recordDownload(requestRanges, fileSize, System.nanoTime() - startTime));
+    }
+
+    /**
+     * 按照字节范围写入response
+     *
+     * @param file        下载文件
+     * @param fileSize    文件大小
+     * @param ranges         字节范围列表 null表示整个文件
+     * @param contentType    文件类型
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param response       web响应
+     * @return 写入完成
+     */
+    private Mono<Void> writeRanges(File file, long fileSize, List<ByteRange> ranges, MediaType contentType,
+                                   ThrottlePermit throttlePermit, ServerHttpResponse response) {
+        HttpHeaders headers = response.getHeaders();
+        if (ranges == null) {
+            // 没有Range时下载整个文件
+            response.setStatusCode(HttpStatus.OK);
+            headers.setContentType(contentType);
+            return writeRange(file, new ByteRange(0, fileSize - 1), throttlePermit, response);
+        } else if (ranges.isEmpty()) {
+            // 起始位置超出文件范围
+            response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            return response.setComplete();
+        } else if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+            headers.setContentType(contentType);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + range.getStart() + "-" + range.getEnd() + "/" + fileSize);
+            return writeRange(file, range, throttlePermit, response);
+        } else {
+            response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+            return writeMultipartRanges(file, fileSize, ranges, contentType, throttlePermit, response);
+        }
+    }
+
+    /**
+     * 将文件的一个字节范围写入response
+     *
+     * @param file           下载文件
+     * @param range          字节范围
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param response       web响应
+     * @return 写入完成
+     */
+    private Mono<Void> writeRange(File file, ByteRange range, ThrottlePermit throttlePermit,
+                                  ServerHttpResponse response) {
+        response.getHeaders().setContentLength(range.getLength());
+        if (range.getLength() <= 0) {
+            return response.setComplete();
+        }
+
+        // Netty支持时直接将文件区间写入socket(sendfile) 不经过用户态缓冲区 限速时需要逐个缓冲区延迟 不使用sendfile
+        if (response instanceof ZeroCopyHttpOutputMessage && (throttlePermit == null || !throttlePermit.isShaping())) {
+            return ((ZeroCopyHttpOutputMessage) response).writeWith(file, range.getStart(), range.getLength());
+        }
+        return response.writeWith(throttle(readRange(file, range, response.bufferFactory()), throttlePermit));
+    }
+
+    /**
+     * 将文件的多个字节范围以multipart/byteranges的格式写入response
+     *
+     * @param file        下载文件
+     * @param fileSize    文件大小
+     * @param ranges         字节范围列表
+     * @param contentType    每个部分的类型
+     * @param throttlePermit 限流许可 不限流时为null
+     * @param response       web响应
+     * @return 写入完成
+     */
+    private Mono<Void> writeMultipartRanges(File file, long fileSize, List<ByteRange> ranges, MediaType contentType,
+                                            ThrottlePermit throttlePermit, ServerHttpResponse response) {
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+        // 预先生成每个部分的头 计算准确的Content-Length
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + range.getStart() + "-" + range.getEnd() + "/" + fileSize + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength = contentLength + partHeader.length + range.getLength();
+        }
+        byte[] closeBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength = contentLength + closeBoundary.length;
+
+        response.getHeaders().setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        response.getHeaders().setContentLength(contentLength);
+
+        DataBufferFactory bufferFactory = response.bufferFactory();
+        Flux<DataBuffer> body = Flux.range(0, ranges.size())
+                .concatMap(i -> Flux.concat(Mono.fromCallable(() -> bufferFactory.wrap(partHeaders.get(i))),
+                        readRange(file, ranges.get(i), bufferFactory)))
+                .concatWith(Mono.fromCallable(() -> bufferFactory.wrap(closeBoundary)));
+        return response.writeWith(throttle(body, throttlePermit));
+    }
+
+    /**
+     * 通过AsynchronousFileChannel读取文件的字节范围
+     *
+     * @param file          下载文件
+     * @param range         字节范围
+     * @param bufferFactory 缓冲区工厂
+     * @return 文件内容
+     */
+    private Flux<DataBuffer> readRange(File file, ByteRange range, DataBufferFactory bufferFactory) {
+        Flux<DataBuffer> dataBuffers = DataBufferUtils.readAsynchronousFileChannel(
+                () -> AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ),
+                range.getStart(), bufferFactory, BUFFER_SIZE);
+        return DataBufferUtils.takeUntilByteCount(dataBuffers, range.getLength());
+    }
+
+    @Override
+    public Mono<Void> saveChunk(Flux<Part> parts, String uploadFolderPath, ThrottlePermit throttlePermit) {
+        // 前端先添加文件块信息再添加文件块 解析到文件块时文件块信息已经完整
+        MutablePropertyValues propertyValues = new MutablePropertyValues();
+        AtomicBoolean chunkReceived = new AtomicBoolean(false);
+
+        return parts.concatMap(part -> {
+            if (part instanceof FormFieldPart) {
+                propertyValues.add(part.name(), ((FormFieldPart) part).value());
+                return Mono.<Void>empty();
+            }
+            if (part instanceof FilePart && MULTIPART_FILE.equals(part.name()) && !chunkReceived.getAndSet(true)) {
+                ChunkInfo chunkInfo = new ChunkInfo();
+                new DataBinder(chunkInfo).bind(propertyValues);
+                // 超过maxInMemorySize的文件块内容保存在临时文件中 写入完成、失败或者取消时删除
+                return Mono.usingWhen(Mono.just(part), filePart -> writeChunk(chunkInfo, uploadFolderPath,
+                                throttle(filePart.content(), throttlePermit)),
+                        Part::delete, (filePart, exception) -> filePart.delete(), Part::delete);
+            }
+            // 不需要的part直接删除临时文件
+            return part.delete();
+        }).then(Mono.defer(() -> chunkReceived.get() ? Mono.empty() : Mono.error(new IOException("缺少文件块"))));
+    }
+
+    /**
+     * 将文件块内容写入ChunkService准备的写入位置
+     *
+     * @param chunkInfo        文件块信息
+     * @param uploadFolderPath 上传文件夹路径
+     * @param content          文件块内容
+     * @return 保存完成
+     */
+    private Mono<Void> writeChunk(ChunkInfo chunkInfo, String uploadFolderPath, Flux<DataBuffer> content) {
+        // 其他文件块信息由openChunk校验
+        if (chunkInfo.getCurrentChunkSize() == null) {
+            return Mono.error(new IOException("文件块信息不完整"));
+        }
+        long size = chunkInfo.getCurrentChunkSize();
+        if (size < 0 || size > transferProperties.getUpload().getMaxChunkSize().toBytes()) {
+            return Mono.error(new IOException("文件块超出最大大小: " + chunkInfo.getChunkNumber()));
+        }
+
+        // openChunk需要创建目录和临时文件(或预分配目标文件) 在boundedElastic线程中执行
+        // part已经由DefaultPartHttpMessageReader完整接收(内存或临时文件) 可以在任意线程中订阅其内容
+        return Mono.fromCallable(() -> chunkService.openChunk(chunkInfo, uploadFolderPath, size))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(chunkTarget -> (chunkInfo.getEncoding() == null ? writeContent(chunkTarget, content)
+                        : writeEncodedContent(chunkTarget, content))
+                        // 客户端中断上传时删除不完整的文件块
+                        .doOnCancel(() -> Schedulers.boundedElastic().schedule(() -> chunkService.abortChunk(chunkTarget)))
+                        .onErrorResume(exception -> Mono.<Void>fromRunnable(() -> chunkService.abortChunk(chunkTarget))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .then(Mono.error(exception)))
+                        .then(Mono.<Void>fromCallable(() -> {
+                            chunkService.commitChunk(chunkTarget);
+                            return null;
+                        }).subscribeOn(Schedulers.boundedElastic())));
+    }
+
+    /**
+     * 写入压缩的文件块 在boundedElastic线程中逐个读取压缩内容的缓冲区 边解压边写入 不将整个文件块合并到内存
+     *
+     * @param chunkTarget 文件块的写入位置
+     * @param content     压缩的文件块内容
+     * @return 写入完成
+     */
+    private Mono<Void> writeEncodedContent(ChunkTarget chunkTarget, Flux<DataBuffer> content) {
+        return Mono.<Void>fromCallable(() -> {
+                    try (InputStream inputStream = toInputStream(content)) {
+                        chunkService.writeChunk(chunkTarget, inputStream);
+                    } catch (RuntimeException exception) {
+                        // 读取内容失败时阻塞迭代器抛出的是包装后的异常
+                        Throwable cause = Exceptions.unwrap(exception);
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw exception;
+                    }
+                    return null;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 将文件块内容转为输入流 只能在可以阻塞的线程中读取
+     * 每个缓冲区读取完成或者输入流关闭时释放 关闭时读取并释放剩余的缓冲区
+     *
+     * @param content 文件块内容
+     * @return 输入流
+     */
+    private InputStream toInputStream(Flux<DataBuffer> content) {
+        Iterator<DataBuffer> dataBuffers = content.toIterable(PREFETCH).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return dataBuffers.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return dataBuffers.next().asInputStream(true);
+            }
+        });
+    }
+
+    /**
+     * 通过AsynchronousFileChannel将文件块内容写入文件 需要时同时计算MD5
+     *
+     * @param chunkTarget 文件块的写入位置
+     * @param content     文件块内容
+     * @return 写入完成 内容大小与currentChunkSize不一致时为IOException
+     */
+    private Mono<Void> writeContent(ChunkTarget chunkTarget, Flux<DataBuffer> content) {
+        MessageDigest chunkDigest = chunkTarget.getChunkDigest();
+        int chunkNumber = chunkTarget.getChunkInfo().getChunkNumber();
+        AtomicLong writtenLength = new AtomicLong();
+
+        Flux<DataBuffer> checkedContent = content.handle((dataBuffer, sink) -> {
+            // 超出声明的大小时立即停止 避免直接写入模式下覆盖下一个文件块
+            if (writtenLength.addAndGet(dataBuffer.readableByteCount()) > chunkTarget.getSize()) {
+                DataBufferUtils.release(dataBuffer);
+                sink.error(new IOException("文件块大小与currentChunkSize不一致: " + chunkNumber));
+                return;
+            }
+            if (chunkDigest != null) {
+                chunkDigest.update(dataBuffer.asByteBuffer());
+            }
+            sink.next(dataBuffer);
+        });
+
+        return Mono.using(
+                () -> AsynchronousFileChannel.open(chunkTarget.getPath(), StandardOpenOption.WRITE),
+                fileChannel -> DataBufferUtils.write(checkedContent, fileChannel, chunkTarget.getPosition())
+                        .doOnNext(DataBufferUtils::release)
+                        .then(),
+                fileChannel -> {
+                    try {
+                        fileChannel.close();
+                    } catch (IOException exception) {
+                        log.warn("关闭文件块失败:{}", exception.getMessage());
+                    }
+                })
+                .then(Mono.defer(() -> writtenLength.get() == chunkTarget.getSize() ? Mono.empty()
+                        : Mono.error(new EOFException("文件块不完整: " + chunkNumber))));
+    }
+
+    /**
+     * 按限流许可延迟发送缓冲区 每个缓冲区预占对应字节数的带宽令牌 令牌不足时延迟到令牌到达的时间
+     * 延迟期间不占用线程 取消时释放还没有发送的缓冲区
+     *
+     * @param content        文件内容
+     * @param throttlePermit 限流许可 不限流时为null
+     * @return 限速的文件内容 不限制带宽时为原内容
+     */
+    private Flux<DataBuffer> throttle(Flux<DataBuffer> content, ThrottlePermit throttlePermit) {
+        if (throttlePermit == null || !throttlePermit.isShaping()) {
+            return content;
+        }
+        return content.concatMap(dataBuffer -> {
+                    long waitNanos = throttlePermit.reserve(dataBuffer.readableByteCount());
+                    return waitNanos > 0 ? Mono.just(dataBuffer).delayElement(Duration.ofNanos(waitNanos))
+                            : Mono.just(dataBuffer);
+                })
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+}
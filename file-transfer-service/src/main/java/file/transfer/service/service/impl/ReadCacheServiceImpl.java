@@ -0,0 +1,273 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.CachedFile;
+import file.transfer.service.service.ReadCacheService;
+import file.transfer.service.service.TransferMetricsService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下载文件的读缓存 保留打开的FileChannel 热点文件按分段内存映射
+ * 按访问顺序淘汰(LRU) 缓存的文件个数和映射的总大小都有上限
+ * 被淘汰的映射在GC时才解除 映射总大小是软上限
+ * 文件被原地截断时读取映射会出错(SIGBUS) 元数据监听到修改或删除时立即移出缓存 不等下次打开时比较大小和修改时间
+ *
+ * @author Cxx
+ */
+@Service
+public class ReadCacheServiceImpl implements ReadCacheService {
+    // 缓存的文件 按访问顺序排列 最久未访问的在最前
+    private final Map<Path, CachedFile> cachedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    // 缓存中已映射的总字节数 在cachedFiles锁内维护
+    private long mappedBytes;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private TransferMetricsService transferMetricsService;
+
+    @Override
+    public CachedFile open(Path path, long size, long lastModified) throws IOException {
+        TransferProperties.ReadCache readCache = transferProperties.getReadCache();
+        Path key = path.toAbsolutePath().normalize();
+        if (!readCache.isEnabled()) {
+            return openFile(key, size, lastModified);
+        }
+
+        CachedFile cachedFile = retainCached(key, size, lastModified);
+        if (cachedFile != null) {
+            transferMetricsService.recordReadCache(true);
+            return cachedFile;
+        }
+        transferMetricsService.recordReadCache(false);
+
+        // 在锁外打开文件 打开期间文件被替换时不放入缓存
+        CachedFile openedFile = openFile(key, size, lastModified);
+        if (openedFile.getChannel().size() != size) {
+            return openedFile;
+        }
+
+        List<CachedFile> evictedFiles = new ArrayList<>();
+        synchronized (cachedFiles) {
+            // 其他线程同时打开了同一个文件时使用先放入的
+            CachedFile existingFile = cachedFiles.get(key);
+            if (existingFile != null && existingFile.getSize() == size
+                    && existingFile.getLastModified() == lastModified && existingFile.retain()) {
+                cachedFile = existingFile;
+            } else {
+                if (existingFile != null) {
+                    evictedFiles.add(remove(key));
+                }
+                // 缓存和本次下载各持有一个引用
+                openedFile.retain();
+                cachedFiles.put(key, openedFile);
+                evictedFiles.addAll(evict(openedFile));
+            }
+        }
+        evictedFiles.forEach(CachedFile::release);
+
+        if (cachedFile != null) {
+            openedFile.release();
+            cachedFile.getHits().incrementAndGet();
+            return cachedFile;
+        }
+        openedFile.getHits().incrementAndGet();
+        return openedFile;
+    }
+
+    @Override
+    public boolean isHot(CachedFile cachedFile) {
+        TransferProperties.ReadCache readCache = transferProperties.getReadCache();
+        return readCache.isEnabled() && cachedFile.getHits().get() >= readCache.getHotThreshold();
+    }
+
+    @Override
+    public void invalidate(Path path) {
+        CachedFile cachedFile;
+        synchronized (cachedFiles) {
+            Path key = path.toAbsolutePath().normalize();
+            if (!cachedFiles.containsKey(key)) {
+                return;
+            }
+            cachedFile = remove(key);
+        }
+        cachedFile.release();
+    }
+
+    @Override
+    public void invalidateFolder(Path folder) {
+        Path key = folder.toAbsolutePath().normalize();
+        List<CachedFile> staleFiles = new ArrayList<>();
+        synchronized (cachedFiles) {
+            Iterator<CachedFile> iterator = cachedFiles.values().iterator();
+            while (iterator.hasNext()) {
+                CachedFile cachedFile = iterator.next();
+                if (key.equals(cachedFile.getPath().getParent())) {
+                    iterator.remove();
+                    mappedBytes = mappedBytes - cachedFile.getMappedBytes();
+                    staleFiles.add(cachedFile);
+                }
+            }
+        }
+        staleFiles.forEach(CachedFile::release);
+    }
+
+    @Override
+    public void transferTo(CachedFile cachedFile, ByteRange range, WritableByteChannel outputChannel)
+            throws IOException {
+        long segmentSize = cachedFile.getSegmentSize();
+        long position = range.getStart();
+        long end = range.getEnd() + 1;
+        while (position < end) {
+            int index = (int) (position / segmentSize);
+            long segmentStart = index * segmentSize;
+            long segmentEnd = Math.min(end, segmentStart + segmentSize);
+
+            ByteBuffer segment = getSegment(cachedFile, index);
+            if (segment == null) {
+                transferTo(cachedFile.getChannel(), position, segmentEnd - position, outputChannel);
+            } else {
+                // 每个请求使用独立的position和limit
+                ByteBuffer buffer = segment.duplicate();
+                buffer.position((int) (position - segmentStart)).limit((int) (segmentEnd - segmentStart));
+                while (buffer.hasRemaining()) {
+                    outputChannel.write(buffer);
+                }
+            }
+            position = segmentEnd;
+        }
+    }
+
+    /**
+     * 从缓存中获取文件并增加引用 文件已被修改时移出缓存
+     *
+     * @param key          文件路径
+     * @param size         当前文件大小
+     * @param lastModified 当前修改时间
+     * @return 缓存的文件 不存在或者已失效时为null
+     */
+    private CachedFile retainCached(Path key, long size, long lastModified) {
+        CachedFile staleFile;
+        synchronized (cachedFiles) {
+            CachedFile cachedFile = cachedFiles.get(key);
+            if (cachedFile == null) {
+                return null;
+            }
+            if (cachedFile.getSize() == size && cachedFile.getLastModified() == lastModified && cachedFile.retain()) {
+                cachedFile.getHits().incrementAndGet();
+                return cachedFile;
+            }
+            staleFile = remove(key);
+        }
+        staleFile.release();
+        return null;
+    }
+
+    private CachedFile openFile(Path key, long size, long lastModified) throws IOException {
+        FileChannel channel = FileChannel.open(key, StandardOpenOption.READ);
+        return new CachedFile(key, size, lastModified, channel,
+                transferProperties.getReadCache().getSegmentSize().toBytes());
+    }
+
+    /**
+     * 获取内存映射的分段 热点文件的分段在第一次读取时映射
+     *
+     * @param cachedFile 缓存的文件
+     * @param index      分段序号
+     * @return 分段 不是热点文件或者超出映射上限时为null
+     * @throws IOException IO错误
+     */
+    private ByteBuffer getSegment(CachedFile cachedFile, int index) throws IOException {
+        MappedByteBuffer segment = cachedFile.getSegments().get(index);
+        if (segment != null || !isHot(cachedFile)) {
+            return segment;
+        }
+
+        long position = index * cachedFile.getSegmentSize();
+        long length = Math.min(cachedFile.getSegmentSize(), cachedFile.getSize() - position);
+        if (length > transferProperties.getReadCache().getMaxMappedSize().toBytes()) {
+            return null;
+        }
+        segment = cachedFile.getChannel().map(FileChannel.MapMode.READ_ONLY, position, length);
+        if (!cachedFile.getSegments().compareAndSet(index, null, segment)) {
+            return cachedFile.getSegments().get(index);
+        }
+
+        // 文件仍在缓存中时计入映射总大小 超出上限时淘汰其他文件
+        List<CachedFile> evictedFiles;
+        synchronized (cachedFiles) {
+            if (cachedFiles.get(cachedFile.getPath()) != cachedFile) {
+                return segment;
+            }
+            cachedFile.setMappedBytes(cachedFile.getMappedBytes() + length);
+            mappedBytes = mappedBytes + length;
+            evictedFiles = evict(cachedFile);
+        }
+        evictedFiles.forEach(CachedFile::release);
+        return segment;
+    }
+
+    /**
+     * 从最久未访问的文件开始淘汰 直到文件个数和映射总大小都不超过上限 调用时必须持有cachedFiles锁
+     *
+     * @param currentFile 当前正在使用的文件 不淘汰
+     * @return 被淘汰的文件 需要在锁外释放引用
+     */
+    private List<CachedFile> evict(CachedFile currentFile) {
+        TransferProperties.ReadCache readCache = transferProperties.getReadCache();
+        long maxMappedSize = readCache.getMaxMappedSize().toBytes();
+        List<CachedFile> evictedFiles = new ArrayList<>();
+        Iterator<CachedFile> iterator = cachedFiles.values().iterator();
+        while (iterator.hasNext() && (cachedFiles.size() > readCache.getMaxFiles() || mappedBytes > maxMappedSize)) {
+            CachedFile cachedFile = iterator.next();
+            if (cachedFile == currentFile) {
+                continue;
+            }
+            iterator.remove();
+            mappedBytes = mappedBytes - cachedFile.getMappedBytes();
+            evictedFiles.add(cachedFile);
+        }
+        return evictedFiles;
+    }
+
+    /**
+     * 移出缓存 调用时必须持有cachedFiles锁
+     */
+    private CachedFile remove(Path key) {
+        CachedFile cachedFile = cachedFiles.remove(key);
+        mappedBytes = mappedBytes - cachedFile.getMappedBytes();
+        return cachedFile;
+    }
+
+    private void transferTo(FileChannel fileChannel, long position, long count, WritableByteChannel outputChannel)
+            throws IOException {
+        // 当前写入的总大小
+        long currentTotalLength = 0;
+        while (currentTotalLength < count) {
+            long transferLength = fileChannel.transferTo(position + currentTotalLength,
+                    count - currentTotalLength, outputChannel);
+            // 文件在下载过程中被截断
+            if (transferLength <= 0) {
+                throw new EOFException("文件长度小于请求的范围");
+            }
+            currentTotalLength = currentTotalLength + transferLength;
+        }
+    }
+}
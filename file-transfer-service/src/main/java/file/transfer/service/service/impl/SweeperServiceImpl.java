@@ -0,0 +1,240 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.sweep.ChunkUsage;
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.SweeperService;
+import file.transfer.service.service.UploadSessionService;
+import file.transfer.service.utils.TokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 清理被放弃的上传 前端没有调用DELETE /fileUpload/chunk时 文件块会一直留在uploadFolderPath/identifier中
+ * 每个上传文件夹只列出一次其中的文件块文件夹 之后每次检查batchSize个 不会一次性递归删除整个上传文件夹
+ * 上传文件夹由前端指定 其中的子文件夹只有确认是上传会话(有位图或者上传会话)时才清理 其他文件夹不会被当作残留文件
+ * 残留文件超过ttl没有修改时删除 一轮检查结束后残留文件总大小超出配额时 从最久未修改的上传开始提前清理
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class SweeperServiceImpl implements SweeperService {
+    // 上传文件夹 -> 遍历状态
+    private final Map<Path, SweepRoot> roots = new ConcurrentHashMap<>();
+
+    // 累计释放的字节数
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    // 累计删除的文件个数
+    private final AtomicLong deletedFiles = new AtomicLong();
+    // 累计清理的上传个数
+    private final AtomicLong sweptUploads = new AtomicLong();
+    // 累计因超出配额清理的上传个数
+    private final AtomicLong evictedUploads = new AtomicLong();
+
+    // 删除限流 每个文件一个令牌
+    private TokenBucket deleteLimiter;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private ChunkService chunkService;
+
+    @Resource
+    private UploadSessionService uploadSessionService;
+
+    @PostConstruct
+    public void init() {
+        TransferProperties.Sweeper sweeper = transferProperties.getSweeper();
+        deleteLimiter = new TokenBucket(sweeper.getDeleteRate(), sweeper.getDeleteRate());
+        for (String root : sweeper.getRoots()) {
+            addRoot(Paths.get(root), true);
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${file-transfer.sweeper.interval:PT1M}",
+            initialDelayString = "${file-transfer.sweeper.interval:PT1M}")
+    public void sweep() {
+        if (!transferProperties.getSweeper().isEnabled()) {
+            return;
+        }
+
+        // 上传过的文件夹 uploadFolderPath由前端指定
+        for (UploadSession uploadSession : uploadSessionService.getSessions()) {
+            Path root = Paths.get(uploadSession.getFolder()).toAbsolutePath().normalize().getParent();
+            if (root != null) {
+                addRoot(root, false);
+            }
+        }
+
+        for (SweepRoot sweepRoot : roots.values()) {
+            try {
+                sweepRoot(sweepRoot);
+            } catch (IOException exception) {
+                log.error("清理上传文件夹{}失败: {}", sweepRoot.path, exception.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    @Override
+    public long getDeletedFiles() {
+        return deletedFiles.get();
+    }
+
+    @Override
+    public long getSweptUploads() {
+        return sweptUploads.get();
+    }
+
+    @Override
+    public long getEvictedUploads() {
+        return evictedUploads.get();
+    }
+
+    private void addRoot(Path root, boolean configured) {
+        Path path = root.toAbsolutePath().normalize();
+        roots.computeIfAbsent(path, key -> new SweepRoot(key, configured));
+    }
+
+    /**
+     * 检查上传文件夹中的下一批文件块文件夹
+     *
+     * @param sweepRoot 上传文件夹
+     * @throws IOException 读取上传文件夹失败
+     */
+    private void sweepRoot(SweepRoot sweepRoot) throws IOException {
+        TransferProperties.Sweeper sweeper = transferProperties.getSweeper();
+
+        // 开始新一轮检查 只列出一层文件夹
+        if (sweepRoot.pending.isEmpty()) {
+            sweepRoot.retained.clear();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(sweepRoot.path, Files::isDirectory)) {
+                stream.forEach(sweepRoot.pending::add);
+            } catch (NoSuchFileException exception) {
+                // 上传文件夹已经被删除
+                if (!sweepRoot.configured) {
+                    roots.remove(sweepRoot.path);
+                }
+                return;
+            }
+        }
+
+        long expireTime = System.currentTimeMillis() - sweeper.getTtl().toMillis();
+        for (int i = 0; i < sweeper.getBatchSize() && !sweepRoot.pending.isEmpty(); i++) {
+            ChunkUsage chunkUsage;
+            try {
+                chunkUsage = chunkService.getChunkUsage(sweepRoot.pending.poll().toString());
+            } catch (NoSuchFileException exception) {
+                continue;
+            }
+            if (chunkUsage == null) {
+                continue;
+            }
+
+            if (chunkUsage.getLastModified() >= expireTime || !sweepChunks(chunkUsage)) {
+                sweepRoot.retained.add(chunkUsage);
+            }
+        }
+
+        // 一轮检查结束
+        if (sweepRoot.pending.isEmpty()) {
+            evictOverQuota(sweepRoot);
+        }
+    }
+
+    /**
+     * 残留文件总大小超出配额时 从最久未修改的上传开始清理
+     *
+     * @param sweepRoot 上传文件夹
+     * @throws IOException 删除文件失败
+     */
+    private void evictOverQuota(SweepRoot sweepRoot) throws IOException {
+        long quota = transferProperties.getSweeper().getQuota().toBytes();
+        if (quota <= 0) {
+            return;
+        }
+
+        long usedBytes = sweepRoot.retained.stream().mapToLong(ChunkUsage::getBytes).sum();
+        if (usedBytes <= quota) {
+            return;
+        }
+
+        log.warn("上传文件夹{}中的文件块共{}字节 超出配额{}字节", sweepRoot.path, usedBytes, quota);
+        sweepRoot.retained.sort(Comparator.comparingLong(ChunkUsage::getLastModified));
+        for (ChunkUsage chunkUsage : sweepRoot.retained) {
+            if (usedBytes <= quota) {
+                break;
+            }
+            if (sweepChunks(chunkUsage)) {
+                usedBytes = usedBytes - chunkUsage.getBytes();
+                evictedUploads.incrementAndGet();
+            }
+        }
+        sweepRoot.retained.clear();
+    }
+
+    /**
+     * 清理一个上传的残留文件
+     *
+     * @param chunkUsage 残留文件的占用情况
+     * @return 是否已经清理 正在上传或合并时跳过
+     * @throws IOException 删除文件失败
+     */
+    private boolean sweepChunks(ChunkUsage chunkUsage) throws IOException {
+        long bytes = chunkService.sweepChunks(chunkUsage, deleteLimiter);
+        if (bytes < 0) {
+            return false;
+        }
+
+        reclaimedBytes.addAndGet(bytes);
+        deletedFiles.addAndGet(chunkUsage.getFiles());
+        sweptUploads.incrementAndGet();
+        log.info("清理被放弃的上传{} 释放{}字节", chunkUsage.getFolder(), bytes);
+        return true;
+    }
+
+    /**
+     * 上传文件夹的遍历状态
+     */
+    private static class SweepRoot {
+        // 上传文件夹
+        private final Path path;
+        // 是否是配置的上传文件夹 不是时文件夹被删除后不再检查
+        private final boolean configured;
+        // 本轮等待检查的文件块文件夹
+        private final Deque<Path> pending = new ArrayDeque<>();
+        // 本轮检查过但未清理的上传 用于检查配额
+        private final List<ChunkUsage> retained = new ArrayList<>();
+
+        SweepRoot(Path path, boolean configured) {
+            this.path = path;
+            this.configured = configured;
+        }
+    }
+}
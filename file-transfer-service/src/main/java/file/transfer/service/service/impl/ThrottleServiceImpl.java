@@ -0,0 +1,91 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.throttle.ThrottleBucket;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import file.transfer.service.service.ThrottleService;
+import file.transfer.service.service.TransferMetricsService;
+import file.transfer.service.utils.TokenBucket;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按客户端地址和租户限制文件块请求的带宽和并发请求数
+ * 限流状态保存在ConcurrentHashMap中 获取许可和预占带宽都只有CAS 不加锁
+ * 空闲的限流状态定时清除 清除的同时有新请求时该请求使用已清除的状态 只影响这一个请求
+ *
+ * @author Cxx
+ */
+@Service
+public class ThrottleServiceImpl implements ThrottleService {
+    // 客户端地址 -> 限流状态
+    private final Map<String, ThrottleBucket> clientBuckets = new ConcurrentHashMap<>();
+    // 租户标识 -> 限流状态
+    private final Map<String, ThrottleBucket> tenantBuckets = new ConcurrentHashMap<>();
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private TransferMetricsService transferMetricsService;
+
+    @Override
+    public boolean isEnabled() {
+        return transferProperties.getThrottle().isEnabled();
+    }
+
+    @Override
+    public ThrottlePermit acquire(String client, String tenant) {
+        TransferProperties.Throttle throttle = transferProperties.getThrottle();
+        ThrottleBucket clientBucket = clientBuckets.computeIfAbsent(String.valueOf(client),
+                key -> createBucket(throttle.getClientBandwidth(), throttle.getClientMaxConcurrent()));
+        if (!clientBucket.tryAcquire()) {
+            transferMetricsService.recordThrottled(false);
+            return null;
+        }
+
+        ThrottleBucket tenantBucket = null;
+        if (tenant != null && !tenant.isEmpty()) {
+            tenantBucket = tenantBuckets.computeIfAbsent(tenant,
+                    key -> createBucket(throttle.getTenantBandwidth(), throttle.getTenantMaxConcurrent()));
+            if (!tenantBucket.tryAcquire()) {
+                clientBucket.release();
+                transferMetricsService.recordThrottled(true);
+                return null;
+            }
+        }
+        return new ThrottlePermit(clientBucket, tenantBucket);
+    }
+
+    /**
+     * 清除空闲的客户端和租户的限流状态
+     */
+    @Scheduled(fixedDelayString = "${file-transfer.throttle.idle-timeout:PT10M}")
+    public void evictBuckets() {
+        long idleNanos = transferProperties.getThrottle().getIdleTimeout().toNanos();
+        clientBuckets.values().removeIf(bucket -> bucket.isIdle(idleNanos));
+        tenantBuckets.values().removeIf(bucket -> bucket.isIdle(idleNanos));
+    }
+
+    /**
+     * 创建限流状态 带宽按ThrottlePermit.TOKEN_SIZE字节一个令牌
+     *
+     * @param bandwidth     带宽(字节/秒) 0表示不限制
+     * @param maxConcurrent 并发请求数上限 0表示不限制
+     * @return 限流状态
+     */
+    private ThrottleBucket createBucket(DataSize bandwidth, int maxConcurrent) {
+        TokenBucket tokenBucket = null;
+        if (bandwidth.toBytes() > 0) {
+            long rate = Math.max(1, bandwidth.toBytes() / ThrottlePermit.TOKEN_SIZE);
+            long capacity = Math.max(1, transferProperties.getThrottle().getBurst().toBytes() / ThrottlePermit.TOKEN_SIZE);
+            tokenBucket = new TokenBucket(rate, capacity);
+        }
+        return new ThrottleBucket(tokenBucket, maxConcurrent);
+    }
+}
@@ -0,0 +1,173 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.DownloadType;
+import file.transfer.service.service.TransferMetricsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 传输指标 通过Actuator的/actuator/prometheus导出
+ * 指标在启动时全部注册 记录时不再查找注册表
+ *
+ * @author Cxx
+ */
+@Service
+public class TransferMetricsServiceImpl implements TransferMetricsService {
+    private static final String RESULT_TAG = "result";
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    // 正在写入的文件块个数
+    private final AtomicInteger activeChunks = new AtomicInteger();
+
+    private Timer chunkSuccessTimer;
+    private Timer chunkFailureTimer;
+    private DistributionSummary chunkBytes;
+    private Timer checkTimer;
+    private Timer mergeSuccessTimer;
+    private Timer mergeFailureTimer;
+    private DistributionSummary mergeBytes;
+    private final Map<DownloadType, Timer> downloadTimers = new EnumMap<>(DownloadType.class);
+    private final Map<DownloadType, DistributionSummary> downloadBytes = new EnumMap<>(DownloadType.class);
+    private Timer deleteTimer;
+    private Counter readCacheHitCounter;
+    private Counter readCacheMissCounter;
+    private Counter clientThrottledCounter;
+    private Counter tenantThrottledCounter;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        chunkSuccessTimer = timer("file.transfer.upload.chunk", "文件块写入耗时", RESULT_TAG, SUCCESS);
+        chunkFailureTimer = timer("file.transfer.upload.chunk", "文件块写入耗时", RESULT_TAG, FAILURE);
+        chunkBytes = summary("file.transfer.upload.bytes", "上传成功的文件块大小");
+        checkTimer = timer("file.transfer.check.chunk", "续传校验耗时");
+        mergeSuccessTimer = timer("file.transfer.merge", "文件合并耗时", RESULT_TAG, SUCCESS);
+        mergeFailureTimer = timer("file.transfer.merge", "文件合并耗时", RESULT_TAG, FAILURE);
+        mergeBytes = summary("file.transfer.merge.bytes", "合并成功的文件大小");
+        for (DownloadType downloadType : DownloadType.values()) {
+            String type = downloadType.name().toLowerCase();
+            downloadTimers.put(downloadType, timer("file.transfer.download", "下载耗时", "type", type));
+            downloadBytes.put(downloadType, summary("file.transfer.download.bytes", "下载的字节数", "type", type));
+        }
+        deleteTimer = timer("file.transfer.delete.chunk", "删除文件块耗时");
+        readCacheHitCounter = counter("file.transfer.read.cache", "下载读缓存查找次数", RESULT_TAG, "hit");
+        readCacheMissCounter = counter("file.transfer.read.cache", "下载读缓存查找次数", RESULT_TAG, "miss");
+        clientThrottledCounter = counter("file.transfer.throttle.rejected", "超出并发请求数上限的文件块请求数", "scope", "client");
+        tenantThrottledCounter = counter("file.transfer.throttle.rejected", "超出并发请求数上限的文件块请求数", "scope", "tenant");
+    }
+
+    @Override
+    public void chunkStarted() {
+        activeChunks.incrementAndGet();
+    }
+
+    @Override
+    public void chunkFinished(long nanos, long bytes, boolean success) {
+        activeChunks.decrementAndGet();
+        if (success) {
+            chunkSuccessTimer.record(nanos, TimeUnit.NANOSECONDS);
+            chunkBytes.record(bytes);
+        } else {
+            chunkFailureTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public int getActiveChunks() {
+        return activeChunks.get();
+    }
+
+    @Override
+    public void recordCheck(long nanos) {
+        checkTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordMerge(long nanos, long bytes, boolean success) {
+        if (success) {
+            mergeSuccessTimer.record(nanos, TimeUnit.NANOSECONDS);
+            mergeBytes.record(bytes);
+        } else {
+            mergeFailureTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordDownload(List<ByteRange> ranges, long fileSize, long nanos) {
+        DownloadType downloadType;
+        long bytes = 0;
+        if (ranges == null) {
+            downloadType = DownloadType.FULL;
+            bytes = fileSize;
+        } else if (ranges.isEmpty()) {
+            downloadType = DownloadType.UNSATISFIABLE;
+        } else {
+            downloadType = ranges.size() == 1 ? DownloadType.RANGE : DownloadType.MULTIPART_RANGE;
+            for (ByteRange range : ranges) {
+                bytes = bytes + range.getLength();
+            }
+        }
+
+        downloadTimers.get(downloadType).record(nanos, TimeUnit.NANOSECONDS);
+        downloadBytes.get(downloadType).record(bytes);
+    }
+
+    @Override
+    public void recordDelete(long nanos) {
+        deleteTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordReadCache(boolean hit) {
+        (hit ? readCacheHitCounter : readCacheMissCounter).increment();
+    }
+
+    @Override
+    public void recordThrottled(boolean tenant) {
+        (tenant ? tenantThrottledCounter : clientThrottledCounter).increment();
+    }
+
+    /**
+     * 注册计时器 导出直方图 可以在Prometheus中计算p50/p99
+     */
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * 注册字节数分布 总和除以时间即为吞吐量
+     */
+    private DistributionSummary summary(String name, String description, String... tags) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String name, String description, String... tags) {
+        return Counter.builder(name)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,348 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.journal.JournalEvent;
+import file.transfer.service.entity.journal.JournalEventType;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.UploadJournalService;
+import file.transfer.service.service.UploadSessionService;
+import file.transfer.service.utils.ChunkBitmap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 上传日志 以追加的形式将上传事件写入内存映射文件 服务重启时回放日志恢复未完成的上传会话 无需遍历整个上传目录
+ * 记录格式: 4字节记录长度 + 4字节CRC32 + 记录内容 遇到长度为0或校验失败的记录时停止回放
+ *
+ * @author Cxx
+ */
+@Service
+@Slf4j
+public class UploadJournalServiceImpl implements UploadJournalService {
+    // 记录头 记录长度 + CRC32校验值
+    private static final int HEADER_LENGTH = Integer.BYTES * 2;
+    // 压缩中的日志文件后缀
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    @Resource
+    private UploadSessionService uploadSessionService;
+
+    // 正在合并的上传会话
+    private final Set<String> mergingSessions = ConcurrentHashMap.newKeySet();
+
+    private FileChannel journalChannel;
+    private MappedByteBuffer journalBuffer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!transferProperties.getJournal().isEnabled()) {
+            return;
+        }
+
+        Path journalPath = getJournalPath();
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        if (Files.exists(journalPath)) {
+            replay(journalPath);
+        }
+        // 回放完成后立即压缩 去除已经完成的上传会话
+        compact();
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journalChannel != null) {
+            journalBuffer.force();
+            journalChannel.close();
+            journalChannel = null;
+            journalBuffer = null;
+        }
+    }
+
+    @Override
+    public void chunkReceived(String folder, ChunkInfo chunkInfo) {
+        append(new JournalEvent(JournalEventType.CHUNK_RECEIVED, folder, chunkInfo.getFilename(),
+                chunkInfo.getChunkNumber(), chunkInfo.getTotalChunks(), null));
+    }
+
+    @Override
+    public void chunkLimited(String folder, String filename, long maxChunkSize) {
+        append(new JournalEvent(JournalEventType.CHUNK_LIMIT, folder, filename, 0, 0, encodeLimit(maxChunkSize)));
+    }
+
+    @Override
+    public void mergeStarted(String folder, String filename) {
+        mergingSessions.add(UploadSession.getKey(folder, filename));
+        append(new JournalEvent(JournalEventType.MERGE_STARTED, folder, filename, 0, 0, null));
+    }
+
+    @Override
+    public void mergeCompleted(String folder, String filename) {
+        mergingSessions.remove(UploadSession.getKey(folder, filename));
+        append(new JournalEvent(JournalEventType.MERGE_COMPLETED, folder, filename, 0, 0, null));
+    }
+
+    @Override
+    public void sessionDeleted(String folder) {
+        append(new JournalEvent(JournalEventType.SESSION_DELETED, folder, "", 0, 0, null));
+    }
+
+    /**
+     * 压缩日志 将内存中的上传会话写入新的日志文件并替换旧的日志文件
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${file-transfer.journal.compact-interval:PT10M}",
+            initialDelayString = "${file-transfer.journal.compact-interval:PT10M}")
+    public synchronized void compact() {
+        if (!transferProperties.getJournal().isEnabled()) {
+            return;
+        }
+
+        // 当前所有未完成的上传会话
+        List<byte[]> records = new ArrayList<>();
+        for (UploadSession uploadSession : uploadSessionService.getSessions()) {
+            String key = UploadSession.getKey(uploadSession.getFolder(), uploadSession.getFilename());
+            ChunkBitmap chunkBitmap = uploadSession.getChunkBitmap();
+            records.add(encode(new JournalEvent(JournalEventType.SESSION_SNAPSHOT, uploadSession.getFolder(),
+                    uploadSession.getFilename(), 0, chunkBitmap.getTotalChunks(), chunkBitmap.toByteArray())));
+            if (uploadSession.getMaxChunkSize() > 0) {
+                records.add(encode(new JournalEvent(JournalEventType.CHUNK_LIMIT, uploadSession.getFolder(),
+                        uploadSession.getFilename(), 0, 0, encodeLimit(uploadSession.getMaxChunkSize()))));
+            }
+            if (mergingSessions.contains(key)) {
+                records.add(encode(new JournalEvent(JournalEventType.MERGE_STARTED, uploadSession.getFolder(),
+                        uploadSession.getFilename(), 0, 0, null)));
+            }
+        }
+
+        long length = records.stream().mapToLong(record -> record.length).sum();
+        Path journalPath = getJournalPath();
+        Path compactPath = Paths.get(journalPath + COMPACT_SUFFIX);
+        try {
+            // 写入新的日志文件
+            try (FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (byte[] record : records) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) {
+                        compactChannel.write(buffer);
+                    }
+                }
+                compactChannel.force(true);
+            }
+
+            // 替换旧的日志文件并重新映射
+            close();
+            Files.move(compactPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long capacity = Math.max(transferProperties.getJournal().getCapacity().toBytes(), length * 2);
+            journalChannel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalBuffer = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            journalBuffer.position((int) length);
+            log.info("上传日志压缩完成: {}个上传会话 {}字节", records.size(), length);
+        } catch (IOException exception) {
+            log.error("上传日志压缩失败: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * 追加日志记录
+     *
+     * @param event 日志事件
+     */
+    private synchronized void append(JournalEvent event) {
+        if (journalBuffer == null) {
+            return;
+        }
+
+        byte[] record = encode(event);
+        // 日志文件已满 先压缩
+        if (journalBuffer.remaining() < record.length + Integer.BYTES) {
+            compact();
+            if (journalBuffer == null) {
+                return;
+            }
+        }
+        journalBuffer.put(record);
+    }
+
+    /**
+     * 回放日志 恢复未完成的上传会话
+     *
+     * @param journalPath 日志文件路径
+     * @throws IOException IO错误
+     */
+    private void replay(Path journalPath) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Map<String, UploadSession> sessions = new LinkedHashMap<>();
+        int count = 0;
+
+        try (FileChannel fileChannel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            while (buffer.remaining() >= HEADER_LENGTH) {
+                int length = buffer.getInt();
+                // 日志结尾或者写入不完整的记录
+                if (length <= 0 || length > buffer.remaining() - Integer.BYTES) {
+                    break;
+                }
+                long checksum = buffer.getInt() & 0xFFFFFFFFL;
+                byte[] content = new byte[length];
+                buffer.get(content);
+                CRC32 crc32 = new CRC32();
+                crc32.update(content);
+                if (crc32.getValue() != checksum) {
+                    log.warn("上传日志记录校验失败 停止回放");
+                    break;
+                }
+
+                apply(sessions, decode(content));
+                count++;
+            }
+        }
+
+        // 恢复上传会话 文件夹已经不存在的会话直接丢弃
+        for (UploadSession uploadSession : sessions.values()) {
+            if (!Files.isDirectory(Paths.get(uploadSession.getFolder()))) {
+                continue;
+            }
+            String key = UploadSession.getKey(uploadSession.getFolder(), uploadSession.getFilename());
+            if (mergingSessions.remove(key)) {
+                log.warn("文件{}合并未完成 需要重新合并", key);
+            }
+            UploadSession restoredSession = uploadSessionService.getOrLoadSession(uploadSession.getFolder(),
+                    uploadSession.getFilename(), uploadSession::getChunkBitmap);
+            if (restoredSession.getMaxChunkSize() == 0) {
+                restoredSession.setMaxChunkSize(uploadSession.getMaxChunkSize());
+            }
+        }
+        mergingSessions.clear();
+        log.info("上传日志回放完成: {}条记录 恢复{}个上传会话 耗时{}ms", count, sessions.size(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 将日志事件应用到上传会话中
+     *
+     * @param sessions 上传会话
+     * @param event    日志事件
+     */
+    private void apply(Map<String, UploadSession> sessions, JournalEvent event) {
+        String key = UploadSession.getKey(event.getFolder(), event.getFilename());
+        switch (event.getType()) {
+            case CHUNK_RECEIVED:
+                ChunkBitmap chunkBitmap = sessions.computeIfAbsent(key, k -> new UploadSession(event.getFolder(),
+                        event.getFilename(), new ChunkBitmap(event.getTotalChunks()))).getChunkBitmap();
+                chunkBitmap.setTotalChunks(event.getTotalChunks());
+                chunkBitmap.setUnchecked(event.getChunkNumber());
+                break;
+            case SESSION_SNAPSHOT:
+                sessions.put(key, new UploadSession(event.getFolder(), event.getFilename(),
+                        ChunkBitmap.valueOf(event.getData())));
+                break;
+            case CHUNK_LIMIT:
+                sessions.computeIfAbsent(key, k -> new UploadSession(event.getFolder(), event.getFilename(),
+                        new ChunkBitmap(0))).setMaxChunkSize(ByteBuffer.wrap(event.getData()).getLong());
+                break;
+            case MERGE_STARTED:
+                mergingSessions.add(key);
+                break;
+            case MERGE_COMPLETED:
+                mergingSessions.remove(key);
+                sessions.remove(key);
+                break;
+            case SESSION_DELETED:
+                String folder = Paths.get(event.getFolder()).normalize().toString();
+                sessions.values().removeIf(session -> Paths.get(session.getFolder()).normalize().toString().equals(folder));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 编码日志记录
+     *
+     * @param event 日志事件
+     * @return 记录头 + 记录内容
+     */
+    private byte[] encode(JournalEvent event) {
+        byte[] folder = event.getFolder().getBytes(StandardCharsets.UTF_8);
+        byte[] filename = event.getFilename().getBytes(StandardCharsets.UTF_8);
+        byte[] data = event.getData() == null ? new byte[0] : event.getData();
+        int length = Byte.BYTES + Integer.BYTES * 5 + folder.length + filename.length + data.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + length);
+        buffer.putInt(length).putInt(0)
+                .put((byte) event.getType().ordinal())
+                .putInt(event.getChunkNumber())
+                .putInt(event.getTotalChunks())
+                .putInt(folder.length).put(folder)
+                .putInt(filename.length).put(filename)
+                .putInt(data.length).put(data);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), HEADER_LENGTH, length);
+        buffer.putInt(Integer.BYTES, (int) crc32.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * 解码日志记录
+     *
+     * @param content 记录内容
+     * @return 日志事件
+     */
+    private JournalEvent decode(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        JournalEvent event = new JournalEvent();
+        event.setType(JournalEventType.values()[buffer.get()]);
+        event.setChunkNumber(buffer.getInt());
+        event.setTotalChunks(buffer.getInt());
+        event.setFolder(readString(buffer));
+        event.setFilename(readString(buffer));
+        byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+        event.setData(data);
+        return event;
+    }
+
+    private byte[] encodeLimit(long maxChunkSize) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(maxChunkSize).array();
+    }
+
+    private String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path getJournalPath() {
+        return Paths.get(transferProperties.getJournal().getPath());
+    }
+}
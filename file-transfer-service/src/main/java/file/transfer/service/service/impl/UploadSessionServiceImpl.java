@@ -0,0 +1,51 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.UploadSessionService;
+import file.transfer.service.utils.ChunkBitmap;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 上传会话注册表 续传校验时直接从内存中获取已上传的文件块 无需遍历文件夹
+ *
+ * @author Cxx
+ */
+@Service
+public class UploadSessionServiceImpl implements UploadSessionService {
+    // key为 文件块所在文件夹/文件名
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public UploadSession getSession(String folder, String filename) {
+        return sessions.get(UploadSession.getKey(folder, filename));
+    }
+
+    @Override
+    public UploadSession getOrLoadSession(String folder, String filename, Supplier<ChunkBitmap> loader) {
+        return sessions.computeIfAbsent(UploadSession.getKey(folder, filename),
+                key -> new UploadSession(folder, filename, loader.get()));
+    }
+
+    @Override
+    public void removeSession(String folder, String filename) {
+        sessions.remove(UploadSession.getKey(folder, filename));
+    }
+
+    @Override
+    public void removeSessions(String folder) {
+        String folderKey = Paths.get(folder).normalize().toString();
+        sessions.values().removeIf(session -> Paths.get(session.getFolder()).normalize().toString().equals(folderKey));
+    }
+
+    @Override
+    public Collection<UploadSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+}
@@ -0,0 +1,168 @@
+package file.transfer.service.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 文件块位图 每个文件块占用1位 记录该文件块是否已经上传
+ * 持久化格式: 4字节文件块总数 + 位图字节
+ * 从磁盘上的文件块重建时文件块总数未知(为0) 收到下一个文件块时再补充
+ *
+ * @author Cxx
+ */
+public class ChunkBitmap {
+    // 文件块总数 0表示未知
+    private volatile int totalChunks;
+    // 已上传的文件块 第0位对应第1个文件块
+    private final BitSet bitSet;
+
+    public ChunkBitmap(int totalChunks) {
+        this(totalChunks, new BitSet(totalChunks));
+    }
+
+    private ChunkBitmap(int totalChunks, BitSet bitSet) {
+        this.totalChunks = totalChunks;
+        this.bitSet = bitSet;
+    }
+
+    /**
+     * 从文件中读取位图
+     *
+     * @param path 位图文件路径
+     * @return 位图
+     * @throws IOException IO错误或文件格式错误
+     */
+    public static ChunkBitmap load(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < Integer.BYTES) {
+            throw new EOFException("文件块位图不完整: " + path);
+        }
+
+        return valueOf(bytes);
+    }
+
+    /**
+     * 从字节数组中读取位图
+     *
+     * @param bytes 持久化格式的字节数组
+     * @return 位图
+     */
+    public static ChunkBitmap valueOf(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int totalChunks = buffer.getInt();
+        return new ChunkBitmap(totalChunks, BitSet.valueOf(buffer));
+    }
+
+    /**
+     * 将位图转为持久化格式的字节数组
+     */
+    public synchronized byte[] toByteArray() {
+        byte[] bytes = bitSet.toByteArray();
+        return ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(totalChunks).put(bytes).array();
+    }
+
+    /**
+     * 将位图写入文件
+     *
+     * @param path 位图文件路径
+     * @throws IOException IO错误
+     */
+    public synchronized void store(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(toByteArray());
+
+        // 位图只会增加 直接覆盖写入即可
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer, buffer.position());
+            }
+        }
+    }
+
+    /**
+     * 标记文件块已上传
+     *
+     * @param chunkNumber 文件块序号 从1开始
+     * @return 该文件块之前是否未上传
+     */
+    public synchronized boolean set(int chunkNumber) {
+        checkChunkNumber(chunkNumber);
+        return setUnchecked(chunkNumber);
+    }
+
+    /**
+     * 标记文件块已上传 不校验文件块总数 用于从磁盘重建位图
+     *
+     * @param chunkNumber 文件块序号 从1开始
+     * @return 该文件块之前是否未上传
+     */
+    public synchronized boolean setUnchecked(int chunkNumber) {
+        boolean absent = !bitSet.get(chunkNumber - 1);
+        bitSet.set(chunkNumber - 1);
+        return absent;
+    }
+
+    /**
+     * 判断文件块是否已上传
+     *
+     * @param chunkNumber 文件块序号 从1开始
+     * @return 是否已上传
+     */
+    public synchronized boolean get(int chunkNumber) {
+        return chunkNumber >= 1 && bitSet.get(chunkNumber - 1);
+    }
+
+    /**
+     * 已上传的文件块个数
+     */
+    public synchronized int cardinality() {
+        return bitSet.cardinality();
+    }
+
+    /**
+     * 是否所有文件块都已上传
+     * 按第一个未上传的文件块判断 从磁盘重建时可能标记了超出文件块总数的序号 不能只比较个数
+     */
+    public synchronized boolean isComplete() {
+        return totalChunks > 0 && bitSet.nextClearBit(0) >= totalChunks;
+    }
+
+    /**
+     * 获取已上传的文件块序号列表
+     */
+    public synchronized List<Integer> toList() {
+        List<Integer> chunkList = new ArrayList<>(bitSet.cardinality());
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            chunkList.add(i + 1);
+        }
+        return chunkList;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    /**
+     * 补充未知的文件块总数
+     *
+     * @param totalChunks 文件块总数
+     */
+    public void setTotalChunks(int totalChunks) {
+        if (this.totalChunks == 0) {
+            this.totalChunks = totalChunks;
+        }
+    }
+
+    private void checkChunkNumber(int chunkNumber) {
+        if (chunkNumber < 1 || (totalChunks > 0 && chunkNumber > totalChunks)) {
+            throw new IllegalArgumentException("文件块序号超出范围: " + chunkNumber + "/" + totalChunks);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package file.transfer.service.utils;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import file.transfer.service.entity.download.ContentEncoding;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 压缩工具类 gzip使用JDK实现 zstd使用zstd-jni(当前平台没有本地库时不可用)
+ *
+ * @author Cxx
+ */
+@Slf4j
+public class CompressionUtil {
+    // 读写压缩流的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // zstd本地库是否可用
+    private static final boolean ZSTD_AVAILABLE = loadZstd();
+
+    private static boolean loadZstd() {
+        try {
+            Native.load();
+            return true;
+        } catch (Throwable throwable) {
+            log.warn("zstd本地库加载失败 只支持gzip: {}", throwable.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 当前平台是否支持该编码
+     */
+    public static boolean isAvailable(ContentEncoding contentEncoding) {
+        return contentEncoding != ContentEncoding.ZSTD || ZSTD_AVAILABLE;
+    }
+
+    /**
+     * 根据Accept-Encoding请求头选择编码
+     * 选择权重(q)最高的编码 权重相同时按encodings的顺序 identity和*不参与选择
+     *
+     * @param acceptEncoding Accept-Encoding请求头
+     * @param encodings      服务端支持的编码 按优先顺序排列
+     * @return 编码 没有可用的编码时为null
+     */
+    public static ContentEncoding negotiate(String acceptEncoding, List<String> encodings) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+
+        ContentEncoding selected = null;
+        double selectedQuality = 0;
+        int selectedOrder = Integer.MAX_VALUE;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.trim().split(";");
+            ContentEncoding contentEncoding = ContentEncoding.of(parts[0].trim());
+            int order = indexOf(encodings, parts[0].trim());
+            if (contentEncoding == null || order < 0 || !isAvailable(contentEncoding)) {
+                continue;
+            }
+
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException exception) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality > 0 && (quality > selectedQuality || quality == selectedQuality && order < selectedOrder)) {
+                selected = contentEncoding;
+                selectedQuality = quality;
+                selectedOrder = order;
+            }
+        }
+        return selected;
+    }
+
+    private static int indexOf(List<String> encodings, String name) {
+        for (int i = 0; i < encodings.size(); i++) {
+            if (encodings.get(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 包装解压输入流
+     *
+     * @param inputStream     压缩的输入流
+     * @param contentEncoding 编码
+     * @return 解压后的输入流
+     * @throws IOException 压缩格式错误或者当前平台不支持该编码
+     */
+    public static InputStream decode(InputStream inputStream, ContentEncoding contentEncoding) throws IOException {
+        if (!isAvailable(contentEncoding)) {
+            throw new IOException("不支持的编码: " + contentEncoding.getName());
+        }
+        if (contentEncoding == ContentEncoding.ZSTD) {
+            return new ZstdInputStream(inputStream);
+        }
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    /**
+     * 包装压缩输出流 关闭时写入结尾并关闭原输出流
+     *
+     * @param outputStream    输出流
+     * @param contentEncoding 编码
+     * @param level           压缩级别
+     * @return 压缩输出流
+     * @throws IOException IO错误或者当前平台不支持该编码
+     */
+    public static OutputStream encode(OutputStream outputStream, ContentEncoding contentEncoding, int level)
+            throws IOException {
+        if (!isAvailable(contentEncoding)) {
+            throw new IOException("不支持的编码: " + contentEncoding.getName());
+        }
+        if (contentEncoding == ContentEncoding.ZSTD) {
+            return new ZstdOutputStream(outputStream, level);
+        }
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+}
@@ -4,8 +4,11 @@ import file.transfer.service.entity.upload.ChunkInfo;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Cxx
@@ -22,7 +25,20 @@ public class FileUtil {
      * @return 文件路径
      */
     public static String generatePath(String uploadFolder, ChunkInfo chunkInfo) {
-        String filePath = uploadFolder + File.separator + chunkInfo.getIdentifier();
+        String filePath = generateFolder(uploadFolder, chunkInfo.getIdentifier());
+
+        return filePath + File.separator + chunkInfo.getFilename() + FILE_SEPARATOR + chunkInfo.getChunkNumber();
+    }
+
+    /**
+     * 获取文件块所在的文件夹路径
+     *
+     * @param uploadFolder 上传文件夹路径
+     * @param identifier   文件标识
+     * @return 文件夹路径
+     */
+    public static String generateFolder(String uploadFolder, String identifier) {
+        String filePath = uploadFolder + File.separator + identifier;
         Path path = Paths.get(filePath);
         // 判断uploadFolder/identifier 路径是否存在，不存在则创建
         if (!Files.isWritable(path)) {
@@ -34,7 +50,88 @@ public class FileUtil {
             }
         }
 
-        return filePath + File.separator + chunkInfo.getFilename() + FILE_SEPARATOR + chunkInfo.getChunkNumber();
+        return filePath;
+    }
+
+    /**
+     * 获取文件块的序号
+     *
+     * @param chunkFilename 文件块名称 例如 xxx.zip_1
+     * @return 文件块序号 不是文件块(如合并后的文件 临时文件)时返回-1
+     */
+    public static int getChunkNumber(String chunkFilename) {
+        int index = chunkFilename.lastIndexOf(FILE_SEPARATOR);
+        if (index < 0 || index == chunkFilename.length() - 1) {
+            return -1;
+        }
+        // 序号部分必须全部为数字
+        for (int i = index + 1; i < chunkFilename.length(); i++) {
+            if (!Character.isDigit(chunkFilename.charAt(i))) {
+                return -1;
+            }
+        }
+
+        return Integer.parseInt(chunkFilename.substring(index + 1));
+    }
+
+    /**
+     * 将输入通道中的数据写入文件的指定位置
+     * 数据经过JDK内部的定长直接缓冲区中转 不会将整个文件块读入堆内存
+     *
+     * @param inputChannel 输入通道
+     * @param fileChannel  文件通道
+     * @param position     写入的起始位置
+     * @param count        需要写入的字节数
+     * @throws IOException IO错误或输入数据不足
+     */
+    public static void transferFrom(ReadableByteChannel inputChannel, FileChannel fileChannel,
+                                    long position, long count) throws IOException {
+        // 当前写入的总大小
+        long currentTotalLength = 0;
+        while (currentTotalLength < count) {
+            long transferLength = fileChannel.transferFrom(inputChannel,
+                    position + currentTotalLength, count - currentTotalLength);
+            // 输入流提前结束
+            if (transferLength <= 0) {
+                throw new EOFException("文件块数据不完整: " + currentTotalLength + "/" + count);
+            }
+            currentTotalLength = currentTotalLength + transferLength;
+        }
+    }
+
+    /**
+     * 在指定文件夹下创建临时文件
+     * 与Files.createTempFile不同 文件权限与普通文件一致 重命名为正式文件后其他用户仍可读取
+     *
+     * @param folder 文件夹
+     * @param prefix 文件名前缀
+     * @param suffix 文件名后缀
+     * @return 临时文件路径
+     * @throws IOException IO错误
+     */
+    public static Path createTempFile(Path folder, String prefix, String suffix) throws IOException {
+        while (true) {
+            Path tempPath = folder.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + suffix);
+            try {
+                return Files.createFile(tempPath);
+            } catch (FileAlreadyExistsException exception) {
+                // 文件名冲突 重新生成
+            }
+        }
+    }
+
+    /**
+     * 将摘要转为十六进制字符串
+     *
+     * @param digest 摘要
+     * @return 小写的十六进制字符串
+     */
+    public static String toHex(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
     }
 
     /**
@@ -0,0 +1,136 @@
+package file.transfer.service.utils;
+
+import file.transfer.service.entity.download.ByteRange;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTTP Range请求工具类 (RFC 7233)
+ *
+ * @author Cxx
+ */
+public class HttpRangeUtil {
+    private static final String BYTES_UNIT = "bytes=";
+    // 单个请求最多的字节范围个数 避免恶意请求
+    private static final int MAX_RANGES = 100;
+
+    /**
+     * 解析Range请求头
+     * 支持 bytes=a-b bytes=a- bytes=-n 以及多个范围 结束位置超出文件大小时取文件大小
+     *
+     * @param rangeHeader Range请求头
+     * @param fileSize    文件大小
+     * @return 字节范围列表 格式错误时返回null(忽略Range 返回整个文件) 没有可满足的范围时返回空列表(416)
+     */
+    public static List<ByteRange> parseRanges(String rangeHeader, long fileSize) {
+        if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        String[] rangeSpecs = rangeHeader.substring(BYTES_UNIT.length()).split(",");
+        if (rangeSpecs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(rangeSpecs.length);
+        for (String rangeSpec : rangeSpecs) {
+            rangeSpec = rangeSpec.trim();
+            int index = rangeSpec.indexOf('-');
+            if (index < 0) {
+                return null;
+            }
+
+            try {
+                String first = rangeSpec.substring(0, index).trim();
+                String last = rangeSpec.substring(index + 1).trim();
+                long start, end;
+                if (first.isEmpty()) {
+                    // bytes=-n 最后n个字节
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength <= 0) {
+                        continue;
+                    }
+                    start = Math.max(fileSize - suffixLength, 0);
+                    end = fileSize - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    // bytes=a- 从a到文件结尾
+                    end = last.isEmpty() ? fileSize - 1 : Math.min(Long.parseLong(last), fileSize - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                }
+
+                // 起始位置超出文件大小的范围不可满足
+                if (start < fileSize && start <= end) {
+                    ranges.add(new ByteRange(start, end));
+                }
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * 根据文件大小和修改时间生成强ETag
+     *
+     * @param fileSize     文件大小
+     * @param lastModified 修改时间
+     * @return ETag
+     */
+    public static String generateETag(long fileSize, long lastModified) {
+        return "\"" + Long.toHexString(fileSize) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * 判断If-Range条件是否成立 不成立时需要忽略Range返回整个文件
+     *
+     * @param ifRange          If-Range请求头 为ETag或HTTP日期
+     * @param ifRangeDate      If-Range解析后的日期 不是日期时为-1
+     * @param eTag             文件当前的ETag
+     * @param lastModified     文件修改时间
+     * @return 条件是否成立
+     */
+    public static boolean checkIfRange(String ifRange, long ifRangeDate, String eTag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        // 弱ETag不能用于Range请求
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+        // HTTP日期精确到秒
+        return ifRangeDate >= 0 && ifRangeDate / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * 判断条件GET是否成立 成立时返回304
+     * If-None-Match优先 不存在时才比较If-Modified-Since
+     *
+     * @param ifNoneMatch     If-None-Match请求头 可以包含多个ETag或者*
+     * @param ifModifiedSince If-Modified-Since解析后的日期 不存在时为-1
+     * @param eTag            文件当前的ETag
+     * @param lastModified    文件修改时间
+     * @return 文件是否没有变化
+     */
+    public static boolean checkNotModified(String ifNoneMatch, long ifModifiedSince, String eTag, long lastModified) {
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // If-None-Match使用弱比较
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || tag.equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // HTTP日期精确到秒
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+}
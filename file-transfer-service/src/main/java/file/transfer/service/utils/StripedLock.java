@@ -0,0 +1,38 @@
+package file.transfer.service.utils;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 分段读写锁 按键的哈希值映射到固定个数的锁 不同的键可能共用一个锁(只会多等待 不影响正确性)
+ * 使用StampedLock: 无竞争时加读锁只需一次CAS 且读锁可以在其他线程中释放(非阻塞上传的写入和提交不在同一个线程)
+ * StampedLock不可重入 持有锁时不能再对同一个键加锁
+ *
+ * @author Cxx
+ */
+public class StripedLock {
+    private final StampedLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes 锁的个数 向上取整为2的幂
+     */
+    public StripedLock(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.locks = new StampedLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * 获取键对应的锁
+     *
+     * @param key 键
+     * @return 锁
+     */
+    public StampedLock get(String key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & mask];
+    }
+}
@@ -0,0 +1,85 @@
+package file.transfer.service.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限流 无锁实现(GCRA): 只保存下一个令牌的理论到达时间 获取令牌时一次CAS
+ * 桶满时最多可以连续获取capacity个令牌 之后按rate个/秒的速度补充
+ *
+ * @author Cxx
+ */
+public class TokenBucket {
+    // 每个令牌的间隔(纳秒)
+    private final long intervalNanos;
+    // 允许的突发量(纳秒) capacity个令牌的时间
+    private final long burstNanos;
+    // 下一个令牌的理论到达时间
+    private final AtomicLong nextTime;
+
+    /**
+     * @param rate     每秒补充的令牌数
+     * @param capacity 桶的容量 即允许的突发量
+     */
+    public TokenBucket(long rate, long capacity) {
+        if (rate <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("令牌速率和桶容量必须大于0");
+        }
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burstNanos = intervalNanos * capacity;
+        this.nextTime = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * 尝试获取令牌 令牌不足时立即返回
+     *
+     * @param permits 令牌数 超过桶容量时永远无法获取
+     * @return 是否获取成功
+     */
+    public boolean tryAcquire(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextTime.get();
+            long next = Math.max(current, now - burstNanos) + permits * intervalNanos;
+            if (next - now > 0) {
+                return false;
+            }
+            if (nextTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取令牌 令牌不足时等待
+     * 先预占令牌再等待 等待期间其他线程排在后面 不会饿死
+     *
+     * @param permits 令牌数
+     */
+    public void acquire(long permits) {
+        long waitNanos = reserve(permits);
+        while (waitNanos > 0 && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(waitNanos);
+            waitNanos -= System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * 预占令牌
+     *
+     * @param permits 令牌数
+     * @return 需要等待的时间(纳秒) 0表示无需等待
+     */
+    public long reserve(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextTime.get();
+            long next = Math.max(current, now - burstNanos) + permits * intervalNanos;
+            if (nextTime.compareAndSet(current, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package file.transfer.service.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIf;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 开启虚拟线程时请求、合并和定时任务使用的线程
+ * 虚拟线程需要JDK 21 在更早的JDK上运行时校验回退到平台线程
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "file-transfer.executor.virtual-threads=true")
+class ExecutorConfigTest {
+    @LocalServerPort
+    private int port;
+
+    @Resource
+    private ExecutorService mergeExecutor;
+
+    @Resource
+    private ExecutorService mergeJobExecutor;
+
+    @Resource
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    @Test
+    @EnabledIf("supportsVirtualThreads")
+    void runOnVirtualThreads() throws Exception {
+        assertThat(requestThread()).startsWith("true request-");
+        assertThat(mergeExecutor.submit(ExecutorConfigTest::describeThread).get()).startsWith("true merge-");
+        assertThat(mergeJobExecutor.submit(ExecutorConfigTest::describeThread).get()).startsWith("true merge-job-");
+        assertThat(taskScheduler.submit(ExecutorConfigTest::describeThread).get()).startsWith("true scheduling-");
+    }
+
+    @Test
+    @DisabledIf("supportsVirtualThreads")
+    void fallBackToPlatformThreads() throws Exception {
+        assertThat(requestThread()).startsWith("false http-nio-");
+        assertThat(mergeExecutor.submit(ExecutorConfigTest::describeThread).get()).startsWith("false merge-");
+        assertThat(mergeJobExecutor.submit(ExecutorConfigTest::describeThread).get()).startsWith("false merge-job-");
+        assertThat(taskScheduler.submit(ExecutorConfigTest::describeThread).get()).startsWith("false scheduling-");
+    }
+
+    private String requestThread() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/test/thread")).build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    /**
+     * 当前线程是否为虚拟线程及线程名 Thread.isVirtual()为JDK 21的方法 通过反射调用
+     */
+    private static String describeThread() {
+        boolean virtual;
+        try {
+            virtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+        } catch (ReflectiveOperationException exception) {
+            virtual = false;
+        }
+        return virtual + " " + Thread.currentThread().getName();
+    }
+
+    static boolean supportsVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    @TestConfiguration
+    static class ThreadProbeConfig {
+        @Bean
+        ThreadProbeController threadProbeController() {
+            return new ThreadProbeController();
+        }
+    }
+
+    @RestController
+    static class ThreadProbeController {
+        @GetMapping("/test/thread")
+        String thread() {
+            return describeThread();
+        }
+    }
+}
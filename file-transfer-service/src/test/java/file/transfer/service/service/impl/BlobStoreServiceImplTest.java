@@ -0,0 +1,112 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ContentDigest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlobStoreServiceImplTest {
+    private static final String DIGEST = "0123456789ABCDEF0123456789abcdef";
+    private static final String IDENTIFIER = "00112233445566778899aabbccddeeff";
+    private static final String LAST_CHUNK_HASH = "ffeeddccbbaa99887766554433221100";
+
+    @TempDir
+    Path tempDir;
+
+    private TransferProperties transferProperties;
+    private BlobStoreServiceImpl blobStoreService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        transferProperties.getDedup().setEnabled(true);
+        transferProperties.getDedup().setBlobPath(tempDir.resolve("blobs").toString());
+        blobStoreService = new BlobStoreServiceImpl();
+        ReflectionTestUtils.setField(blobStoreService, "transferProperties", transferProperties);
+    }
+
+    @Test
+    void blobKeyedByDigestAndSize() {
+        Path blobPath = blobStoreService.getBlobPath(DIGEST, 100);
+
+        assertThat(blobPath).isEqualTo(tempDir.resolve("blobs").resolve("01")
+                .resolve("0123456789abcdef0123456789abcdef-100"));
+        // 相同MD5不同大小的内容分开保存
+        assertThat(blobStoreService.getBlobPath(DIGEST, 101)).isNotEqualTo(blobPath);
+        assertThat(blobStoreService.getBlobPath(DIGEST.toLowerCase(), 100)).isEqualTo(blobPath);
+        assertThat(blobStoreService.getUploadPath(IDENTIFIER, LAST_CHUNK_HASH, 100)).isEqualTo(tempDir.resolve("blobs")
+                .resolve("00").resolve(IDENTIFIER + "-" + LAST_CHUNK_HASH + "-100"));
+    }
+
+    @Test
+    void noBlobForInvalidKey() {
+        assertThat(blobStoreService.getBlobPath(null, 100)).isNull();
+        assertThat(blobStoreService.getBlobPath("../../etc/passwd", 100)).isNull();
+        assertThat(blobStoreService.getBlobPath(DIGEST.substring(1), 100)).isNull();
+        assertThat(blobStoreService.getBlobPath(DIGEST, -1)).isNull();
+        assertThat(blobStoreService.getUploadPath(IDENTIFIER, null, 100)).isNull();
+        assertThat(blobStoreService.getUploadPath("../" + IDENTIFIER, LAST_CHUNK_HASH, 100)).isNull();
+
+        transferProperties.getDedup().setEnabled(false);
+        assertThat(blobStoreService.getBlobPath(DIGEST, 100)).isNull();
+        assertThat(blobStoreService.getUploadPath(IDENTIFIER, LAST_CHUNK_HASH, 100)).isNull();
+    }
+
+    @Test
+    void sameContentLinked() throws Exception {
+        Path first = Files.write(tempDir.resolve("a.bin"), new byte[]{1, 2, 3});
+        Path second = Files.write(tempDir.resolve("b.bin"), new byte[]{1, 2, 3});
+
+        blobStoreService.storeBlob(contentDigest(), 3, first);
+        blobStoreService.storeBlob(contentDigest(), 3, second);
+
+        // 第二个文件替换为已有内容的硬链接
+        assertThat(Files.isSameFile(first, second)).isTrue();
+        assertThat(Files.isSameFile(first, blobStoreService.getBlobPath(DIGEST, 3))).isTrue();
+        assertThat(Files.readAllBytes(second)).containsExactly(1, 2, 3);
+        try (var files = Files.list(tempDir)) {
+            assertThat(files.filter(path -> path.toString().endsWith(".tmp"))).isEmpty();
+        }
+    }
+
+    @Test
+    void differentSizeNotLinked() throws Exception {
+        Path first = Files.write(tempDir.resolve("a.bin"), new byte[]{1, 2, 3});
+        Path second = Files.write(tempDir.resolve("b.bin"), new byte[]{1, 2, 3, 4});
+
+        blobStoreService.storeBlob(contentDigest(), 3, first);
+        blobStoreService.storeBlob(contentDigest(), 4, second);
+
+        assertThat(Files.isSameFile(first, second)).isFalse();
+        assertThat(Files.readAllBytes(second)).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void linkStoredContentByUploadKey() throws Exception {
+        Path file = Files.write(tempDir.resolve("a.bin"), new byte[]{1, 2, 3});
+        Path target = tempDir.resolve("other").resolve("c.bin");
+
+        // 保存之前没有可以链接的内容
+        assertThat(blobStoreService.linkBlob(IDENTIFIER, LAST_CHUNK_HASH, 3, target)).isFalse();
+        blobStoreService.storeBlob(contentDigest(), 3, file);
+
+        // 最后一个文件块或者文件大小不同时不链接
+        assertThat(blobStoreService.linkBlob(IDENTIFIER, DIGEST, 3, target)).isFalse();
+        assertThat(blobStoreService.linkBlob(IDENTIFIER, LAST_CHUNK_HASH, 4, target)).isFalse();
+        assertThat(target).doesNotExist();
+
+        assertThat(blobStoreService.linkBlob(IDENTIFIER.toUpperCase(), LAST_CHUNK_HASH, 3, target)).isTrue();
+        assertThat(Files.isSameFile(file, target)).isTrue();
+    }
+
+    private ContentDigest contentDigest() {
+        return new ContentDigest(DIGEST, IDENTIFIER, LAST_CHUNK_HASH);
+    }
+}
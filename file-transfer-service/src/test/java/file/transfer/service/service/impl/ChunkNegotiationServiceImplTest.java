@@ -0,0 +1,120 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ChunkNegotiation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkNegotiationServiceImplTest {
+    private static final String CLIENT = "127.0.0.1";
+    private static final String FOLDER = "upload";
+    private static final long MB = 1024 * 1024;
+    private static final long TOTAL_SIZE = 100 * MB;
+
+    private TransferProperties transferProperties;
+    private ChunkNegotiationServiceImpl chunkNegotiationService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        chunkNegotiationService = new ChunkNegotiationServiceImpl();
+        ReflectionTestUtils.setField(chunkNegotiationService, "transferProperties", transferProperties);
+    }
+
+    @Test
+    void defaultWithoutThroughput() {
+        ChunkNegotiation chunkNegotiation = negotiate("a.bin", null);
+
+        assertThat(chunkNegotiation.getChunkSize()).isEqualTo(2 * MB);
+        assertThat(chunkNegotiation.getSimultaneousUploads()).isEqualTo(3);
+        assertThat(chunkNegotiation.getThroughput()).isZero();
+        assertThat(chunkNegotiation.getMaxChunkSize()).isEqualTo(64 * MB);
+        assertThat(chunkNegotiation.getNegotiationId()).isNotNull();
+        assertThat(chunkNegotiationService.getMaxChunkSize(chunkNegotiation.getNegotiationId())).isEqualTo(2 * MB);
+    }
+
+    @Test
+    void sizeFromThroughput() {
+        recordChunk(3 * MB);
+
+        // 3MB/s 目标上传时间2秒 取2的幂
+        ChunkNegotiation chunkNegotiation = negotiate("a.bin", null);
+        assertThat(chunkNegotiation.getThroughput()).isEqualTo(3 * MB);
+        assertThat(chunkNegotiation.getChunkSize()).isEqualTo(4 * MB);
+        assertThat(chunkNegotiation.getSimultaneousUploads()).isEqualTo(3);
+        assertThat(chunkNegotiationService.getMaxChunkSize(chunkNegotiation.getNegotiationId())).isEqualTo(4 * MB);
+
+        // RTT较大时文件块的上传时间至少为RTT的10倍
+        assertThat(negotiate("b.bin", 1000L).getChunkSize()).isEqualTo(16 * MB);
+    }
+
+    @Test
+    void sameFileKeepsChunkSize() {
+        long chunkSize = negotiate("a.bin", null).getChunkSize();
+        recordChunk(32 * MB);
+
+        // 文件标识按文件块大小计算 同一个文件再次协商时不变 保证可以续传
+        ChunkNegotiation chunkNegotiation = negotiate("a.bin", null);
+        assertThat(chunkNegotiation.getChunkSize()).isEqualTo(chunkSize);
+        assertThat(chunkNegotiationService.getMaxChunkSize(chunkNegotiation.getNegotiationId())).isEqualTo(chunkSize);
+        assertThat(negotiate("b.bin", null).getChunkSize()).isEqualTo(64 * MB);
+    }
+
+    @Test
+    void clampToMinAndMax() {
+        recordChunk(100 * 1024);
+        assertThat(negotiate("slow.bin", null).getChunkSize()).isEqualTo(256 * 1024);
+
+        recordChunk(1024 * MB);
+        recordChunk(1024 * MB);
+        ChunkNegotiation chunkNegotiation = negotiate("fast.bin", null);
+        assertThat(chunkNegotiation.getChunkSize()).isEqualTo(64 * MB);
+        assertThat(chunkNegotiation.getSimultaneousUploads()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void unknownNegotiationFallsBack() {
+        assertThat(chunkNegotiationService.getMaxChunkSize(null)).isEqualTo(64 * MB);
+        assertThat(chunkNegotiationService.getMaxChunkSize("unknown")).isEqualTo(64 * MB);
+
+        // 超出上限时淘汰最久未使用的协商结果
+        transferProperties.getNegotiation().setMaxEntries(1);
+        String first = negotiate("a.bin", null).getNegotiationId();
+        String second = negotiate("b.bin", null).getNegotiationId();
+        assertThat(chunkNegotiationService.getMaxChunkSize(first)).isEqualTo(64 * MB);
+        assertThat(chunkNegotiationService.getMaxChunkSize(second)).isEqualTo(2 * MB);
+
+        // 调小max-chunk-size后不超过新的上限
+        transferProperties.getUpload().setMaxChunkSize(DataSize.ofMegabytes(1));
+        assertThat(chunkNegotiationService.getMaxChunkSize(second)).isEqualTo(MB);
+    }
+
+    @Test
+    void disabledReturnsDefault() {
+        transferProperties.getNegotiation().setEnabled(false);
+        recordChunk(32 * MB);
+
+        ChunkNegotiation chunkNegotiation = negotiate("a.bin", null);
+        assertThat(chunkNegotiation.getChunkSize()).isEqualTo(2 * MB);
+        assertThat(chunkNegotiation.getThroughput()).isZero();
+        assertThat(chunkNegotiation.getNegotiationId()).isNull();
+        assertThat(chunkNegotiationService.getMaxChunkSize("unknown")).isEqualTo(64 * MB);
+    }
+
+    private ChunkNegotiation negotiate(String filename, Long rtt) {
+        return chunkNegotiationService.negotiate(CLIENT, FOLDER, filename, TOTAL_SIZE, rtt);
+    }
+
+    /**
+     * 记录一个耗时1秒的文件块 吞吐量为bytes字节/秒
+     */
+    private void recordChunk(long bytes) {
+        chunkNegotiationService.recordChunk(CLIENT, bytes, TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,204 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.ChunkResult;
+import file.transfer.service.service.ChunkService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// 关闭自动合并 由测试调用mergeFile
+@SpringBootTest(properties = "file-transfer.merge.auto-merge=false")
+class ChunkServiceImplTest {
+    private static final String IDENTIFIER = "1024-abin";
+    private static final String FILENAME = "a.bin";
+    private static final int CHUNK_SIZE = 1024;
+    private static final int TOTAL_SIZE = CHUNK_SIZE * 2 + 100;
+
+    @TempDir
+    Path uploadFolder;
+
+    @Resource
+    private ChunkService chunkService;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    private final byte[] content = createContent();
+
+    @AfterEach
+    void tearDown() {
+        transferProperties.getUpload().setMode(TransferProperties.UploadMode.CHUNK_FILE);
+        transferProperties.getDedup().setEnabled(false);
+    }
+
+    @Test
+    void removeTempFileWhenCommitFails() throws IOException {
+        // 文件块路径被非空文件夹占用 临时文件无法重命名
+        Path chunkPath = Files.createDirectories(getLocalFolder().resolve(FILENAME + "_1"));
+        Files.createFile(chunkPath.resolve("other"));
+
+        assertThatThrownBy(() -> saveChunk(1)).isInstanceOf(IOException.class);
+        try (var files = Files.list(getLocalFolder())) {
+            assertThat(files.filter(path -> path.toString().endsWith(".tmp"))).isEmpty();
+        }
+    }
+
+    @Test
+    void mergeChunkFilesInOrder() throws IOException {
+        // 文件块乱序到达
+        saveChunk(3);
+        saveChunk(1);
+        saveChunk(2);
+
+        assertThat(mergeFile()).isTrue();
+        assertThat(Files.readAllBytes(getLocalFile())).isEqualTo(content);
+        // 合并后删除文件块和位图
+        try (var files = Files.list(getLocalFolder())) {
+            assertThat(files).containsExactly(getLocalFile());
+        }
+    }
+
+    @Test
+    void instantUploadOfSameContent() throws IOException {
+        transferProperties.getDedup().setEnabled(true);
+        transferProperties.getDedup().setBlobPath(uploadFolder.resolve("blobs").toString());
+        saveChunk(1);
+        saveChunk(2);
+        saveChunk(3);
+        assertThat(mergeFile()).isTrue();
+
+        // 前端计算的文件标识为除最后一个文件块外的MD5
+        String identifier = DigestUtils.md5DigestAsHex(Arrays.copyOfRange(content, 0, CHUNK_SIZE * 2));
+        String lastChunkHash = DigestUtils.md5DigestAsHex(Arrays.copyOfRange(content, CHUNK_SIZE * 2, TOTAL_SIZE));
+        String otherFolder = uploadFolder.resolve("other").toString();
+
+        // 最后一个文件块不同的文件不能秒传
+        ChunkResult chunkResult = chunkService.checkChunk(identifier, "b.bin", otherFolder,
+                DigestUtils.md5DigestAsHex(new byte[0]), (long) TOTAL_SIZE);
+        assertThat(chunkResult.isSkipUpload()).isFalse();
+
+        // 其他文件名上传相同内容 不上传任何文件块直接链接
+        chunkResult = chunkService.checkChunk(identifier, "b.bin", otherFolder, lastChunkHash, (long) TOTAL_SIZE);
+        assertThat(chunkResult.isSkipUpload()).isTrue();
+        Path linkedFile = Path.of(otherFolder, identifier, "b.bin");
+        assertThat(Files.isSameFile(linkedFile, getLocalFile())).isTrue();
+        assertThat(Files.readAllBytes(linkedFile)).isEqualTo(content);
+    }
+
+    @Test
+    void directWriteAtChunkPosition() throws IOException {
+        transferProperties.getUpload().setMode(TransferProperties.UploadMode.DIRECT_WRITE);
+
+        saveChunk(2);
+        saveChunk(3);
+        saveChunk(1);
+
+        assertThat(mergeFile()).isTrue();
+        assertThat(Files.readAllBytes(getLocalFile())).isEqualTo(content);
+    }
+
+    @Test
+    void refuseIncompleteMerge() throws IOException {
+        saveChunk(1);
+        saveChunk(3);
+
+        assertThat(mergeFile()).isFalse();
+        assertThat(getLocalFile()).doesNotExist();
+
+        // 补齐文件块后可以合并
+        saveChunk(2);
+        assertThat(mergeFile()).isTrue();
+        assertThat(Files.readAllBytes(getLocalFile())).isEqualTo(content);
+    }
+
+    @Test
+    void refuseIncompleteDirectWrite() throws IOException {
+        transferProperties.getUpload().setMode(TransferProperties.UploadMode.DIRECT_WRITE);
+
+        saveChunk(2);
+        saveChunk(3);
+
+        // 预分配的目标文件大小已经完整 不能据此判断
+        assertThat(mergeFile()).isFalse();
+        assertThat(getLocalFile()).doesNotExist();
+    }
+
+    @Test
+    void rejectInvalidChunkInfo() {
+        transferProperties.getUpload().setMode(TransferProperties.UploadMode.DIRECT_WRITE);
+        List<Consumer<ChunkInfo>> invalidations = List.of(
+                chunkInfo -> chunkInfo.setTotalChunks(null),
+                chunkInfo -> chunkInfo.setChunkSize(null),
+                chunkInfo -> chunkInfo.setTotalSize(null),
+                chunkInfo -> chunkInfo.setChunkSize(-1L),
+                chunkInfo -> chunkInfo.setChunkNumber(0),
+                chunkInfo -> chunkInfo.setChunkNumber(4),
+                chunkInfo -> chunkInfo.setMultipartFile(null));
+
+        for (Consumer<ChunkInfo> invalidation : invalidations) {
+            ChunkInfo chunkInfo = createChunkInfo(1, new byte[CHUNK_SIZE]);
+            invalidation.accept(chunkInfo);
+            // 在写入之前拒绝 不会因为空值返回500
+            assertThatThrownBy(() -> chunkService.saveChunk(chunkInfo, uploadFolder.toString()))
+                    .isInstanceOf(IOException.class);
+        }
+        assertThat(getLocalFolder()).doesNotExist();
+    }
+
+    private void saveChunk(int chunkNumber) throws IOException {
+        int start = (chunkNumber - 1) * CHUNK_SIZE;
+        byte[] bytes = Arrays.copyOfRange(content, start, Math.min(start + CHUNK_SIZE, TOTAL_SIZE));
+
+        ChunkInfo chunkInfo = createChunkInfo(chunkNumber, bytes);
+        chunkService.saveChunk(chunkInfo, uploadFolder.toString());
+    }
+
+    private ChunkInfo createChunkInfo(int chunkNumber, byte[] bytes) {
+        ChunkInfo chunkInfo = new ChunkInfo();
+        chunkInfo.setChunkNumber(chunkNumber);
+        chunkInfo.setChunkSize((long) CHUNK_SIZE);
+        chunkInfo.setCurrentChunkSize((long) bytes.length);
+        chunkInfo.setTotalSize((long) TOTAL_SIZE);
+        chunkInfo.setIdentifier(IDENTIFIER);
+        chunkInfo.setFilename(FILENAME);
+        chunkInfo.setTotalChunks(3);
+        chunkInfo.setMultipartFile(new MockMultipartFile("upfile", FILENAME, null, bytes));
+        return chunkInfo;
+    }
+
+    private boolean mergeFile() {
+        return chunkService.mergeFile(getLocalFile().toString(), getLocalFolder().toString(), FILENAME);
+    }
+
+    private Path getLocalFolder() {
+        return uploadFolder.resolve(IDENTIFIER);
+    }
+
+    private Path getLocalFile() {
+        return getLocalFolder().resolve(FILENAME);
+    }
+
+    private static byte[] createContent() {
+        byte[] bytes = new byte[TOTAL_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31 / CHUNK_SIZE + i);
+        }
+        return bytes;
+    }
+}
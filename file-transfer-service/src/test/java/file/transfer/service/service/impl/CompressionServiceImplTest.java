@@ -0,0 +1,180 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ContentEncoding;
+import file.transfer.service.entity.download.FileMetadata;
+import file.transfer.service.entity.download.FileRepresentation;
+import file.transfer.service.service.FileMetadataService;
+import file.transfer.service.utils.CompressionUtil;
+import file.transfer.service.utils.HttpRangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressionServiceImplTest {
+    @TempDir
+    Path tempDir;
+
+    private TransferProperties transferProperties;
+    private ThreadPoolExecutor compressExecutor;
+    private CompressionServiceImpl compressionService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        transferProperties.getCompression().setCachePath(tempDir.resolve("compressed").toString());
+        compressExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "compress-test"));
+
+        compressionService = new CompressionServiceImpl();
+        ReflectionTestUtils.setField(compressionService, "transferProperties", transferProperties);
+        FileMetadataService fileMetadataService = this::readMetadata;
+        ReflectionTestUtils.setField(compressionService, "fileMetadataService", fileMetadataService);
+        ReflectionTestUtils.setField(compressionService, "compressExecutor", compressExecutor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        compressExecutor.shutdownNow();
+    }
+
+    @Test
+    void compressOnCompressExecutor() throws Exception {
+        Path file = createText("a.txt");
+        FileMetadata fileMetadata = readMetadata(file);
+
+        // 显式指定编码时等待压缩完成
+        FileRepresentation representation = compressionService.select(file, fileMetadata, "gzip", null, true);
+
+        assertThat(representation.getEncoding()).isEqualTo(ContentEncoding.GZIP);
+        assertThat(representation.isExplicit()).isTrue();
+        assertThat(representation.getPath()).startsWith(tempDir.resolve("compressed"));
+        assertThat(representation.getMetadata().getSize()).isLessThan(fileMetadata.getSize());
+        assertThat(representation.getMetadata().getLastModified()).isEqualTo(fileMetadata.getLastModified());
+        assertThat(representation.getMetadata().getETag()).endsWith("-gzip\"");
+        // 压缩任务在压缩线程池中执行 结果先于任务计数更新
+        awaitCompressions(1);
+        assertThat(compressExecutor.getCompletedTaskCount()).isEqualTo(1);
+        try (InputStream inputStream = CompressionUtil.decode(Files.newInputStream(representation.getPath()),
+                ContentEncoding.GZIP)) {
+            assertThat(inputStream.readAllBytes()).isEqualTo(Files.readAllBytes(file));
+        }
+
+        // 已经压缩的文件不再压缩
+        assertThat(compressionService.select(file, fileMetadata, "gzip", null, true).getPath())
+                .isEqualTo(representation.getPath());
+        assertThat(compressExecutor.getCompletedTaskCount()).isEqualTo(1);
+    }
+
+    @Test
+    void negotiateInBackground() throws Exception {
+        Path file = createText("a.txt");
+        FileMetadata fileMetadata = readMetadata(file);
+
+        // 带Range时不根据Accept-Encoding协商
+        assertThat(compressionService.select(file, fileMetadata, null, "gzip", true).getEncoding()).isNull();
+        assertThat(compressExecutor.getTaskCount()).isZero();
+
+        // 第一次下载原文件 在后台压缩
+        assertThat(compressionService.select(file, fileMetadata, null, "gzip", false).getEncoding()).isNull();
+        awaitCompressions(1);
+        FileRepresentation representation = compressionService.select(file, fileMetadata, null, "gzip", false);
+        assertThat(representation.getEncoding()).isEqualTo(ContentEncoding.GZIP);
+        assertThat(representation.isExplicit()).isFalse();
+    }
+
+    @Test
+    void skipSmallFile() throws IOException {
+        Path file = Files.write(tempDir.resolve("a.txt"), "small".getBytes(StandardCharsets.UTF_8));
+
+        FileRepresentation representation = compressionService.select(file, readMetadata(file), "gzip", null, true);
+
+        assertThat(representation.getEncoding()).isNull();
+        assertThat(representation.getPath()).isEqualTo(file);
+        assertThat(compressExecutor.getTaskCount()).isZero();
+    }
+
+    @Test
+    void skipIncompressibleFile() throws Exception {
+        byte[] bytes = new byte[64 * 1024];
+        new Random(0).nextBytes(bytes);
+        Path file = Files.write(tempDir.resolve("a.bin"), bytes);
+        FileMetadata fileMetadata = readMetadata(file);
+
+        assertThat(compressionService.select(file, fileMetadata, "gzip", null, true).getEncoding()).isNull();
+        // 不可压缩的文件只尝试一次
+        assertThat(compressionService.select(file, fileMetadata, "gzip", null, true).getEncoding()).isNull();
+        awaitCompressions(1);
+        assertThat(compressExecutor.getCompletedTaskCount()).isEqualTo(1);
+        try (var files = Files.list(tempDir.resolve("compressed"))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void fallBackToIdentityOnTimeout() throws Exception {
+        transferProperties.getCompression().setWaitTimeout(Duration.ofMillis(50));
+        Path file = createText("a.txt");
+        FileMetadata fileMetadata = readMetadata(file);
+
+        // 压缩线程被占用 等待超时后返回原文件
+        CountDownLatch latch = new CountDownLatch(1);
+        compressExecutor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        FileRepresentation representation = compressionService.select(file, fileMetadata, "gzip", null, true);
+        assertThat(representation.getEncoding()).isNull();
+        assertThat(representation.getPath()).isEqualTo(file);
+
+        // 压缩在后台继续 完成后返回压缩文件
+        latch.countDown();
+        awaitCompressions(2);
+        assertThat(compressionService.select(file, fileMetadata, "gzip", null, true).getEncoding())
+                .isEqualTo(ContentEncoding.GZIP);
+    }
+
+    private void awaitCompressions(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (compressExecutor.getCompletedTaskCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Path createText(String name) throws IOException {
+        return Files.write(tempDir.resolve(name), "file transfer ".repeat(1024).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FileMetadata readMetadata(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException exception) {
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        return new FileMetadata(attributes.size(), lastModified,
+                HttpRangeUtil.generateETag(attributes.size(), lastModified));
+    }
+}
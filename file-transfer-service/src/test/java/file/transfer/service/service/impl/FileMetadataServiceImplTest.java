@@ -0,0 +1,101 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.FileMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileMetadataServiceImplTest {
+    @TempDir
+    Path tempDir;
+
+    private TransferProperties transferProperties;
+    private FileMetadataServiceImpl fileMetadataService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        TransferMetricsServiceImpl transferMetricsService = new TransferMetricsServiceImpl();
+        ReflectionTestUtils.setField(transferMetricsService, "meterRegistry", new SimpleMeterRegistry());
+        transferMetricsService.init();
+        ReadCacheServiceImpl readCacheService = new ReadCacheServiceImpl();
+        ReflectionTestUtils.setField(readCacheService, "transferProperties", transferProperties);
+        ReflectionTestUtils.setField(readCacheService, "transferMetricsService", transferMetricsService);
+
+        fileMetadataService = new FileMetadataServiceImpl();
+        ReflectionTestUtils.setField(fileMetadataService, "transferProperties", transferProperties);
+        ReflectionTestUtils.setField(fileMetadataService, "readCacheService", readCacheService);
+        fileMetadataService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileMetadataService.destroy();
+    }
+
+    @Test
+    void readMetadata() throws IOException {
+        Path file = Files.write(tempDir.resolve("a.bin"), new byte[10]);
+
+        FileMetadata fileMetadata = fileMetadataService.getMetadata(file);
+
+        assertThat(fileMetadata.getSize()).isEqualTo(10);
+        assertThat(fileMetadata.getLastModified()).isEqualTo(Files.getLastModifiedTime(file).toMillis());
+        assertThat(fileMetadataService.getMetadata(file)).isSameAs(fileMetadata);
+        assertThat(fileMetadataService.getMetadata(tempDir.resolve("none"))).isNull();
+        assertThat(fileMetadataService.getMetadata(tempDir)).isNull();
+    }
+
+    @Test
+    void invalidateModifiedFile() throws Exception {
+        Path file = Files.write(tempDir.resolve("a.bin"), new byte[10]);
+        FileMetadata fileMetadata = fileMetadataService.getMetadata(file);
+
+        Files.write(file, new byte[20]);
+
+        // 监听事件异步到达
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (getMetadataCache().containsKey(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(fileMetadataService.getMetadata(file)).isNotSameAs(fileMetadata)
+                .extracting(FileMetadata::getSize).isEqualTo(20L);
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() throws IOException {
+        transferProperties.getMetadataCache().setMaxEntries(2);
+        Path first = Files.write(tempDir.resolve("a.bin"), new byte[10]);
+        Path second = Files.write(tempDir.resolve("b.bin"), new byte[10]);
+        Path third = Files.write(tempDir.resolve("c.bin"), new byte[10]);
+
+        fileMetadataService.getMetadata(first);
+        fileMetadataService.getMetadata(second);
+        // 访问第一个文件后 第二个文件最久未访问
+        fileMetadataService.getMetadata(first);
+        // 超出上限时仍然缓存新的文件
+        fileMetadataService.getMetadata(third);
+
+        assertThat(getMetadataCache()).containsOnlyKeys(first, third);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Path, FileMetadata> getMetadataCache() {
+        Map<Path, FileMetadata> metadataCache =
+                (Map<Path, FileMetadata>) ReflectionTestUtils.getField(fileMetadataService, "metadataCache");
+        synchronized (metadataCache) {
+            return Map.copyOf(metadataCache);
+        }
+    }
+}
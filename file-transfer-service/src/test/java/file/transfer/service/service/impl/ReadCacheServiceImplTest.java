@@ -0,0 +1,155 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.download.ByteRange;
+import file.transfer.service.entity.download.CachedFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReadCacheServiceImplTest {
+    @TempDir
+    Path tempDir;
+
+    private TransferProperties transferProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private ReadCacheServiceImpl readCacheService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        transferProperties.getReadCache().setSegmentSize(DataSize.ofBytes(4));
+        meterRegistry = new SimpleMeterRegistry();
+        TransferMetricsServiceImpl transferMetricsService = new TransferMetricsServiceImpl();
+        ReflectionTestUtils.setField(transferMetricsService, "meterRegistry", meterRegistry);
+        transferMetricsService.init();
+
+        readCacheService = new ReadCacheServiceImpl();
+        ReflectionTestUtils.setField(readCacheService, "transferProperties", transferProperties);
+        ReflectionTestUtils.setField(readCacheService, "transferMetricsService", transferMetricsService);
+    }
+
+    @Test
+    void reuseOpenedFile() throws IOException {
+        Path file = createFile("a.bin", 10);
+
+        CachedFile first = open(file);
+        first.close();
+        CachedFile second = open(file);
+        second.close();
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.getChannel().isOpen()).isTrue();
+        assertThat(second.getHits().get()).isEqualTo(2);
+        assertThat(readCacheService.isHot(second)).isTrue();
+    }
+
+    @Test
+    void reopenChangedFile() throws IOException {
+        Path file = createFile("a.bin", 10);
+        CachedFile first = open(file);
+        first.close();
+
+        // 大小或修改时间不一致时重新打开 旧文件没有其他引用时关闭
+        CachedFile resized = readCacheService.open(file, 11, first.getLastModified());
+        resized.close();
+        assertThat(resized).isNotSameAs(first);
+        assertThat(first.getChannel().isOpen()).isFalse();
+
+        CachedFile touched = readCacheService.open(file, 11, first.getLastModified() + 1);
+        touched.close();
+        assertThat(touched).isNotSameAs(resized);
+        assertThat(resized.getChannel().isOpen()).isFalse();
+    }
+
+    @Test
+    void invalidateKeepsOngoingDownload() throws IOException {
+        Path file = createFile("a.bin", 10);
+        CachedFile downloading = open(file);
+
+        readCacheService.invalidate(file);
+        // 正在进行的下载结束后才关闭
+        assertThat(downloading.getChannel().isOpen()).isTrue();
+        downloading.close();
+        assertThat(downloading.getChannel().isOpen()).isFalse();
+
+        CachedFile reopened = open(file);
+        reopened.close();
+        assertThat(reopened).isNotSameAs(downloading);
+    }
+
+    @Test
+    void invalidateFolderOnly() throws IOException {
+        Path folder = Files.createDirectories(tempDir.resolve("folder"));
+        CachedFile inFolder = open(Files.write(folder.resolve("a.bin"), new byte[10]));
+        inFolder.close();
+        CachedFile outside = open(createFile("b.bin", 10));
+        outside.close();
+
+        readCacheService.invalidateFolder(folder);
+
+        assertThat(inFolder.getChannel().isOpen()).isFalse();
+        assertThat(outside.getChannel().isOpen()).isTrue();
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() throws IOException {
+        transferProperties.getReadCache().setMaxFiles(2);
+        Path first = createFile("a.bin", 10);
+        Path second = createFile("b.bin", 10);
+        CachedFile firstFile = open(first);
+        firstFile.close();
+        CachedFile secondFile = open(second);
+        secondFile.close();
+
+        // 访问第一个文件后 第二个文件最久未访问
+        open(first).close();
+        CachedFile thirdFile = open(createFile("c.bin", 10));
+        thirdFile.close();
+
+        assertThat(firstFile.getChannel().isOpen()).isTrue();
+        assertThat(secondFile.getChannel().isOpen()).isFalse();
+        assertThat(thirdFile.getChannel().isOpen()).isTrue();
+        assertThat(meterRegistry.counter("file.transfer.read.cache", "result", "hit").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void transferRangeAcrossSegments() throws IOException {
+        Path file = createFile("a.bin", 10);
+        byte[] content = Files.readAllBytes(file);
+
+        // 第一次通过FileChannel读取 第二次成为热点文件后通过内存映射读取
+        for (int i = 0; i < 2; i++) {
+            try (CachedFile cachedFile = open(file)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                readCacheService.transferTo(cachedFile, new ByteRange(3, 8), Channels.newChannel(outputStream));
+                assertThat(outputStream.toByteArray()).isEqualTo(Arrays.copyOfRange(content, 3, 9));
+            }
+        }
+    }
+
+    private CachedFile open(Path file) throws IOException {
+        return readCacheService.open(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    private Path createFile(String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return Files.write(tempDir.resolve(name), bytes);
+    }
+}
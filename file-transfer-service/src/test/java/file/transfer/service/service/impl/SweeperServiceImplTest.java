@@ -0,0 +1,119 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.service.ChunkService;
+import file.transfer.service.service.SweeperService;
+import file.transfer.service.utils.ChunkBitmap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 关闭自动合并 由测试调用sweep
+@SpringBootTest(properties = "file-transfer.merge.auto-merge=false")
+class SweeperServiceImplTest {
+    private static final String IDENTIFIER = "1024-abin";
+    private static final String FILENAME = "a.bin";
+
+    @TempDir
+    Path uploadFolder;
+
+    @Resource
+    private SweeperService sweeperService;
+
+    @Resource
+    private ChunkService chunkService;
+
+    @Resource
+    private TransferProperties transferProperties;
+
+    // 上传文件夹中用户自己的文件 命名与上传残留文件相同
+    private List<Path> userFiles;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path userFolder = Files.createDirectories(uploadFolder.resolve("photos"));
+        userFiles = Stream.of("name_1", "name_2", "name.part", "name_1.123.tmp", "name.123.merging", "notes.tmp")
+                .map(userFolder::resolve)
+                .collect(Collectors.toList());
+        for (Path userFile : userFiles) {
+            Files.write(userFile, new byte[100]);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        transferProperties.getSweeper().setQuota(DataSize.ofBytes(0));
+    }
+
+    @Test
+    void sweepOnlyUploadSessions() throws IOException {
+        saveChunk();
+        // 服务重启前留下的上传 只有位图和文件块
+        Path restartedFolder = Files.createDirectories(uploadFolder.resolve("2048-bbin"));
+        new ChunkBitmap(2).store(restartedFolder.resolve("b.bin.chunks"));
+        Files.write(restartedFolder.resolve("b.bin_1"), new byte[100]);
+        expireAll();
+
+        long sweptUploads = sweeperService.getSweptUploads();
+        sweeperService.sweep();
+
+        assertThat(uploadFolder.resolve(IDENTIFIER)).doesNotExist();
+        assertThat(restartedFolder).doesNotExist();
+        assertThat(sweeperService.getSweptUploads()).isEqualTo(sweptUploads + 2);
+        assertThat(userFiles).allMatch(Files::exists);
+    }
+
+    @Test
+    void evictOnlyUploadSessions() throws IOException {
+        transferProperties.getSweeper().setQuota(DataSize.ofBytes(1));
+        saveChunk();
+
+        // 没有过期 超出配额时提前清理
+        long evictedUploads = sweeperService.getEvictedUploads();
+        sweeperService.sweep();
+
+        assertThat(uploadFolder.resolve(IDENTIFIER)).doesNotExist();
+        assertThat(sweeperService.getEvictedUploads()).isEqualTo(evictedUploads + 1);
+        assertThat(userFiles).allMatch(Files::exists);
+    }
+
+    private void saveChunk() throws IOException {
+        ChunkInfo chunkInfo = new ChunkInfo();
+        chunkInfo.setChunkNumber(1);
+        chunkInfo.setChunkSize(1024L);
+        chunkInfo.setCurrentChunkSize(1024L);
+        chunkInfo.setTotalSize(2048L);
+        chunkInfo.setIdentifier(IDENTIFIER);
+        chunkInfo.setFilename(FILENAME);
+        chunkInfo.setTotalChunks(2);
+        chunkInfo.setMultipartFile(new MockMultipartFile("upfile", FILENAME, null, new byte[1024]));
+        chunkService.saveChunk(chunkInfo, uploadFolder.toString());
+    }
+
+    private void expireAll() throws IOException {
+        FileTime expired = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+        try (Stream<Path> files = Files.walk(uploadFolder)) {
+            for (Path path : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(path, expired);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.throttle.ThrottlePermit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThrottleServiceImplTest {
+    private static final String CLIENT = "127.0.0.1";
+    private static final String OTHER_CLIENT = "127.0.0.2";
+    private static final String TENANT = "tenant";
+
+    private TransferProperties transferProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private ThrottleServiceImpl throttleService;
+
+    @BeforeEach
+    void setUp() {
+        transferProperties = new TransferProperties();
+        transferProperties.getThrottle().setEnabled(true);
+        meterRegistry = new SimpleMeterRegistry();
+        TransferMetricsServiceImpl transferMetricsService = new TransferMetricsServiceImpl();
+        ReflectionTestUtils.setField(transferMetricsService, "meterRegistry", meterRegistry);
+        transferMetricsService.init();
+
+        throttleService = new ThrottleServiceImpl();
+        ReflectionTestUtils.setField(throttleService, "transferProperties", transferProperties);
+        ReflectionTestUtils.setField(throttleService, "transferMetricsService", transferMetricsService);
+    }
+
+    @Test
+    void limitConcurrentPerClient() {
+        transferProperties.getThrottle().setClientMaxConcurrent(1);
+
+        ThrottlePermit permit = throttleService.acquire(CLIENT, null);
+        assertThat(permit).isNotNull();
+        assertThat(throttleService.acquire(CLIENT, null)).isNull();
+        // 其他客户端不受影响
+        assertThat(throttleService.acquire(OTHER_CLIENT, null)).isNotNull();
+
+        // 重复关闭只释放一次
+        permit.close();
+        permit.close();
+        assertThat(throttleService.acquire(CLIENT, null)).isNotNull();
+        assertThat(throttleService.acquire(CLIENT, null)).isNull();
+    }
+
+    @Test
+    void limitConcurrentPerTenant() {
+        transferProperties.getThrottle().setClientMaxConcurrent(1);
+        transferProperties.getThrottle().setTenantMaxConcurrent(1);
+
+        assertThat(throttleService.acquire(CLIENT, TENANT)).isNotNull();
+        // 租户超出上限时释放已经占用的客户端并发数
+        assertThat(throttleService.acquire(OTHER_CLIENT, TENANT)).isNull();
+        assertThat(throttleService.acquire(OTHER_CLIENT, null)).isNotNull();
+
+        assertThat(meterRegistry.counter("file.transfer.throttle.rejected", "scope", "tenant").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void shapeBandwidth() {
+        ThrottlePermit permit = throttleService.acquire(CLIENT, null);
+        assertThat(permit.isShaping()).isFalse();
+        assertThat(permit.reserve(DataSize.ofMegabytes(100).toBytes())).isZero();
+
+        transferProperties.getThrottle().setClientBandwidth(DataSize.ofMegabytes(1));
+        transferProperties.getThrottle().setBurst(DataSize.ofMegabytes(1));
+        ThrottlePermit shapedPermit = throttleService.acquire(OTHER_CLIENT, null);
+        assertThat(shapedPermit.isShaping()).isTrue();
+        // 突发量以内无需等待 超出部分按带宽等待
+        assertThat(shapedPermit.reserve(DataSize.ofMegabytes(1).toBytes())).isZero();
+        assertThat(shapedPermit.reserve(DataSize.ofKilobytes(512).toBytes()))
+                .isBetween(400_000_000L, 500_000_000L);
+    }
+}
@@ -0,0 +1,146 @@
+package file.transfer.service.service.impl;
+
+import file.transfer.service.config.TransferProperties;
+import file.transfer.service.entity.upload.ChunkInfo;
+import file.transfer.service.entity.upload.UploadSession;
+import file.transfer.service.service.UploadSessionService;
+import file.transfer.service.utils.ChunkBitmap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadJournalServiceImplTest {
+    private static final String FILENAME = "a.bin";
+
+    @TempDir
+    Path tempDir;
+
+    private TransferProperties transferProperties;
+    private Path journalPath;
+    private String folder;
+    private String mergedFolder;
+
+    private UploadSessionService uploadSessionService;
+    private UploadJournalServiceImpl uploadJournalService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        journalPath = tempDir.resolve("journal").resolve("upload.journal");
+        transferProperties = new TransferProperties();
+        transferProperties.getJournal().setEnabled(true);
+        transferProperties.getJournal().setPath(journalPath.toString());
+        transferProperties.getJournal().setCapacity(DataSize.ofKilobytes(64));
+        // 文件夹已经不存在的会话在回放时丢弃
+        folder = Files.createDirectory(tempDir.resolve("identifier")).toString();
+        mergedFolder = Files.createDirectory(tempDir.resolve("merged")).toString();
+        start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        uploadJournalService.close();
+    }
+
+    @Test
+    void replayRestoresSessions() throws IOException {
+        uploadJournalService.chunkLimited(folder, FILENAME, 1024);
+        uploadJournalService.chunkReceived(folder, chunkInfo(3, 3));
+        uploadJournalService.chunkReceived(folder, chunkInfo(1, 3));
+        // 合并完成的上传会话不再恢复
+        uploadJournalService.chunkReceived(mergedFolder, chunkInfo(1, 1));
+        uploadJournalService.mergeStarted(mergedFolder, FILENAME);
+        uploadJournalService.mergeCompleted(mergedFolder, FILENAME);
+
+        restart();
+
+        UploadSession uploadSession = uploadSessionService.getSession(folder, FILENAME);
+        assertThat(uploadSession).isNotNull();
+        assertThat(uploadSession.getChunkBitmap().getTotalChunks()).isEqualTo(3);
+        assertThat(uploadSession.getChunkBitmap().toList()).containsExactly(1, 3);
+        assertThat(uploadSession.getMaxChunkSize()).isEqualTo(1024);
+        assertThat(uploadSessionService.getSession(mergedFolder, FILENAME)).isNull();
+    }
+
+    @Test
+    void replayStopsAtCorruptedRecord() throws IOException {
+        uploadJournalService.chunkReceived(folder, chunkInfo(1, 3));
+        uploadJournalService.chunkReceived(folder, chunkInfo(2, 3));
+        uploadJournalService.chunkReceived(folder, chunkInfo(3, 3));
+        uploadJournalService.close();
+
+        // 修改第二条记录的内容 该记录及之后的记录都不再回放
+        byte[] journal = Files.readAllBytes(journalPath);
+        int secondRecord = Integer.BYTES * 2 + ByteBuffer.wrap(journal).getInt(0);
+        journal[secondRecord + Integer.BYTES * 2 + 1] ^= 1;
+        Files.write(journalPath, journal);
+
+        restart();
+
+        assertThat(uploadSessionService.getSession(folder, FILENAME).getChunkBitmap().toList()).containsExactly(1);
+    }
+
+    @Test
+    void replayDropsSessionsOfDeletedFolders() throws IOException {
+        uploadJournalService.chunkReceived(folder, chunkInfo(1, 3));
+        uploadJournalService.sessionDeleted(folder);
+        uploadJournalService.chunkReceived(mergedFolder, chunkInfo(1, 3));
+        Files.delete(Path.of(mergedFolder));
+
+        restart();
+
+        assertThat(uploadSessionService.getSessions()).isEmpty();
+    }
+
+    @Test
+    void compactKeepsLiveSessions() throws IOException {
+        // 内存中的上传会话 压缩时以此为准
+        ChunkBitmap chunkBitmap = new ChunkBitmap(3);
+        chunkBitmap.set(2);
+        uploadSessionService.getOrLoadSession(folder, FILENAME, () -> chunkBitmap).setMaxChunkSize(2048);
+        // 只在日志中的上传会话被压缩掉
+        uploadJournalService.chunkReceived(mergedFolder, chunkInfo(1, 3));
+
+        uploadJournalService.compact();
+        restart();
+
+        UploadSession uploadSession = uploadSessionService.getSession(folder, FILENAME);
+        assertThat(uploadSession.getChunkBitmap().getTotalChunks()).isEqualTo(3);
+        assertThat(uploadSession.getChunkBitmap().toList()).containsExactly(2);
+        assertThat(uploadSession.getMaxChunkSize()).isEqualTo(2048);
+        assertThat(uploadSessionService.getSession(mergedFolder, FILENAME)).isNull();
+    }
+
+    /**
+     * 模拟服务重启 关闭日志后使用新的上传会话回放
+     */
+    private void restart() throws IOException {
+        uploadJournalService.close();
+        start();
+    }
+
+    private void start() throws IOException {
+        uploadSessionService = new UploadSessionServiceImpl();
+        uploadJournalService = new UploadJournalServiceImpl();
+        ReflectionTestUtils.setField(uploadJournalService, "transferProperties", transferProperties);
+        ReflectionTestUtils.setField(uploadJournalService, "uploadSessionService", uploadSessionService);
+        uploadJournalService.init();
+    }
+
+    private ChunkInfo chunkInfo(int chunkNumber, int totalChunks) {
+        ChunkInfo chunkInfo = new ChunkInfo();
+        chunkInfo.setFilename(FILENAME);
+        chunkInfo.setChunkNumber(chunkNumber);
+        chunkInfo.setTotalChunks(totalChunks);
+        return chunkInfo;
+    }
+}
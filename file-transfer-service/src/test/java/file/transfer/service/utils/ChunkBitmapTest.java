@@ -0,0 +1,82 @@
+package file.transfer.service.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkBitmapTest {
+    @Test
+    void completeWhenAllChunksSet() {
+        ChunkBitmap chunkBitmap = new ChunkBitmap(3);
+
+        assertThat(chunkBitmap.set(3)).isTrue();
+        assertThat(chunkBitmap.set(1)).isTrue();
+        // 重复上传的文件块
+        assertThat(chunkBitmap.set(1)).isFalse();
+        assertThat(chunkBitmap.isComplete()).isFalse();
+        assertThat(chunkBitmap.toList()).containsExactly(1, 3);
+
+        chunkBitmap.set(2);
+        assertThat(chunkBitmap.isComplete()).isTrue();
+        assertThat(chunkBitmap.cardinality()).isEqualTo(3);
+        assertThat(chunkBitmap.get(2)).isTrue();
+        assertThat(chunkBitmap.get(0)).isFalse();
+    }
+
+    @Test
+    void unknownTotalChunksIsNeverComplete() {
+        // 从磁盘上的文件块重建时文件块总数未知
+        ChunkBitmap chunkBitmap = new ChunkBitmap(0);
+        chunkBitmap.setUnchecked(1);
+        chunkBitmap.setUnchecked(2);
+        assertThat(chunkBitmap.isComplete()).isFalse();
+
+        // 收到下一个文件块时补充 之后不再改变
+        chunkBitmap.setTotalChunks(3);
+        chunkBitmap.setTotalChunks(2);
+        assertThat(chunkBitmap.getTotalChunks()).isEqualTo(3);
+        assertThat(chunkBitmap.isComplete()).isFalse();
+        chunkBitmap.set(3);
+        assertThat(chunkBitmap.isComplete()).isTrue();
+    }
+
+    @Test
+    void rejectChunkNumberOutOfRange() {
+        ChunkBitmap chunkBitmap = new ChunkBitmap(2);
+
+        assertThatThrownBy(() -> chunkBitmap.set(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> chunkBitmap.set(3)).isInstanceOf(IllegalArgumentException.class);
+        // 文件块数多于总数时不会被当作完整
+        chunkBitmap.setUnchecked(3);
+        chunkBitmap.set(1);
+        assertThat(chunkBitmap.isComplete()).isFalse();
+    }
+
+    @Test
+    void storeAndLoad(@TempDir Path tempDir) throws Exception {
+        ChunkBitmap chunkBitmap = new ChunkBitmap(20);
+        chunkBitmap.set(1);
+        chunkBitmap.set(10);
+        chunkBitmap.set(20);
+        Path bitmapPath = tempDir.resolve("a.bin.chunks");
+        chunkBitmap.store(bitmapPath);
+
+        ChunkBitmap loadedBitmap = ChunkBitmap.load(bitmapPath);
+        assertThat(loadedBitmap.getTotalChunks()).isEqualTo(20);
+        assertThat(loadedBitmap.toList()).containsExactly(1, 10, 20);
+        assertThat(ChunkBitmap.valueOf(chunkBitmap.toByteArray()).toList()).containsExactly(1, 10, 20);
+    }
+
+    @Test
+    void loadTruncatedBitmap(@TempDir Path tempDir) throws Exception {
+        Path bitmapPath = Files.write(tempDir.resolve("a.bin.chunks"), new byte[]{0, 0});
+
+        assertThatThrownBy(() -> ChunkBitmap.load(bitmapPath)).isInstanceOf(EOFException.class);
+    }
+}
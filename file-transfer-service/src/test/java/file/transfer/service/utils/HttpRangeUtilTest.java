@@ -0,0 +1,80 @@
+package file.transfer.service.utils;
+
+import file.transfer.service.entity.download.ByteRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpRangeUtilTest {
+    private static final long FILE_SIZE = 1000;
+    private static final long LAST_MODIFIED = 1_700_000_000_123L;
+
+    @Test
+    void parseSingleRanges() {
+        assertThat(HttpRangeUtil.parseRanges("bytes=0-99", FILE_SIZE)).containsExactly(new ByteRange(0, 99));
+        // 结束位置超出文件大小时取文件大小
+        assertThat(HttpRangeUtil.parseRanges("bytes=900-5000", FILE_SIZE)).containsExactly(new ByteRange(900, 999));
+        // 从起始位置到文件结尾
+        assertThat(HttpRangeUtil.parseRanges("bytes=500-", FILE_SIZE)).containsExactly(new ByteRange(500, 999));
+        // 最后n个字节 超出文件大小时为整个文件
+        assertThat(HttpRangeUtil.parseRanges("bytes=-100", FILE_SIZE)).containsExactly(new ByteRange(900, 999));
+        assertThat(HttpRangeUtil.parseRanges("bytes=-5000", FILE_SIZE)).containsExactly(new ByteRange(0, 999));
+    }
+
+    @Test
+    void parseMultipleRanges() {
+        List<ByteRange> ranges = HttpRangeUtil.parseRanges("bytes=0-9, 100-199 ,-10", FILE_SIZE);
+
+        assertThat(ranges).containsExactly(new ByteRange(0, 9), new ByteRange(100, 199), new ByteRange(990, 999));
+        assertThat(ranges.get(1).getLength()).isEqualTo(100);
+    }
+
+    @Test
+    void parseUnsatisfiableRanges() {
+        // 起始位置超出文件大小的范围被忽略 全部不可满足时为空列表(416)
+        assertThat(HttpRangeUtil.parseRanges("bytes=1000-1099", FILE_SIZE)).isEmpty();
+        assertThat(HttpRangeUtil.parseRanges("bytes=-0", FILE_SIZE)).isEmpty();
+        assertThat(HttpRangeUtil.parseRanges("bytes=2000-,0-0", FILE_SIZE)).containsExactly(new ByteRange(0, 0));
+    }
+
+    @Test
+    void parseInvalidRanges() {
+        // 格式错误时忽略Range 返回整个文件
+        assertThat(HttpRangeUtil.parseRanges(null, FILE_SIZE)).isNull();
+        assertThat(HttpRangeUtil.parseRanges("items=0-99", FILE_SIZE)).isNull();
+        assertThat(HttpRangeUtil.parseRanges("bytes=100", FILE_SIZE)).isNull();
+        assertThat(HttpRangeUtil.parseRanges("bytes=a-b", FILE_SIZE)).isNull();
+        assertThat(HttpRangeUtil.parseRanges("bytes=200-100", FILE_SIZE)).isNull();
+        assertThat(HttpRangeUtil.parseRanges("bytes=" + "0-0,".repeat(101), FILE_SIZE)).isNull();
+    }
+
+    @Test
+    void checkIfRange() {
+        String eTag = HttpRangeUtil.generateETag(FILE_SIZE, LAST_MODIFIED);
+
+        assertThat(HttpRangeUtil.checkIfRange(null, -1, eTag, LAST_MODIFIED)).isTrue();
+        assertThat(HttpRangeUtil.checkIfRange(eTag, -1, eTag, LAST_MODIFIED)).isTrue();
+        assertThat(HttpRangeUtil.checkIfRange("\"other\"", -1, eTag, LAST_MODIFIED)).isFalse();
+        // 弱ETag不能用于Range请求
+        assertThat(HttpRangeUtil.checkIfRange("W/" + eTag, -1, eTag, LAST_MODIFIED)).isFalse();
+        // HTTP日期精确到秒
+        assertThat(HttpRangeUtil.checkIfRange("date", LAST_MODIFIED / 1000 * 1000, eTag, LAST_MODIFIED)).isTrue();
+        assertThat(HttpRangeUtil.checkIfRange("date", LAST_MODIFIED + 1000, eTag, LAST_MODIFIED)).isFalse();
+        assertThat(HttpRangeUtil.checkIfRange("date", -1, eTag, LAST_MODIFIED)).isFalse();
+    }
+
+    @Test
+    void checkNotModified() {
+        String eTag = HttpRangeUtil.generateETag(FILE_SIZE, LAST_MODIFIED);
+
+        assertThat(HttpRangeUtil.checkNotModified("\"a\", W/" + eTag, -1, eTag, LAST_MODIFIED)).isTrue();
+        assertThat(HttpRangeUtil.checkNotModified("*", -1, eTag, LAST_MODIFIED)).isTrue();
+        // If-None-Match优先 不匹配时不再比较If-Modified-Since
+        assertThat(HttpRangeUtil.checkNotModified("\"a\"", LAST_MODIFIED, eTag, LAST_MODIFIED)).isFalse();
+        assertThat(HttpRangeUtil.checkNotModified(null, LAST_MODIFIED / 1000 * 1000, eTag, LAST_MODIFIED)).isTrue();
+        assertThat(HttpRangeUtil.checkNotModified(null, LAST_MODIFIED - 1000, eTag, LAST_MODIFIED)).isFalse();
+        assertThat(HttpRangeUtil.checkNotModified(null, -1, eTag, LAST_MODIFIED)).isFalse();
+    }
+}
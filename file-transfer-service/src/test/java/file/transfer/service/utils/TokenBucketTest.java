@@ -0,0 +1,58 @@
+package file.transfer.service.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenBucketTest {
+    @Test
+    void burstUpToCapacity() {
+        // 每秒1个令牌 测试期间不会补充
+        TokenBucket tokenBucket = new TokenBucket(1, 3);
+
+        assertThat(tokenBucket.tryAcquire(2)).isTrue();
+        assertThat(tokenBucket.tryAcquire(1)).isTrue();
+        assertThat(tokenBucket.tryAcquire(1)).isFalse();
+    }
+
+    @Test
+    void permitsOverCapacityNeverAcquired() {
+        TokenBucket tokenBucket = new TokenBucket(1, 3);
+
+        assertThat(tokenBucket.tryAcquire(4)).isFalse();
+        // 获取失败不消耗令牌
+        assertThat(tokenBucket.tryAcquire(3)).isTrue();
+    }
+
+    @Test
+    void reserveReturnsWaitTime() {
+        TokenBucket tokenBucket = new TokenBucket(10, 1);
+
+        assertThat(tokenBucket.reserve(1)).isZero();
+        // 令牌已用完 下一个令牌约100ms后到达 预占后排在后面的请求等待更久
+        long waitNanos = tokenBucket.reserve(1);
+        assertThat(waitNanos).isPositive().isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(tokenBucket.reserve(1)).isGreaterThan(waitNanos);
+        assertThat(tokenBucket.tryAcquire(1)).isFalse();
+    }
+
+    @Test
+    void acquireWaitsForRefill() {
+        TokenBucket tokenBucket = new TokenBucket(20, 1);
+        tokenBucket.acquire(1);
+
+        long start = System.nanoTime();
+        tokenBucket.acquire(2);
+        // 2个令牌需要约100ms
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    void rejectInvalidArguments() {
+        assertThatThrownBy(() -> new TokenBucket(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucket(1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
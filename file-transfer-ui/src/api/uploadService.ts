@@ -16,15 +16,38 @@ interface IAxiosResult {
  * @param identifier 文件唯一标识
  * @param filename 文件名
  * @param uploadFolderPath 上传文件路径
+ * @param lastChunkHash 最后一个文件块的MD5 服务器上有相同内容时秒传
+ * @param totalSize 文件大小
  */
 export const uploadChunk = (url: string,
   identifier: string,
   filename: string,
-  uploadFolderPath: string): Promise<IAxiosResult> =>
+  uploadFolderPath: string,
+  lastChunkHash?: string,
+  totalSize?: number): Promise<IAxiosResult> =>
+  request({
+    url,
+    method: 'get',
+    params: { identifier, filename, uploadFolderPath, lastChunkHash, totalSize }
+  })
+
+/**
+ * 根据服务器测得的吞吐量和RTT协商文件块大小和并发数
+ * @param url 服务器路径
+ * @param filename 文件名
+ * @param totalSize 文件大小
+ * @param uploadFolderPath 上传文件路径
+ * @param rtt 上一次协商请求的往返时间(毫秒)
+ */
+export const negotiateChunkSize = (url: string,
+  filename: string,
+  totalSize: number,
+  uploadFolderPath: string,
+  rtt?: number): Promise<IAxiosResult> =>
   request({
     url,
     method: 'get',
-    params: { identifier, filename, uploadFolderPath }
+    params: { filename, totalSize, uploadFolderPath, rtt }
   })
 
 /**
@@ -55,6 +78,18 @@ export const mergeFile = (url: string,
     url,
     method: 'post',
     data: uploadFile,
-    params: { uploadFolderPath },
-    responseType: 'blob'
+    params: { uploadFolderPath }
+  })
+
+/**
+ * 查询合并任务的状态和进度
+ * @param url 服务器路径
+ * @param jobId 合并任务id
+ */
+export const getMergeJob = (url: string,
+  jobId: string): Promise<IAxiosResult> =>
+  request({
+    url,
+    method: 'get',
+    params: { jobId }
   })
@@ -50,7 +50,7 @@ export class Chunk extends MyEvent {
     this.fileParam = fileParam
     this.offset = offset
 
-    this.chunkSize = this.uploaderOption.chunkSize
+    this.chunkSize = this.fileParam.chunkSize || this.uploaderOption.chunkSize
     this.startByte = this.computeStartByte()
     this.endByte = this.computeEndByte()
     this.status = STATUS.PENDING
@@ -123,9 +123,11 @@ export class Chunk extends MyEvent {
       const query: Object = this.getParams()
       // 后端发送数据 使用FormData格式
       const data = new FormData()
-      // 添加参数信息
+      // 添加参数信息 跳过未设置的可选参数
       Object.entries(query).forEach(([k, v]) => {
-        data.append(k, v as string)
+        if (v !== undefined) {
+          data.append(k, v as string)
+        }
       })
 
       // 添加文件块参数
@@ -207,7 +209,8 @@ export class Chunk extends MyEvent {
       identifier: this.fileParam.identifier,
       filename: this.fileParam.filename,
       relativePath: this.fileParam.relativePath,
-      totalChunks: this.fileParam.totalChunks
+      totalChunks: this.fileParam.totalChunks,
+      negotiationId: this.fileParam.negotiationId
     }
   }
 
@@ -17,6 +17,8 @@ export class UploadFile extends MyEvent {
   relativePath: string
   // 文件唯一标识
   uniqueIdentifier: string
+  // 最后一个文件块的MD5 与唯一标识一起用于秒传
+  lastChunkHash: string
   // 文件上传状态
   state: STATUS
   // 文件块列表
@@ -29,6 +31,12 @@ export class UploadFile extends MyEvent {
   timeRemaining: number
   // 消息提示
   message: string
+  // 文件块大小
+  chunkSize: number
+  // 同时上传的文件块个数
+  simultaneousUploads: number
+  // 协商标识 未协商时为undefined
+  negotiationId?: string
   // 上传器配置项
   private readonly uploaderOption: IUploaderOptions
   private requestInstance: ConRequest
@@ -43,14 +51,30 @@ export class UploadFile extends MyEvent {
     this.size = file.size
     this.relativePath = file.webkitRelativePath || this.name
     this.uniqueIdentifier = ''
+    this.lastChunkHash = ''
     this.state = STATUS.PENDING
     this.chunks = []
     this.currentSpeed = 0
     this.currentProgress = 0
     this.timeRemaining = 0
     this.message = ''
+    this.chunkSize = this.uploaderOption.chunkSize
+    this.simultaneousUploads = this.uploaderOption.simultaneousUploads
     // 创建并发上传对象
-    this.requestInstance = new ConRequest(this.uploaderOption.simultaneousUploads)
+    this.requestInstance = new ConRequest(this.simultaneousUploads)
+  }
+
+  /**
+   * 使用协商的文件块大小和并发数 需要在计算文件唯一标识之前设置
+   * @param chunkSize 文件块大小
+   * @param simultaneousUploads 同时上传的文件块个数
+   * @param negotiationId 协商标识
+   */
+  setChunkNegotiation(chunkSize: number, simultaneousUploads: number, negotiationId?: string) {
+    this.chunkSize = chunkSize
+    this.simultaneousUploads = simultaneousUploads
+    this.negotiationId = negotiationId || undefined
+    this.requestInstance = new ConRequest(this.simultaneousUploads)
   }
 
   /**
@@ -61,7 +85,7 @@ export class UploadFile extends MyEvent {
     const filename = this.name
     const { uploadFolderPath } = this.uploaderOption
     return await uploadChunk(this.uploaderOption.serviceIp + this.uploaderOption.uploadUrl,
-      identifier, filename, uploadFolderPath)
+      identifier, filename, uploadFolderPath, this.lastChunkHash, this.size)
   }
 
   /**
@@ -69,19 +93,21 @@ export class UploadFile extends MyEvent {
    */
   generateChunks(chunkIndex: number) {
     // 文件块个数
-    const chunkNumber = Math.max(Math.ceil(this.size / this.uploaderOption.chunkSize), 1)
+    const chunkNumber = Math.max(Math.ceil(this.size / this.chunkSize), 1)
 
     // 生成所有的文件块
     for (let offset = 0; offset < chunkNumber; offset++) {
       // 文件参数信息
       const fileParam: IUploadFileParam = {
         chunkNumber: offset + 1,
+        chunkSize: this.chunkSize,
         totalSize: this.size,
         identifier: this.uniqueIdentifier,
         filename: this.name,
         fileType: this.fileType,
         relativePath: this.relativePath,
-        totalChunks: chunkNumber
+        totalChunks: chunkNumber,
+        negotiationId: this.negotiationId
       }
 
       // 文件块对象
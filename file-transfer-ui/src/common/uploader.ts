@@ -2,11 +2,16 @@ import { UploadFile } from './uploadFile'
 
 import { IUploaderFileInfo, IUploaderOptions, IUploaderUserOptions, STATUS } from '@/types'
 import { MyEvent } from './myEvent'
-import { mergeFile } from '@/api/uploadService.ts'
+import { getMergeJob, mergeFile, negotiateChunkSize } from '@/api/uploadService.ts'
 import { UploadFileQueue } from '@/common/UploadFileQueue.ts'
-import { generateUniqueIdentifier } from '@//utils'
+import { generateLastChunkHash, generateUniqueIdentifier } from '@//utils'
 import { ElMessage } from 'element-plus'
 
+// 轮询合并任务的间隔(毫秒)
+const MERGE_POLL_INTERVAL = 1000
+// 轮询合并任务的最长时间(毫秒) 超时后按合并失败处理
+const MERGE_POLL_TIMEOUT = 10 * 60 * 1000
+
 /**
  * 上传器类
  */
@@ -27,6 +32,8 @@ export class Uploader extends MyEvent {
   uploadFileMessage: string
   // 是否正在上传文件
   hasUploadingFile: boolean
+  // 上一次协商文件块大小请求的往返时间(毫秒)
+  private rtt?: number
 
   constructor(options: IUploaderUserOptions) {
     super()
@@ -282,13 +289,38 @@ export class Uploader extends MyEvent {
    * @param file 需要上传的文件
    */
   private async preprocessUploadFile(file: File) {
+    // 协商文件块大小 文件唯一标识按文件块大小计算
+    if (this.uploaderOptions.chunkSizeUrl) {
+      await this.negotiateChunkSize(this.newUploadFile)
+    }
     // 设置UploadFile的唯一标识
-    const { chunkSize } = this.uploaderOptions
-    this.newUploadFile.uniqueIdentifier = await generateUniqueIdentifier(file, chunkSize)
+    this.newUploadFile.uniqueIdentifier = await generateUniqueIdentifier(file, this.newUploadFile.chunkSize)
+    this.newUploadFile.lastChunkHash = await generateLastChunkHash(file, this.newUploadFile.chunkSize)
     // 设置UploadFile状态为等待开始
     this.newUploadFile.state = STATUS.PENDING
   }
 
+  /**
+   * 根据服务器测得的吞吐量和RTT协商文件块大小和并发数 失败时使用默认配置
+   * 同一个文件再次上传时服务器推荐相同的文件块大小 可以续传 上传文件块时带上协商标识
+   * @param uploadFile 上传文件
+   */
+  private async negotiateChunkSize(uploadFile: UploadFile) {
+    const { serviceIp, chunkSizeUrl, uploadFolderPath, successCode } = this.uploaderOptions
+    const startTime = Date.now()
+    try {
+      const result = await negotiateChunkSize(serviceIp + chunkSizeUrl, uploadFile.name,
+        uploadFile.size, uploadFolderPath, this.rtt)
+      this.rtt = Date.now() - startTime
+      if (successCode.includes(result.code)) {
+        const { chunkSize, simultaneousUploads, negotiationId } = result.data.chunkNegotiation
+        uploadFile.setChunkNegotiation(chunkSize, simultaneousUploads, negotiationId)
+      }
+    } catch (error) {
+      console.log('协商文件块大小失败', error)
+    }
+  }
+
   /**
    * 校验上传文件
    * @param file 文件
@@ -342,9 +374,9 @@ export class Uploader extends MyEvent {
           .then(() => {
             this.triggerUploadFileEvent('onFileSuccess', this.currentUploadFile, '上传文件成功')
           })
-          .catch(() => {
+          .catch((error: Error) => {
             // 触发上传器上传失败事件
-            this.triggerUploadFileEvent('onFileFailed', this.currentUploadFile, '合并文件错误')
+            this.triggerUploadFileEvent('onFileFailed', this.currentUploadFile, `合并文件错误:${error.message}`)
           })
       })
       // 上传失败
@@ -358,8 +390,31 @@ export class Uploader extends MyEvent {
    * @param uploadFile 上传文件
    */
   private async mergeUploadFile(uploadFile: UploadFile) {
-    return await mergeFile(this.uploaderOptions.serviceIp + this.uploaderOptions.mergeUrl,
-      uploadFile, this.uploaderOptions.uploadFolderPath)
+    const mergeUrl = this.uploaderOptions.serviceIp + this.uploaderOptions.mergeUrl
+    const result = await mergeFile(mergeUrl, uploadFile, this.uploaderOptions.uploadFolderPath)
+    if (!this.uploaderOptions.successCode.includes(result.code)) {
+      throw new Error(result.message)
+    }
+
+    // 后端在后台合并文件 轮询合并任务直到结束或超时
+    const jobId: string = result.data.jobId
+    const deadline = Date.now() + MERGE_POLL_TIMEOUT
+    while (Date.now() < deadline) {
+      const jobResult = await getMergeJob(mergeUrl, jobId)
+      // 合并任务不存在(已过期或服务重启)时后端返回失败 没有data
+      if (!this.uploaderOptions.successCode.includes(jobResult.code)) {
+        throw new Error(jobResult.message)
+      }
+      const { mergeJob } = jobResult.data
+      if (mergeJob === undefined || mergeJob.state === 'FAILED') {
+        throw new Error('合并文件失败')
+      }
+      if (mergeJob.state === 'COMPLETED') {
+        return mergeJob
+      }
+      await new Promise((resolve) => setTimeout(resolve, MERGE_POLL_INTERVAL))
+    }
+    throw new Error('合并文件超时')
   }
 
   /**
@@ -469,6 +524,7 @@ const optionsDefaults: IUploaderOptions = {
   serviceIp: '',
   uploadUrl: '',
   mergeUrl: '',
+  chunkSizeUrl: '',
   uploadFolderPath: '',
   fileParameterName: '',
   headers: {}
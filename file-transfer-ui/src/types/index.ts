@@ -17,6 +17,8 @@ export interface IUploaderUserOptions {
   // 文件上传地址
   uploadFolderPath: string;
   // 可选项
+  // 协商文件块大小url 为空时使用固定的chunkSize和simultaneousUploads
+  chunkSizeUrl?: string;
   // 文件最大大小
   fileMaxSize?: number;
   // 文件块大小
@@ -49,6 +51,8 @@ export interface IUploaderOptions {
   fileParameterName: string;
   // 文件上传地址
   uploadFolderPath: string;
+  // 协商文件块大小url
+  chunkSizeUrl: string;
   // 文件最大大小
   fileMaxSize: number;
   // 文件块大小
@@ -100,6 +104,7 @@ export interface IUploadFileParam {
   fileType: string;
   relativePath: string;
   totalChunks: number;
+  negotiationId?: string;
 }
 
 /**
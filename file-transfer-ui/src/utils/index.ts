@@ -123,6 +123,18 @@ export const generateUniqueIdentifier = async (file: File, chunkSize: number) =>
   return spark.end()
 }
 
+/**
+ * 获取最后一个文件块的MD5 与文件唯一标识、文件大小一起唯一确定文件内容 用于秒传其他文件名上传过的相同内容
+ * @param file 文件
+ * @param chunkSize 文件块大小
+ * @returns 最后一个文件块的MD5
+ */
+export const generateLastChunkHash = async (file: File, chunkSize: number) => {
+  const chunkCount = Math.max(Math.ceil(file.size / chunkSize), 1)
+  const spark = await getFileSparkMD5(new SparkMD5.ArrayBuffer(), file.slice(chunkSize * (chunkCount - 1)))
+  return spark.end()
+}
+
 /**
  * 获取文件块的MD5校验值
  * @param spark SparkMD5实例